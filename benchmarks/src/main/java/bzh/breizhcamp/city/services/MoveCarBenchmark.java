@@ -0,0 +1,52 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.city.state.CarStore;
+import bzh.breizhcamp.events.NoopEventSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one move of a leader car and of the convoy following it, with the emission of their detection events. Lives
+ * in the package of {@link CityShard} to call its move method directly, without the tick engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveCarBenchmark {
+
+    // Length of the chain of cars following the moving one, each one following the previous one
+    @Param({"0", "10", "100", "100000"})
+    int followers;
+
+    private CityService cityService;
+    private CityShard shard;
+    private int car;
+
+    @Setup
+    public void setup() {
+        // Each move encodes its detection event and hands it to the sink
+        cityService = new CityService(1000, 42).initSink(new NoopEventSink(), 0);
+        shard = cityService.shard(0);
+        CarStore cars = shard.carStore();
+        car = cars.add("LEADER", "LEADER", 500, 500, CarStore.NO_CAR, 1000, 0);
+        int followed = car;
+        for (int i = 0; i < followers; i++) {
+            followed = cars.add("FOLLOWER-" + i, "FOLLOWER-" + i, 500, 500, followed, 1000, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cityService.close();
+    }
+
+    @Benchmark
+    public int moveCarToNextPosition() {
+        shard.moveCarToNextPosition(car);
+        return shard.carStore().x(car);
+    }
+}
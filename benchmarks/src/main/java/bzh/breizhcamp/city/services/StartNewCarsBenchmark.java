@@ -0,0 +1,56 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.faker.FakerInstance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk creation of cars through {@link CityService#startNewCars(String, int)}, and the share of the Faker generated
+ * identities in it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StartNewCarsBenchmark {
+
+    @Param({"1", "100"})
+    int count;
+
+    private CityService cityService;
+
+    // A new city per iteration keeps the number of cars bounded
+    @Setup(Level.Iteration)
+    public void setup() {
+        cityService = new CityService(1000, 42);
+        // Without a sink the cars are held still: the tick engine only creates them, instead of moving all the cars
+        // added so far between two calls
+        for (int i = 0; i < cityService.shardCount(); i++) {
+            cityService.shard(i).awaitSink();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        cityService.close();
+    }
+
+    @Benchmark
+    public List<Car> startNewCars() {
+        return cityService.startNewCars(null, count);
+    }
+
+    @Benchmark
+    public void fakerIdentities(Blackhole blackhole) {
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(FakerInstance.get().vehicle().vin());
+            blackhole.consume(FakerInstance.get().vehicle().licensePlate());
+        }
+    }
+}
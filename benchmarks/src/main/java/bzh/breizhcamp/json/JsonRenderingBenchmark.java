@@ -0,0 +1,52 @@
+package bzh.breizhcamp.json;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.City;
+import bzh.breizhcamp.city.services.CityService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON rendering of the REST responses through {@link JacksonInstance}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonRenderingBenchmark {
+
+    @Param({"1", "1000"})
+    int cars;
+
+    private CityService cityService;
+    private City city;
+    private List<Car> carList;
+
+    @Setup
+    public void setup() {
+        cityService = new CityService(1000, 42);
+        cityService.startNewCars(null, cars);
+        city = cityService.getCity();
+        carList = cityService.cars();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cityService.close();
+    }
+
+    @Benchmark
+    public String city() throws JsonProcessingException {
+        return JacksonInstance.get().writeValueAsString(city);
+    }
+
+    @Benchmark
+    public String cars() throws JsonProcessingException {
+        return JacksonInstance.get().writeValueAsString(carList);
+    }
+}
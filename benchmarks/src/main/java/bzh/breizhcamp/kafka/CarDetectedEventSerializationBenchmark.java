@@ -0,0 +1,76 @@
+package bzh.breizhcamp.kafka;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a {@link CarDetectedEvent}: the encoder used by the generator, compared to building the Avro record
+ * and writing it with a {@link SpecificDatumWriter}, as the KafkaAvroSerializer does once the schema id is known.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CarDetectedEventSerializationBenchmark {
+    private static final String SENSOR_ID = "king's_landing-512-128";
+    private static final byte[] SENSOR_KEY = SENSOR_ID.getBytes(StandardCharsets.UTF_8);
+    private static final String VIN = "1HGCM82633A004352";
+    private static final String LICENSE_PLATE = "AB-123-CD";
+    private static final String CITY = "King's Landing";
+    private static final byte[] PATH_ID = "9f86d081884c7d65".getBytes(StandardCharsets.UTF_8);
+    private static final byte[][] PATH_SENSOR_KEYS = new byte[10][];
+
+    static {
+        for (int i = 0; i < PATH_SENSOR_KEYS.length; i++) {
+            PATH_SENSOR_KEYS[i] = ("king's_landing-" + (503 + i) + "-128").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(1, CITY);
+    private final SpecificDatumWriter<CarDetectedEvent> writer = new SpecificDatumWriter<>(CarDetectedEvent.class);
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private BinaryEncoder binaryEncoder;
+    private long timestamp = 1745000000000L;
+
+    @Benchmark
+    public int encoder() {
+        return encoder.encode(SENSOR_KEY, VIN, LICENSE_PLATE, 512, 128, timestamp++);
+    }
+
+    @Benchmark
+    public int encoderWithPath() {
+        return encoder.encode(SENSOR_KEY, VIN, LICENSE_PLATE, 512, 128, timestamp++,
+                PATH_ID, PATH_SENSOR_KEYS, PATH_SENSOR_KEYS.length);
+    }
+
+    @Benchmark
+    public byte[] specificDatumWriter() throws IOException {
+        CarDetectedEvent event = CarDetectedEvent.newBuilder()
+                .setSensorId(SENSOR_ID)
+                .setVin(VIN)
+                .setLicensePlate(LICENSE_PLATE)
+                .setCity(CITY)
+                .setX(512)
+                .setY(128)
+                .setTimestamp(Instant.ofEpochMilli(timestamp++))
+                .build();
+        output.reset();
+        output.write(0);
+        output.write(new byte[]{0, 0, 0, 1});
+        binaryEncoder = EncoderFactory.get().directBinaryEncoder(output, binaryEncoder);
+        writer.write(event, binaryEncoder);
+        binaryEncoder.flush();
+        return output.toByteArray();
+    }
+}
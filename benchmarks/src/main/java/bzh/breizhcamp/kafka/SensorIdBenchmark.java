@@ -0,0 +1,49 @@
+package bzh.breizhcamp.kafka;
+
+import bzh.breizhcamp.city.state.SensorKeys;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sensor id of a detection event: cached and built {@link SensorKeys}, compared to the formatted string they replace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorIdBenchmark {
+    private static final int CITY_SIZE = 1000;
+
+    private final SensorKeys cachedKeys = new SensorKeys("king's_landing", CITY_SIZE, Integer.MAX_VALUE);
+    private final SensorKeys builtKeys = new SensorKeys("king's_landing", CITY_SIZE, 0);
+    private int x;
+    private int y;
+
+    @Benchmark
+    public byte[] cachedKey() {
+        nextPosition();
+        return cachedKeys.key(x, y);
+    }
+
+    @Benchmark
+    public byte[] builtKey() {
+        nextPosition();
+        return builtKeys.key(x, y);
+    }
+
+    @Benchmark
+    public byte[] formattedKey() {
+        nextPosition();
+        return String.format("%s-%d-%d", "king's_landing", x, y).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Walks through the cells so that the cached keys do not all stay in the CPU caches
+    private void nextPosition() {
+        x = (x + 7) % CITY_SIZE;
+        y = (y + 13) % CITY_SIZE;
+    }
+}
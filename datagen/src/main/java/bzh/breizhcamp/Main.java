@@ -1,18 +1,26 @@
 package bzh.breizhcamp;
 
 import bzh.breizhcamp.city.controllers.CityController;
+import bzh.breizhcamp.city.controllers.MetricsController;
+import bzh.breizhcamp.city.controllers.ScenarioController;
+import bzh.breizhcamp.faker.IdentityPool;
+import bzh.breizhcamp.kafka.Configuration;
 import io.javalin.Javalin;
 import io.javalin.openapi.plugin.OpenApiPlugin;
 import io.javalin.openapi.plugin.swagger.SwaggerPlugin;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+import static bzh.breizhcamp.kafka.Configuration.SERVER_PORT_PROPERTY;
 import static io.javalin.apibuilder.ApiBuilder.*;
 
 @Slf4j
 public class Main {
 
     public static void main(String[] args) {
+        int port = Integer.parseInt((String) Configuration.get().get(SERVER_PORT_PROPERTY));
+        // Cities are simulating again before the API accepts requests
+        CityController.restoreCities();
         var app = Javalin.create(config -> {
                     config.useVirtualThreads = true;
                     config.registerPlugin(new OpenApiPlugin(
@@ -28,12 +36,32 @@ public class Main {
                     ));
                     config.registerPlugin(new SwaggerPlugin());
                     config.router.apiBuilder(() -> {
+                        get("/metrics", MetricsController::getMetrics);
+                        path("/scenarios", () -> {
+                            get(ScenarioController::getAll);
+                            post(ScenarioController::start);
+                            path("/{id}", () -> {
+                                get(ScenarioController::getOne);
+                                delete(ScenarioController::cancel);
+                            });
+                        });
                         path("/cities", () -> {
                             get(CityController::getAll);
                             post(CityController::create);
                             path("/{name}", () -> {
                                 get(CityController::getOne);
                                 delete(CityController::delete);
+                                get("/ticks", CityController::getTickStatistics);
+                                get("/emission", CityController::getEmissionStatistics);
+                                get("/cells/{x}/{y}", CityController::getCarsAtCell);
+                                get("/area", CityController::getCarsInArea);
+                                get("/heatmap", CityController::getHeatmap);
+                                sse("/feed", CityController::getFeed);
+                                path("/spawns", () -> {
+                                    post(CityController::spawnCars);
+                                    get(CityController::getSpawnJobs);
+                                    get("/{id}", CityController::getSpawnJob);
+                                });
                                 path("/cars", () -> {
                                             post(CityController::startNewCars);
                                             get(CityController::getAllCars);
@@ -49,7 +77,10 @@ public class Main {
                     ctx.status(500);
                     ctx.result("Internal Server Error: " + ExceptionUtils.getStackTrace(e));
                 })
-                .start(7070);
-        log.info("Check out Swagger UI docs at http://localhost:7070/swagger");
+                .start(port);
+        // Start filling the identity pool before the first cars are spawned
+        IdentityPool.get();
+        ScenarioController.startConfiguredScenario();
+        log.info("Check out Swagger UI docs at http://localhost:{}/swagger", port);
     }
 }
\ No newline at end of file
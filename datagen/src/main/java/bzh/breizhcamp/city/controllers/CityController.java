@@ -1,21 +1,75 @@
 package bzh.breizhcamp.city.controllers;
 
+import bzh.breizhcamp.city.feed.FeedSubscriber;
 import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.SpawnJob;
+import bzh.breizhcamp.city.services.CityRegistry;
 import bzh.breizhcamp.city.services.CityService;
+import bzh.breizhcamp.city.services.GeneratorInstance;
+import bzh.breizhcamp.city.snapshot.CitySnapshot;
+import bzh.breizhcamp.city.snapshot.SnapshotStore;
+import bzh.breizhcamp.city.state.CarFilter;
+import bzh.breizhcamp.events.OverloadPolicy;
+import bzh.breizhcamp.json.JacksonInstance;
+import bzh.breizhcamp.kafka.Configuration;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
 import io.javalin.openapi.HttpMethod;
 import io.javalin.openapi.OpenApi;
 import io.javalin.openapi.OpenApiParam;
+import io.javalin.validation.ValidationException;
+import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
 
+@Slf4j
 public class CityController {
-    // Keep it simple for this demo
-    private static final Map<String, CityService> CITY_SERVICES = new HashMap<>();
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    private static final CityRegistry CITY_SERVICES = new CityRegistry();
+    private static final SnapshotStore SNAPSHOTS = SnapshotStore.fromConfiguration(Configuration.get());
+
+    static Collection<CityService> cityServices() {
+        return CITY_SERVICES.all();
+    }
+
+    static CityRegistry cityRegistry() {
+        return CITY_SERVICES;
+    }
+
+    /**
+     * Restores the cities of the snapshots, then writes their snapshots periodically and at shutdown.
+     */
+    public static void restoreCities() {
+        if (SNAPSHOTS == null) {
+            return;
+        }
+        for (CitySnapshot snapshot : SNAPSHOTS.readAll()) {
+            try {
+                long start = System.currentTimeMillis();
+                CityService cityService = CITY_SERVICES.createWithSink(() -> CityService.restore(snapshot));
+                if (cityService == null) {
+                    log.warn("City {} not restored: its name is taken", snapshot.getName());
+                } else {
+                    log.info("City {} restored with {} cars in {} ms", snapshot.getName(), snapshot.carCount(),
+                            System.currentTimeMillis() - start);
+                }
+            } catch (Exception e) {
+                log.error("Exception while restoring {}:", snapshot.getName(), e);
+            }
+        }
+        SNAPSHOTS.start(CITY_SERVICES::all);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> SNAPSHOTS.writeAll(CITY_SERVICES.all()), "snapshot-shutdown"));
+    }
 
     @OpenApi(
             path = "/cities",
@@ -25,7 +79,7 @@ public class CityController {
             description = "Get all cities"
     )
     public static void getAll(@NotNull Context context) {
-        context.json(CITY_SERVICES.values().stream().map(service -> service.getCity()).toList());
+        context.json(CITY_SERVICES.all().stream().map(service -> service.getCity()).toList());
     }
 
     @OpenApi(
@@ -33,16 +87,35 @@ public class CityController {
             methods = {HttpMethod.POST},
             tags = {"City"},
             summary = "Create a new city",
-            description = "Create a new city with a given size. Default size: 10.",
+            description = "Create a new city with a given size. Default size: 10. Its sink is created in the background: its cars only start moving once it is ready.",
             queryParams = {
-                    @OpenApiParam(name = "size", type = Integer.class, description = "Size of the city")
+                    @OpenApiParam(name = "size", type = Integer.class, description = "Size of the city"),
+                    @OpenApiParam(name = "seed", type = Long.class, description = "Seed of the name and of the random generators of the city, required with several instances"),
+                    @OpenApiParam(name = "eventRate", type = Double.class, description = "Target rate of detection events per second, 0 for no limit"),
+                    @OpenApiParam(name = "overloadPolicy", description = "What to do with events above the budget: DROP, COALESCE or SLOW")
             }
     )
-    public static void create(@NotNull Context context) throws ExecutionException, InterruptedException {
+    public static void create(@NotNull Context context) throws Exception {
         int size = context.queryParamAsClass("size", Integer.class).getOrDefault(10);
-        CityService cityService = new CityService(size).initKafka();
-        CITY_SERVICES.put(cityService.getCity().getName(), cityService);
-        context.json(cityService.getCity());
+        Long seed = context.queryParamAsClass("seed", Long.class).getOrDefault(null);
+        Double eventRate = context.queryParamAsClass("eventRate", Double.class).getOrDefault(null);
+        String overloadPolicy = context.queryParamAsClass("overloadPolicy", String.class)
+                .check(p -> Arrays.stream(OverloadPolicy.values()).anyMatch(value -> value.name().equalsIgnoreCase(p)),
+                        "overloadPolicy must be DROP, COALESCE or SLOW")
+                .getOrDefault(null);
+        OverloadPolicy policy = overloadPolicy == null ? null : OverloadPolicy.valueOf(overloadPolicy.toUpperCase());
+        if (seed == null && !GeneratorInstance.get().isSingle()) {
+            // Without a shared seed the instances would not agree on the city
+            context.status(400).json(Map.of("message", "A seed is required when running several instances"));
+            return;
+        }
+
+        CityService cityService = CITY_SERVICES.createWithSink(() -> CityService.create(size, seed, eventRate, policy));
+        if (cityService == null) {
+            context.status(409).json(Map.of("message", "No city name available"));
+        } else {
+            context.json(cityService.getCity());
+        }
     }
 
     @OpenApi(
@@ -75,13 +148,15 @@ public class CityController {
                     @OpenApiParam(name = "name", description = "Name of the city", required = true)
             }
     )
-    public static void delete(@NotNull Context context) {
+    public static void delete(@NotNull Context context) throws IOException {
         String name = context.pathParam("name");
-        CityService cityService = CITY_SERVICES.remove(name);
-        if (cityService == null) {
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null || !CITY_SERVICES.delete(name)) {
             context.status(404).json(Map.of("message", "City not found"));
         } else {
-            cityService.close();
+            if (SNAPSHOTS != null) {
+                SNAPSHOTS.delete(cityService);
+            }
             context.status(200);
         }
     }
@@ -97,18 +172,26 @@ public class CityController {
             },
             queryParams = {
                     @OpenApiParam(name = "vin", description = "VIN of the car to follow"),
-                    @OpenApiParam(name = "count", type = Integer.class, description = "Number of cars to start")
+                    @OpenApiParam(name = "count", type = Integer.class, description = "Number of cars to start"),
+                    @OpenApiParam(name = "rate", type = Long.class, description = "Moving rate of the cars in milliseconds"),
+                    @OpenApiParam(name = "jitter", type = Long.class, description = "Maximum random jitter of each move in milliseconds")
             }
     )
     public static void startNewCars(@NotNull Context context) {
         String name = context.pathParam("name");
         String vin = context.queryParamAsClass("vin", String.class).getOrDefault(null);
-        int count = context.queryParamAsClass("count", Integer.class).getOrDefault(1);
+        int count = context.queryParamAsClass("count", Integer.class).check(c -> c > 0, "count must be positive").getOrDefault(1);
         CityService cityService = CITY_SERVICES.get(name);
         if (cityService == null) {
             context.status(404).json(Map.of("message", "City not found"));
         } else {
-            List<Car> cars = cityService.startNewCars(vin, count);
+            long rate = context.queryParamAsClass("rate", Long.class)
+                    .check(r -> r > 0 && r <= Integer.MAX_VALUE, "rate must be between 1 and " + Integer.MAX_VALUE)
+                    .getOrDefault(cityService.getMovingRateMillis());
+            long jitter = context.queryParamAsClass("jitter", Long.class)
+                    .check(j -> j >= 0 && j <= Integer.MAX_VALUE, "jitter must be between 0 and " + Integer.MAX_VALUE)
+                    .getOrDefault(cityService.getMovingJitterMillis());
+            List<Car> cars = cityService.startNewCars(vin, count, rate, jitter);
             if (cars == null) {
                 context.status(404).json(Map.of("message", "Car not found"));
             } else {
@@ -117,23 +200,312 @@ public class CityController {
         }
     }
 
+    @OpenApi(
+            path = "/cities/{name}/spawns",
+            methods = {HttpMethod.POST},
+            tags = {"City", "Car"},
+            summary = "Spawn many cars in a city.",
+            description = "Start a job spawning many cars in a city. Returns the job, whose progress can be followed, instead of the cars.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            },
+            queryParams = {
+                    @OpenApiParam(name = "vin", description = "VIN of the car to follow"),
+                    @OpenApiParam(name = "count", type = Integer.class, description = "Number of cars to spawn"),
+                    @OpenApiParam(name = "rate", type = Long.class, description = "Moving rate of the cars in milliseconds"),
+                    @OpenApiParam(name = "jitter", type = Long.class, description = "Maximum random jitter of each move in milliseconds")
+            }
+    )
+    public static void spawnCars(@NotNull Context context) {
+        String name = context.pathParam("name");
+        String vin = context.queryParamAsClass("vin", String.class).getOrDefault(null);
+        int count = context.queryParamAsClass("count", Integer.class).check(c -> c > 0, "count must be positive").getOrDefault(1);
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+        } else {
+            long rate = context.queryParamAsClass("rate", Long.class)
+                    .check(r -> r > 0 && r <= Integer.MAX_VALUE, "rate must be between 1 and " + Integer.MAX_VALUE)
+                    .getOrDefault(cityService.getMovingRateMillis());
+            long jitter = context.queryParamAsClass("jitter", Long.class)
+                    .check(j -> j >= 0 && j <= Integer.MAX_VALUE, "jitter must be between 0 and " + Integer.MAX_VALUE)
+                    .getOrDefault(cityService.getMovingJitterMillis());
+            SpawnJob job = cityService.spawnCars(vin, count, rate, jitter);
+            if (job == null) {
+                context.status(404).json(Map.of("message", "Car not found"));
+            } else {
+                context.status(202).json(job);
+            }
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/spawns",
+            methods = {HttpMethod.GET},
+            tags = {"City", "Car"},
+            summary = "Get the latest spawn jobs of a city.",
+            description = "Get the latest spawn jobs of a city with their progress.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            }
+    )
+    public static void getSpawnJobs(@NotNull Context context) {
+        String name = context.pathParam("name");
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+        } else {
+            context.json(cityService.spawnJobs());
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/spawns/{id}",
+            methods = {HttpMethod.GET},
+            tags = {"City", "Car"},
+            summary = "Get a spawn job.",
+            description = "Get the progress of a spawn job.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true),
+                    @OpenApiParam(name = "id", description = "Id of the job", required = true)
+            }
+    )
+    public static void getSpawnJob(@NotNull Context context) {
+        String name = context.pathParam("name");
+        CityService cityService = CITY_SERVICES.get(name);
+        SpawnJob job = cityService == null ? null : cityService.spawnJob(context.pathParam("id"));
+        if (job == null) {
+            context.status(404).json(Map.of("message", cityService == null ? "City not found" : "Job not found"));
+        } else {
+            context.json(job);
+        }
+    }
+
     @OpenApi(
             path = "/cities/{name}/cars",
             methods = {HttpMethod.GET},
             tags = {"City", "Car"},
-            summary = "Get all car in a city.",
-            description = "Get all car in a city.",
+            summary = "Get the cars in a city.",
+            description = "Get the cars in a city, from snapshots of its shards: all of them as a JSON array, one page of them when a limit or a cursor is given, or streamed as NDJSON with format=ndjson or an application/x-ndjson Accept header.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            },
+            queryParams = {
+                    @OpenApiParam(name = "leaders", type = Boolean.class, description = "Only the cars following no other car"),
+                    @OpenApiParam(name = "following", description = "Only the cars directly following the car with this VIN"),
+                    @OpenApiParam(name = "minX", type = Integer.class, description = "Minimum X of the bounding box"),
+                    @OpenApiParam(name = "minY", type = Integer.class, description = "Minimum Y of the bounding box"),
+                    @OpenApiParam(name = "maxX", type = Integer.class, description = "Maximum X of the bounding box"),
+                    @OpenApiParam(name = "maxY", type = Integer.class, description = "Maximum Y of the bounding box"),
+                    @OpenApiParam(name = "limit", type = Integer.class, description = "Maximum number of cars of the page"),
+                    @OpenApiParam(name = "cursor", description = "Next cursor of the previous page"),
+                    @OpenApiParam(name = "format", description = "json or ndjson")
+            }
+    )
+    public static void getAllCars(@NotNull Context context) throws IOException {
+        String name = context.pathParam("name");
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+            return;
+        }
+        CarFilter filter = new CarFilter(context.queryParamAsClass("leaders", Boolean.class).getOrDefault(false),
+                context.queryParam("following"),
+                context.queryParamAsClass("minX", Integer.class).getOrDefault(Integer.MIN_VALUE),
+                context.queryParamAsClass("minY", Integer.class).getOrDefault(Integer.MIN_VALUE),
+                context.queryParamAsClass("maxX", Integer.class).getOrDefault(Integer.MAX_VALUE),
+                context.queryParamAsClass("maxY", Integer.class).getOrDefault(Integer.MAX_VALUE));
+        String accept = context.header("Accept");
+        if ("ndjson".equals(context.queryParam("format")) || (accept != null && accept.contains(NDJSON_CONTENT_TYPE))) {
+            context.contentType(NDJSON_CONTENT_TYPE);
+            ObjectWriter writer = JacksonInstance.get().writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (JsonGenerator generator = JacksonInstance.get().getFactory().createGenerator(context.outputStream())) {
+                generator.setRootValueSeparator(null);
+                cityService.forEachCar(filter, car -> {
+                    try {
+                        writer.writeValue(generator, car);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } else if (context.queryParam("limit") != null || context.queryParam("cursor") != null) {
+            int limit = context.queryParamAsClass("limit", Integer.class).check(l -> l > 0, "limit must be positive").getOrDefault(100);
+            try {
+                context.json(cityService.cars(filter, context.queryParam("cursor"), limit));
+            } catch (IllegalArgumentException e) {
+                context.status(400).json(Map.of("message", "Invalid cursor"));
+            }
+        } else {
+            List<Car> cars = new ArrayList<>();
+            cityService.forEachCar(filter, cars::add);
+            context.json(cars);
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/cells/{x}/{y}",
+            methods = {HttpMethod.GET},
+            tags = {"City", "Car"},
+            summary = "Get the cars at a cell.",
+            description = "Get the cars at the cell of a sensor, from the occupancy grid of the city.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true),
+                    @OpenApiParam(name = "x", type = Integer.class, description = "X of the cell", required = true),
+                    @OpenApiParam(name = "y", type = Integer.class, description = "Y of the cell", required = true)
+            }
+    )
+    public static void getCarsAtCell(@NotNull Context context) {
+        String name = context.pathParam("name");
+        int x = context.pathParamAsClass("x", Integer.class).get();
+        int y = context.pathParamAsClass("y", Integer.class).get();
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+        } else {
+            context.json(cityService.carsInArea(x, y, x, y, Integer.MAX_VALUE));
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/area",
+            methods = {HttpMethod.GET},
+            tags = {"City", "Car"},
+            summary = "Get the cars in a bounding box.",
+            description = "Get the cars in a bounding box, all bounds included, from the occupancy grid of the city.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            },
+            queryParams = {
+                    @OpenApiParam(name = "minX", type = Integer.class, description = "Minimum X of the bounding box", required = true),
+                    @OpenApiParam(name = "minY", type = Integer.class, description = "Minimum Y of the bounding box", required = true),
+                    @OpenApiParam(name = "maxX", type = Integer.class, description = "Maximum X of the bounding box", required = true),
+                    @OpenApiParam(name = "maxY", type = Integer.class, description = "Maximum Y of the bounding box", required = true),
+                    @OpenApiParam(name = "limit", type = Integer.class, description = "Maximum number of cars")
+            }
+    )
+    public static void getCarsInArea(@NotNull Context context) {
+        String name = context.pathParam("name");
+        int minX = context.queryParamAsClass("minX", Integer.class).get();
+        int minY = context.queryParamAsClass("minY", Integer.class).get();
+        int maxX = context.queryParamAsClass("maxX", Integer.class).get();
+        int maxY = context.queryParamAsClass("maxY", Integer.class).get();
+        int limit = context.queryParamAsClass("limit", Integer.class).check(l -> l > 0, "limit must be positive").getOrDefault(Integer.MAX_VALUE);
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+        } else {
+            context.json(cityService.carsInArea(minX, minY, maxX, maxY, limit));
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/heatmap",
+            methods = {HttpMethod.GET},
+            tags = {"City"},
+            summary = "Get the density heatmap of a city.",
+            description = "Get the number of cars by square blocks of cells, from the occupancy grid of the city.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            },
+            queryParams = {
+                    @OpenApiParam(name = "resolution", type = Integer.class, description = "Maximum number of blocks on each side, 100 by default")
+            }
+    )
+    public static void getHeatmap(@NotNull Context context) {
+        String name = context.pathParam("name");
+        int resolution = context.queryParamAsClass("resolution", Integer.class)
+                .check(r -> r > 0 && r <= 1000, "resolution must be between 1 and 1000").getOrDefault(100);
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+        } else {
+            context.json(cityService.heatmap(resolution));
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/feed",
+            methods = {HttpMethod.GET},
+            tags = {"City", "Car"},
+            summary = "Follow the positions of the cars of a city.",
+            description = "Server-sent events stream of the cars of a city. Each `moves` event lists the cars which moved since the previous one as flat [id, x, y, ...] triples, the VINs of the cars new to the subscriber by id, and the ids of the cars which left the viewport or were removed. The first event holds all the cars. A slow subscriber gets the latest position of each car rather than every move.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            },
+            queryParams = {
+                    @OpenApiParam(name = "minX", type = Integer.class, description = "Minimum X of the viewport"),
+                    @OpenApiParam(name = "minY", type = Integer.class, description = "Minimum Y of the viewport"),
+                    @OpenApiParam(name = "maxX", type = Integer.class, description = "Maximum X of the viewport"),
+                    @OpenApiParam(name = "maxY", type = Integer.class, description = "Maximum Y of the viewport"),
+                    @OpenApiParam(name = "sample", type = Integer.class, description = "Follow one car out of sample, 1 by default"),
+                    @OpenApiParam(name = "intervalMillis", type = Long.class, description = "Minimum duration between two events, 0 by default")
+            }
+    )
+    public static void getFeed(@NotNull SseClient client) {
+        Context context = client.ctx();
+        CityService cityService = CITY_SERVICES.get(context.pathParam("name"));
+        // The stream is open already: errors are sent as events
+        if (cityService == null) {
+            client.sendEvent("error", Map.of("message", "City not found"));
+            return;
+        }
+        FeedSubscriber subscriber;
+        try {
+            subscriber = new FeedSubscriber(cityService.feed(), new SseFeedClient(client),
+                    context.queryParamAsClass("minX", Integer.class).getOrDefault(Integer.MIN_VALUE),
+                    context.queryParamAsClass("minY", Integer.class).getOrDefault(Integer.MIN_VALUE),
+                    context.queryParamAsClass("maxX", Integer.class).getOrDefault(Integer.MAX_VALUE),
+                    context.queryParamAsClass("maxY", Integer.class).getOrDefault(Integer.MAX_VALUE),
+                    context.queryParamAsClass("sample", Integer.class).check(s -> s > 0, "sample must be positive").getOrDefault(1),
+                    context.queryParamAsClass("intervalMillis", Long.class).check(i -> i >= 0, "intervalMillis must not be negative").getOrDefault(0L));
+        } catch (ValidationException e) {
+            client.sendEvent("error", Map.of("message", e.getErrors().toString()));
+            return;
+        }
+        client.keepAlive();
+        client.onClose(subscriber::close);
+        cityService.feed().subscribe(subscriber);
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/ticks",
+            methods = {HttpMethod.GET},
+            tags = {"City"},
+            summary = "Get the tick engine statistics of a city.",
+            description = "Get the tick engine statistics of a city: number of ticks, tick lag and batch sizes.",
+            pathParams = {
+                    @OpenApiParam(name = "name", description = "Name of the city", required = true)
+            }
+    )
+    public static void getTickStatistics(@NotNull Context context) {
+        String name = context.pathParam("name");
+        CityService cityService = CITY_SERVICES.get(name);
+        if (cityService == null) {
+            context.status(404).json(Map.of("message", "City not found"));
+        } else {
+            context.json(cityService.tickStatistics());
+        }
+    }
+
+    @OpenApi(
+            path = "/cities/{name}/emission",
+            methods = {HttpMethod.GET},
+            tags = {"City"},
+            summary = "Get the emission statistics of a city.",
+            description = "Get the detection events sent, acknowledged, dropped, coalesced and pending in each shard of a city.",
             pathParams = {
                     @OpenApiParam(name = "name", description = "Name of the city", required = true)
             }
     )
-    public static void getAllCars(@NotNull Context context) {
+    public static void getEmissionStatistics(@NotNull Context context) {
         String name = context.pathParam("name");
         CityService cityService = CITY_SERVICES.get(name);
         if (cityService == null) {
             context.status(404).json(Map.of("message", "City not found"));
         } else {
-            context.json(cityService.cars().values());
+            context.json(cityService.emissionStatistics());
         }
     }
 }
@@ -0,0 +1,86 @@
+package bzh.breizhcamp.city.controllers;
+
+import bzh.breizhcamp.city.engine.TickStatistics;
+import bzh.breizhcamp.city.services.CityService;
+import bzh.breizhcamp.events.EmissionGovernor;
+import bzh.breizhcamp.events.EmissionStatistics;
+import bzh.breizhcamp.metrics.PrometheusWriter;
+import io.javalin.http.Context;
+import io.javalin.openapi.HttpMethod;
+import io.javalin.openapi.OpenApi;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.function.ToDoubleFunction;
+
+public class MetricsController {
+
+    @OpenApi(
+            path = "/metrics",
+            methods = {HttpMethod.GET},
+            tags = {"Metrics"},
+            summary = "Get the metrics of the generator",
+            description = "Get the metrics of all the cities in the Prometheus text format: events rate, send latency, tick lag, cars and sink usage."
+    )
+    public static void getMetrics(@NotNull Context context) {
+        Collection<CityService> cityServices = CityController.cityServices();
+        PrometheusWriter writer = new PrometheusWriter();
+
+        gauge(writer, cityServices, "datagen_events_per_second", "Detection events sent per second",
+                cityService -> sum(cityService, EmissionStatistics::getEventsPerSecond));
+        counter(writer, cityServices, "datagen_events_sent_total", "Detection events sent",
+                cityService -> sum(cityService, EmissionStatistics::getSent));
+        counter(writer, cityServices, "datagen_events_acknowledged_total", "Detection events acknowledged by the sink",
+                cityService -> sum(cityService, EmissionStatistics::getAcknowledged));
+        counter(writer, cityServices, "datagen_events_dropped_total", "Detection events dropped by the emission governor",
+                cityService -> sum(cityService, EmissionStatistics::getDropped));
+        counter(writer, cityServices, "datagen_events_coalesced_total", "Detection events coalesced by the emission governor",
+                cityService -> sum(cityService, EmissionStatistics::getCoalesced));
+        counter(writer, cityServices, "datagen_detections_batched_total", "Detections sent within the events of their sensor",
+                cityService -> sum(cityService, EmissionStatistics::getBatchedDetections));
+        counter(writer, cityServices, "datagen_send_errors_total", "Detection events that failed to be sent",
+                cityService -> sum(cityService, EmissionStatistics::getErrors));
+        gauge(writer, cityServices, "datagen_events_pending", "Detection events waiting for the emission budget",
+                cityService -> sum(cityService, EmissionStatistics::getPending));
+
+        writer.family("datagen_send_latency_seconds", "histogram", "Duration between the send of an event and its acknowledgement");
+        cityServices.forEach(cityService -> writer.histogram("datagen_send_latency_seconds",
+                cityService.sendLatencies(), "city", cityService.getCity().getName()));
+        writer.family("datagen_tick_lag_seconds", "histogram", "How late the ticks of the tick engines started");
+        cityServices.forEach(cityService -> writer.histogram("datagen_tick_lag_seconds",
+                cityService.tickLags(), "city", cityService.getCity().getName()));
+        gauge(writer, cityServices, "datagen_tick_lag_max_seconds", "Maximum lag of the ticks of the tick engines",
+                cityService -> cityService.tickStatistics().stream().mapToLong(TickStatistics::getMaxLagMillis).max().orElse(0) / 1000.0);
+
+        gauge(writer, cityServices, "datagen_cars", "Live cars", CityService::carCount);
+        gauge(writer, cityServices, "datagen_followers", "Live cars following another car", CityService::followerCount);
+        gauge(writer, cityServices, "datagen_sink_buffer_usage_ratio", "Used share of the send buffer of the sink", CityService::bufferUsage);
+
+        writer.family("datagen_events_in_flight", "gauge", "Detection events sent but not acknowledged yet, all cities included");
+        writer.sample("datagen_events_in_flight", EmissionGovernor.inFlight());
+
+        context.contentType(PrometheusWriter.CONTENT_TYPE).result(writer.toString());
+    }
+
+    private static void counter(PrometheusWriter writer, Collection<CityService> cityServices, String name, String help,
+                                ToDoubleFunction<CityService> value) {
+        metric(writer, cityServices, name, "counter", help, value);
+    }
+
+    private static void gauge(PrometheusWriter writer, Collection<CityService> cityServices, String name, String help,
+                              ToDoubleFunction<CityService> value) {
+        metric(writer, cityServices, name, "gauge", help, value);
+    }
+
+    private static void metric(PrometheusWriter writer, Collection<CityService> cityServices, String name, String type, String help,
+                               ToDoubleFunction<CityService> value) {
+        writer.family(name, type, help);
+        for (CityService cityService : cityServices) {
+            writer.sample(name, value.applyAsDouble(cityService), "city", cityService.getCity().getName());
+        }
+    }
+
+    private static double sum(CityService cityService, ToDoubleFunction<EmissionStatistics> value) {
+        return cityService.emissionStatistics().stream().mapToDouble(value).sum();
+    }
+}
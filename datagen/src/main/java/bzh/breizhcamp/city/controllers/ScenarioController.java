@@ -0,0 +1,118 @@
+package bzh.breizhcamp.city.controllers;
+
+import bzh.breizhcamp.city.model.ScenarioRun;
+import bzh.breizhcamp.city.scenario.Scenario;
+import bzh.breizhcamp.city.scenario.ScenarioRunner;
+import bzh.breizhcamp.kafka.Configuration;
+import com.typesafe.config.ConfigException;
+import io.javalin.http.Context;
+import io.javalin.openapi.HttpMethod;
+import io.javalin.openapi.OpenApi;
+import io.javalin.openapi.OpenApiContent;
+import io.javalin.openapi.OpenApiParam;
+import io.javalin.openapi.OpenApiRequestBody;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Properties;
+
+import static bzh.breizhcamp.kafka.Configuration.SCENARIO_FILE_PROPERTY;
+
+@Slf4j
+public class ScenarioController {
+    private static final ScenarioRunner SCENARIOS = ScenarioRunner.fromConfiguration(CityController.cityRegistry(),
+            Configuration.get());
+
+    /**
+     * Starts the scenario of the configuration, if any.
+     */
+    public static void startConfiguredScenario() {
+        Properties configuration = Configuration.get();
+        String file = (String) configuration.get(SCENARIO_FILE_PROPERTY);
+        if (file == null || file.isBlank()) {
+            return;
+        }
+        try {
+            ScenarioRun run = SCENARIOS.start(Scenario.load(new File(file)));
+            log.info("Scenario {} of {} started: {}", run.getName(), file, run.getId());
+        } catch (ConfigException | IllegalArgumentException e) {
+            log.error("Invalid scenario {}:", file, e);
+        }
+    }
+
+    @OpenApi(
+            path = "/scenarios",
+            methods = {HttpMethod.POST},
+            tags = {"Scenario"},
+            summary = "Start a load scenario",
+            description = "Start a load scenario, in JSON or HOCON: cities with their cars and convoys, a traffic profile of the event rate of each city (constant, ramp, burst, sine or diurnal segments) and removals of cars at given times.",
+            requestBody = @OpenApiRequestBody(content = {
+                    @OpenApiContent(type = "application/json"),
+                    @OpenApiContent(type = "application/hocon")
+            })
+    )
+    public static void start(@NotNull Context context) {
+        Scenario scenario;
+        try {
+            scenario = Scenario.parse(context.body());
+        } catch (ConfigException | IllegalArgumentException e) {
+            context.status(400).json(Map.of("message", "Invalid scenario: " + e.getMessage()));
+            return;
+        }
+        try {
+            context.status(202).json(SCENARIOS.start(scenario));
+        } catch (IllegalArgumentException e) {
+            context.status(400).json(Map.of("message", e.getMessage()));
+        }
+    }
+
+    @OpenApi(
+            path = "/scenarios",
+            methods = {HttpMethod.GET},
+            tags = {"Scenario"},
+            summary = "Get the latest scenarios",
+            description = "Get the latest scenarios with their progress and the current target rates of their cities."
+    )
+    public static void getAll(@NotNull Context context) {
+        context.json(SCENARIOS.runs());
+    }
+
+    @OpenApi(
+            path = "/scenarios/{id}",
+            methods = {HttpMethod.GET},
+            tags = {"Scenario"},
+            summary = "Get a scenario",
+            description = "Get the progress of a scenario and the current target rates of its cities.",
+            pathParams = {
+                    @OpenApiParam(name = "id", description = "Id of the scenario", required = true)
+            }
+    )
+    public static void getOne(@NotNull Context context) {
+        ScenarioRun run = SCENARIOS.run(context.pathParam("id"));
+        if (run == null) {
+            context.status(404).json(Map.of("message", "Scenario not found"));
+        } else {
+            context.json(run);
+        }
+    }
+
+    @OpenApi(
+            path = "/scenarios/{id}",
+            methods = {HttpMethod.DELETE},
+            tags = {"Scenario"},
+            summary = "Cancel a scenario",
+            description = "Stop playing a scenario. Its cities are kept, at their current event rate.",
+            pathParams = {
+                    @OpenApiParam(name = "id", description = "Id of the scenario", required = true)
+            }
+    )
+    public static void cancel(@NotNull Context context) {
+        if (SCENARIOS.cancel(context.pathParam("id"))) {
+            context.status(200);
+        } else {
+            context.status(404).json(Map.of("message", "Scenario not found or already over"));
+        }
+    }
+}
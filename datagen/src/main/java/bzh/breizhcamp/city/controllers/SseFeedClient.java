@@ -0,0 +1,35 @@
+package bzh.breizhcamp.city.controllers;
+
+import bzh.breizhcamp.city.feed.FeedClient;
+import io.javalin.http.sse.SseClient;
+
+/**
+ * Live feed subscriber connected with server-sent events: frames are {@code moves} events.
+ */
+class SseFeedClient implements FeedClient {
+    private final SseClient client;
+
+    SseFeedClient(SseClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void send(String frame) {
+        client.sendEvent("moves", frame);
+    }
+
+    @Override
+    public void keepAlive() {
+        client.sendComment("keep-alive");
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !client.terminated();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
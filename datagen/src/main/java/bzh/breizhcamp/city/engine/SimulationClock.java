@@ -0,0 +1,162 @@
+package bzh.breizhcamp.city.engine;
+
+import bzh.breizhcamp.kafka.Configuration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.Properties;
+import java.util.concurrent.Phaser;
+
+import static bzh.breizhcamp.kafka.Configuration.*;
+
+/**
+ * Source of the time of the tick engines and of the event timestamps.
+ * In wall mode each engine follows the wall clock on its own. In backfill mode the simulated time starts at a given
+ * instant and all the engines move it forward together, one step at a time, as fast as they and their sinks can: an
+ * engine starts a step only once every engine ended the previous one, so the events of a step are all sent before any
+ * event of the next step and the timestamps stay ordered in each partition. The simulated time only moves while cars
+ * are scheduled: creating a city and its cars does not skip hours of it.
+ */
+@Slf4j
+public class SimulationClock {
+    public enum Mode {
+        WALL,
+        BACKFILL
+    }
+
+    private static final SimulationClock WALL = new SimulationClock(Mode.WALL, 0, Long.MAX_VALUE, 0);
+    private static volatile SimulationClock configured;
+
+    private final Mode mode;
+    private final long startEpochMillis;
+    private final long endMillis;
+    private final long stepMillis;
+    // Engines registered to the backfill clock: each step advances once all of them arrived
+    private final Phaser engines = new Phaser() {
+        @Override
+        protected boolean onAdvance(int phase, int registeredParties) {
+            // Run by the last engine to arrive, before the others are released
+            if (busy && nowMillis < endMillis) {
+                nowMillis = Math.min(endMillis, nowMillis + stepMillis);
+                if (nowMillis == endMillis) {
+                    log.info("Backfill reached {}", Instant.ofEpochMilli(startEpochMillis + endMillis));
+                }
+            }
+            busy = false;
+            // Engines come and go: never terminate
+            return false;
+        }
+    };
+
+    // Backfill time elapsed since the start instant
+    private volatile long nowMillis;
+    // Whether an engine had something scheduled in the current step: the time does not move for empty cities
+    private volatile boolean busy;
+
+    private SimulationClock(Mode mode, long startEpochMillis, long endMillis, long stepMillis) {
+        this.mode = mode;
+        this.startEpochMillis = startEpochMillis;
+        this.endMillis = endMillis;
+        this.stepMillis = stepMillis;
+    }
+
+    public static SimulationClock wall() {
+        return WALL;
+    }
+
+    /**
+     * @param start      simulated time of the first step
+     * @param end        simulated time after which the clock stops, null to never stop
+     * @param stepMillis simulated time between two steps
+     */
+    public static SimulationClock backfill(Instant start, Instant end, long stepMillis) {
+        if (stepMillis <= 0) {
+            throw new IllegalArgumentException("Invalid backfill step: " + stepMillis + "ms");
+        }
+        long endMillis = end != null ? end.toEpochMilli() - start.toEpochMilli() : Long.MAX_VALUE;
+        if (endMillis < 0) {
+            throw new IllegalArgumentException("Backfill end " + end + " is before its start " + start);
+        }
+        return new SimulationClock(Mode.BACKFILL, start.toEpochMilli(), endMillis, stepMillis);
+    }
+
+    /**
+     * @return the clock shared by all the cities, built from the configuration the first time
+     */
+    public static SimulationClock get() {
+        if (configured == null) {
+            synchronized (SimulationClock.class) {
+                if (configured == null) {
+                    configured = fromConfiguration(Configuration.get());
+                }
+            }
+        }
+        return configured;
+    }
+
+    static SimulationClock fromConfiguration(Properties configuration) {
+        Mode mode = Mode.valueOf(((String) configuration.get(CLOCK_MODE_PROPERTY)).toUpperCase());
+        if (mode == Mode.WALL) {
+            return WALL;
+        }
+        String start = (String) configuration.get(CLOCK_BACKFILL_START_PROPERTY);
+        String end = (String) configuration.get(CLOCK_BACKFILL_END_PROPERTY);
+        Instant startInstant = start != null ? Instant.parse(start) : Instant.now();
+        Instant endInstant = end != null ? Instant.parse(end) : null;
+        log.info("Backfill from {} to {}", startInstant, endInstant != null ? endInstant : "no end");
+        return backfill(startInstant, endInstant,
+                Long.parseLong((String) configuration.get(TICK_ENGINE_TICK_MILLIS_PROPERTY)));
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public boolean isBackfill() {
+        return mode == Mode.BACKFILL;
+    }
+
+    /**
+     * @return the simulated time of the current step, in milliseconds since the start instant
+     */
+    public long nowMillis() {
+        return nowMillis;
+    }
+
+    /**
+     * @return the epoch time of a time of the clock
+     */
+    public long epochMillis(long clockMillis) {
+        return startEpochMillis + clockMillis;
+    }
+
+    /**
+     * @return true once a backfill reached its end, excluded: its time does not move anymore
+     */
+    public boolean finished() {
+        return nowMillis >= endMillis;
+    }
+
+    /**
+     * Adds an engine to the ones moving the backfill time: it has to end the current step before the next one starts.
+     */
+    void register() {
+        engines.register();
+    }
+
+    void deregister() {
+        engines.arriveAndDeregister();
+    }
+
+    /**
+     * Ends the current step of an engine and waits for the other engines to end it too.
+     *
+     * @param scheduled whether the engine has items scheduled: the time moves only if one of the engines has
+     */
+    void awaitStep(boolean scheduled) {
+        if (scheduled) {
+            busy = true;
+        }
+        engines.arriveAndAwaitAdvance();
+    }
+}
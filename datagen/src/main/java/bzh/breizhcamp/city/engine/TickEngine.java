@@ -0,0 +1,313 @@
+package bzh.breizhcamp.city.engine;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Single threaded tick engine: every tick, all the handles due in the current slot of the timing wheel are handed to
+ * the {@link TickHandler} as one batch, then rescheduled at the deadline it returns.
+ * Other threads interact with the engine through {@link #schedule(int, long)} and {@link #execute(Runnable)} which are
+ * run by the engine thread at the beginning of the next tick.
+ */
+@Slf4j
+public class TickEngine implements Closeable {
+    // Pause of an engine holding a backfill step back, waiting for its gate to open
+    private static final long BACKFILL_PAUSE_NANOS = 100_000L;
+
+    private final SimulationClock clock;
+    private final TimingWheel wheel;
+    private final TickHandler handler;
+    private final long tickMillis;
+    private final long lagWarningMillis;
+    private final long startNanos = System.nanoTime();
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final TickStatistics statistics = new TickStatistics();
+    private final TimingWheel.DueConsumer collector = this::collect;
+    private final Thread thread;
+    private volatile BooleanSupplier gate = () -> true;
+
+    private int[] batchHandles = new int[1024];
+    private long[] batchDeadlines = new long[1024];
+    private int batchSize;
+    private int scheduledCount;
+    private long tickTimestampMillis;
+    private long pausedNanos;
+    // Whether the engine takes part in the steps of a backfill: only changed by the engine thread once started
+    private boolean clockRegistered;
+    private volatile boolean running = true;
+    private volatile boolean closed;
+
+    @FunctionalInterface
+    public interface TickHandler {
+        /**
+         * @param handle   handle of the due item
+         * @param deadline deadline the item was scheduled for, in engine milliseconds
+         * @param now      current engine time in milliseconds
+         * @return the next deadline of the item, in engine milliseconds, or a negative value to stop scheduling it
+         */
+        long onDue(int handle, long deadline, long now);
+    }
+
+    public TickEngine(String name, long tickMillis, int wheelSize, TickHandler handler) {
+        this(name, tickMillis, wheelSize, handler, SimulationClock.wall());
+    }
+
+    public TickEngine(String name, long tickMillis, int wheelSize, TickHandler handler, SimulationClock clock) {
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.lagWarningMillis = Math.max(1000, tickMillis * 10);
+        this.handler = handler;
+        if (clock.isBackfill()) {
+            // Registered before reading the time: the current step cannot end without this engine
+            clock.register();
+            clockRegistered = true;
+            this.wheel = new TimingWheel(tickMillis, wheelSize, clock.nowMillis());
+            this.thread = new Thread(this::runBackfill, "tick-engine-" + name);
+        } else {
+            this.wheel = new TimingWheel(tickMillis, wheelSize, 0);
+            this.thread = new Thread(this::run, "tick-engine-" + name);
+        }
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public long nowMillis() {
+        return clock.isBackfill() ? clock.nowMillis() : nowNanos() / 1_000_000L;
+    }
+
+    public SimulationClock clock() {
+        return clock;
+    }
+
+    private long nowNanos() {
+        return System.nanoTime() - startNanos - pausedNanos;
+    }
+
+    /**
+     * Sets the condition checked before each tick: while it is false, the engine clock is held back and nothing moves.
+     */
+    public void gate(BooleanSupplier gate) {
+        this.gate = gate;
+    }
+
+    /**
+     * Stops taking part in the steps of a backfill until {@link #joinClock()}: the other engines do not wait for this
+     * one, which only runs its commands meanwhile. Nothing happens on the wall clock.
+     */
+    public void leaveClock() {
+        execute(() -> {
+            if (clockRegistered) {
+                clockRegistered = false;
+                clock.deregister();
+            }
+        });
+    }
+
+    /**
+     * Takes part in the steps of a backfill again, after {@link #leaveClock()}.
+     */
+    public void joinClock() {
+        execute(() -> {
+            // Not once closed: the commands left are run by the closing thread, and nothing would deregister it
+            if (clock.isBackfill() && !clockRegistered && running) {
+                // The time is read again once registered: the current step cannot end without this engine
+                clock.register();
+                clockRegistered = true;
+            }
+        });
+    }
+
+    /**
+     * @return the epoch time of the current tick, shared by all the items of its batch: the wall clock time, or the
+     * simulated time of a backfill
+     */
+    public long tickTimestampMillis() {
+        return tickTimestampMillis;
+    }
+
+    public TickStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * Schedules a handle, the first time after the given delay.
+     */
+    public void schedule(int handle, long delayMillis) {
+        execute(() -> add(handle, nowMillis() + delayMillis));
+    }
+
+    /**
+     * Schedules a handle at the given engine time, without going through the command queue: only from the engine
+     * thread, in a handler or a submitted task.
+     */
+    public void scheduleAt(int handle, long deadline) {
+        add(handle, deadline);
+    }
+
+    public void execute(Runnable command) {
+        commands.add(command);
+        if (closed) {
+            // The engine thread is gone: run it here rather than never, one caller at a time
+            synchronized (commands) {
+                runCommands();
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the engine thread, between two ticks.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private void run() {
+        long nextTick = wheel.currentTime() + tickMillis;
+        while (running) {
+            long nowNanos = nowNanos();
+            long now = nowNanos / 1_000_000L;
+            if (now < nextTick) {
+                LockSupport.parkNanos((nextTick - now) * 1_000_000L);
+                continue;
+            }
+            try {
+                tickTimestampMillis = System.currentTimeMillis();
+                runCommands();
+                if (!gate.getAsBoolean()) {
+                    // Hold the engine clock one tick before the next one
+                    pausedNanos += (now - nextTick + tickMillis) * 1_000_000L;
+                    statistics.recordPause();
+                    continue;
+                }
+                while (wheel.currentTime() + tickMillis <= now) {
+                    wheel.tick(collector);
+                }
+                int dueCount = batchSize;
+                processBatch(now);
+                long lagNanos = nowNanos - nextTick * 1_000_000L;
+                long lag = lagNanos / 1_000_000L;
+                statistics.record(lagNanos, dueCount, scheduledCount);
+                if (lag > lagWarningMillis) {
+                    log.warn("Tick engine {} is late by {} ms ({} items due)", thread.getName(), lag, dueCount);
+                }
+            } catch (Exception e) {
+                log.error("Exception in tick engine {}:", thread.getName(), e);
+            }
+            nextTick = wheel.currentTime() + tickMillis;
+        }
+    }
+
+    private void runBackfill() {
+        try {
+            while (running) {
+                long now = clock.nowMillis();
+                tickTimestampMillis = clock.epochMillis(now);
+                try {
+                    runCommands();
+                    if (!clockRegistered || clock.finished()) {
+                        // Out of the steps, or nothing moves anymore: the engine only runs the commands
+                        LockSupport.parkNanos(tickMillis * 1_000_000L);
+                        continue;
+                    }
+                    if (!gate.getAsBoolean()) {
+                        // The other engines wait for this one: the step is held back until the gate opens
+                        statistics.recordPause();
+                        LockSupport.parkNanos(BACKFILL_PAUSE_NANOS);
+                        continue;
+                    }
+                    while (wheel.currentTime() + tickMillis <= now) {
+                        wheel.tick(collector);
+                    }
+                    int dueCount = batchSize;
+                    processBatch(now);
+                    statistics.record(0, dueCount, scheduledCount);
+                } catch (Exception e) {
+                    log.error("Exception in tick engine {}:", thread.getName(), e);
+                }
+                clock.awaitStep(scheduledCount > 0);
+                if (clock.nowMillis() == now) {
+                    // Nothing to move in any engine: wait for cars rather than spinning
+                    LockSupport.parkNanos(tickMillis * 1_000_000L);
+                }
+            }
+        } finally {
+            if (clockRegistered) {
+                // The commands left may leave the clock too
+                clockRegistered = false;
+                clock.deregister();
+            }
+        }
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    private void processBatch(long now) {
+        int count = batchSize;
+        for (int i = 0; i < count; i++) {
+            long next = handler.onDue(batchHandles[i], batchDeadlines[i], now);
+            scheduledCount--;
+            if (next >= 0) {
+                add(batchHandles[i], next);
+            }
+        }
+        // Items rescheduled in the past while catching up are kept for the next tick
+        batchSize -= count;
+        System.arraycopy(batchHandles, count, batchHandles, 0, batchSize);
+        System.arraycopy(batchDeadlines, count, batchDeadlines, 0, batchSize);
+    }
+
+    private void add(int handle, long deadline) {
+        scheduledCount++;
+        if (!wheel.add(handle, deadline)) {
+            // Already due: it will be part of the next batch
+            collect(handle, deadline);
+        }
+    }
+
+    private void collect(int handle, long deadline) {
+        if (batchSize == batchHandles.length) {
+            batchHandles = Arrays.copyOf(batchHandles, batchSize * 2);
+            batchDeadlines = Arrays.copyOf(batchDeadlines, batchSize * 2);
+        }
+        batchHandles[batchSize] = handle;
+        batchDeadlines[batchSize] = deadline;
+        batchSize++;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Do not leave callers of pending submits waiting forever
+        closed = true;
+        synchronized (commands) {
+            runCommands();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bzh.breizhcamp.city.engine;
+
+import bzh.breizhcamp.metrics.LatencyHistogram;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString(exclude = "lagHistogram")
+public class TickStatistics {
+    private volatile long ticks;
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+    private volatile int lastBatchSize;
+    private volatile long dueCount;
+    private volatile int scheduledCount;
+    private volatile long pausedTicks;
+    @Getter(AccessLevel.NONE)
+    private final LatencyHistogram lagHistogram = new LatencyHistogram();
+
+    void record(long lagNanos, int batchSize, int scheduled) {
+        long lagMillis = lagNanos / 1_000_000L;
+        ticks++;
+        lastLagMillis = lagMillis;
+        if (lagMillis > maxLagMillis) {
+            maxLagMillis = lagMillis;
+        }
+        lagHistogram.recordNanos(lagNanos);
+        lastBatchSize = batchSize;
+        dueCount += batchSize;
+        scheduledCount = scheduled;
+    }
+
+    void recordPause() {
+        pausedTicks++;
+    }
+
+    /**
+     * @return how late the ticks started
+     */
+    public LatencyHistogram lagHistogram() {
+        return lagHistogram;
+    }
+}
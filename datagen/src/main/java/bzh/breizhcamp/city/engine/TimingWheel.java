@@ -0,0 +1,126 @@
+package bzh.breizhcamp.city.engine;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel of int handles.
+ * Deadlines beyond the range of a wheel go to a lazily created overflow wheel whose slots are as wide as the whole
+ * wheel below it, and are cascaded down when the lower wheel wraps around.
+ * Not thread safe: it must only be used by its owning {@link TickEngine} thread.
+ */
+public class TimingWheel {
+    private final long tickMillis;
+    private final int wheelSize;
+    private final long interval;
+    private final Bucket[] buckets;
+    private final TimingWheel root;
+
+    private long currentTime;
+    private TimingWheel overflowWheel;
+
+    @FunctionalInterface
+    public interface DueConsumer {
+        void accept(int handle, long deadline);
+    }
+
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        this(tickMillis, wheelSize, startMillis, null);
+    }
+
+    private TimingWheel(long tickMillis, int wheelSize, long startMillis, TimingWheel root) {
+        if (tickMillis <= 0 || wheelSize <= 1) {
+            throw new IllegalArgumentException("Invalid timing wheel: tick=" + tickMillis + "ms, size=" + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.interval = tickMillis * wheelSize;
+        this.currentTime = startMillis - (startMillis % tickMillis);
+        this.root = root == null ? this : root;
+        this.buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    public long currentTime() {
+        return currentTime;
+    }
+
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * @return false if the deadline falls in the current tick, in which case the handle is not stored and is due now.
+     */
+    public boolean add(int handle, long deadline) {
+        if (deadline < currentTime + tickMillis) {
+            return false;
+        }
+        if (deadline < currentTime + interval) {
+            buckets[slot(deadline)].add(handle, deadline);
+        } else {
+            overflow().add(handle, deadline);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the wheel one tick forward and hands every handle due in the new current slot to the consumer.
+     */
+    public void tick(DueConsumer due) {
+        currentTime += tickMillis;
+        if (overflowWheel != null && currentTime % interval == 0) {
+            overflowWheel.advance(currentTime, due);
+        }
+        buckets[slot(currentTime)].drainTo(due);
+    }
+
+    private void advance(long time, DueConsumer due) {
+        currentTime = time;
+        if (overflowWheel != null && currentTime % interval == 0) {
+            overflowWheel.advance(time, due);
+        }
+        Bucket bucket = buckets[slot(currentTime)];
+        for (int i = 0; i < bucket.size; i++) {
+            if (!root.add(bucket.handles[i], bucket.deadlines[i])) {
+                due.accept(bucket.handles[i], bucket.deadlines[i]);
+            }
+        }
+        bucket.size = 0;
+    }
+
+    private TimingWheel overflow() {
+        if (overflowWheel == null) {
+            overflowWheel = new TimingWheel(interval, wheelSize, currentTime, root);
+        }
+        return overflowWheel;
+    }
+
+    private int slot(long deadline) {
+        return (int) ((deadline / tickMillis) % wheelSize);
+    }
+
+    private static final class Bucket {
+        private int[] handles = new int[4];
+        private long[] deadlines = new long[4];
+        private int size;
+
+        void add(int handle, long deadline) {
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size * 2);
+                deadlines = Arrays.copyOf(deadlines, size * 2);
+            }
+            handles[size] = handle;
+            deadlines[size] = deadline;
+            size++;
+        }
+
+        void drainTo(DueConsumer due) {
+            for (int i = 0; i < size; i++) {
+                due.accept(handles[i], deadlines[i]);
+            }
+            size = 0;
+        }
+    }
+}
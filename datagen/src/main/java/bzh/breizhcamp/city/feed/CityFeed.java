@@ -0,0 +1,150 @@
+package bzh.breizhcamp.city.feed;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live feed of the positions of the cars of a city. While it has subscribers, each frame the shards publish the cars
+ * moved since the previous frame to their {@link FeedSegment}, then each subscriber sends the changes since its last
+ * frame from its own thread. A slow subscriber skips frames: its next one holds the latest position of each car.
+ */
+@Slf4j
+public class CityFeed implements Closeable {
+    private static final ScheduledExecutorService PUBLISHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "city-feed");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService SENDERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "city-feed-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String cityName;
+    private final List<? extends MoveSource> sources;
+    private final FeedSegment[] segments;
+    private final long intervalMillis;
+    private final Set<FeedSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this
+    private ScheduledFuture<?> publication;
+    private boolean closed;
+
+    // Only written by the publisher
+    private long frame;
+    private final Object frameMonitor = new Object();
+    private volatile long publishedFrame;
+
+    /**
+     * @param sources        shards of the city
+     * @param intervalMillis duration between two frames
+     */
+    public CityFeed(String cityName, List<? extends MoveSource> sources, long intervalMillis) {
+        this.cityName = cityName;
+        this.sources = sources;
+        this.intervalMillis = intervalMillis;
+        this.segments = new FeedSegment[sources.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new FeedSegment();
+        }
+    }
+
+    /**
+     * Adds a subscriber and starts sending it frames, starting with the latest position of all the cars. The first
+     * subscriber starts the publication of the frames.
+     */
+    public synchronized void subscribe(FeedSubscriber subscriber) {
+        if (closed) {
+            subscriber.close();
+            return;
+        }
+        subscribers.add(subscriber);
+        if (publication == null) {
+            sources.stream().map(source -> source.trackMoves(true)).toList().forEach(CompletableFuture::join);
+            publication = PUBLISHER.scheduleAtFixedRate(this::publish, 0, intervalMillis, TimeUnit.MILLISECONDS);
+            log.info("Live feed of {} started", cityName);
+        }
+        SENDERS.execute(subscriber::run);
+    }
+
+    /**
+     * Removes a subscriber. The publication stops with the last one, so cities nobody follows do not pay for it.
+     */
+    synchronized void unsubscribe(FeedSubscriber subscriber) {
+        if (subscribers.remove(subscriber) && subscribers.isEmpty() && publication != null) {
+            publication.cancel(false);
+            publication = null;
+            sources.forEach(source -> source.trackMoves(false));
+            log.info("Live feed of {} stopped", cityName);
+        }
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    FeedSegment[] segments() {
+        return segments;
+    }
+
+    /**
+     * Waits for a frame after a given one.
+     *
+     * @return the latest frame, which is the given one if none came before the timeout
+     */
+    long awaitFrame(long afterFrame, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (frameMonitor) {
+            long remaining = timeoutMillis;
+            while (publishedFrame <= afterFrame && remaining > 0) {
+                frameMonitor.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return publishedFrame;
+        }
+    }
+
+    void publish() {
+        try {
+            long nextFrame = frame + 1;
+            List<CompletableFuture<Void>> futures = new ArrayList<>(segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                futures.add(sources.get(i).publishMoves(segments[i], nextFrame));
+            }
+            futures.forEach(CompletableFuture::join);
+            frame = nextFrame;
+            synchronized (frameMonitor) {
+                publishedFrame = nextFrame;
+                frameMonitor.notifyAll();
+            }
+        } catch (Exception e) {
+            log.error("Exception while publishing the live feed of {}:", cityName, e);
+        }
+    }
+
+    /**
+     * Stops the publication and disconnects the subscribers.
+     */
+    @Override
+    public void close() {
+        List<FeedSubscriber> closedSubscribers;
+        synchronized (this) {
+            closed = true;
+            closedSubscribers = new ArrayList<>(subscribers);
+        }
+        closedSubscribers.forEach(FeedSubscriber::close);
+        closedSubscribers.forEach(this::unsubscribe);
+    }
+}
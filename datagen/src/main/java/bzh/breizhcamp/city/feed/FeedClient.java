@@ -0,0 +1,21 @@
+package bzh.breizhcamp.city.feed;
+
+/**
+ * Connection of a subscriber of a {@link CityFeed}. Sends may block as long as the client is slow to read.
+ */
+public interface FeedClient {
+
+    /**
+     * @param frame JSON frame of the cars changed since the previous one
+     */
+    void send(String frame);
+
+    /**
+     * Tells the client the feed is still alive when nothing changed for a while.
+     */
+    void keepAlive();
+
+    boolean isOpen();
+
+    void close();
+}
@@ -0,0 +1,88 @@
+package bzh.breizhcamp.city.feed;
+
+import bzh.breizhcamp.city.state.CarStore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Latest published positions of the cars of one city shard, by car index, with the frame of their last change.
+ * Written once per frame by the tick engine of the shard, read by the subscribers: a subscriber late by several frames
+ * only sees the latest position of each car.
+ */
+public class FeedSegment {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int size;
+    private int[] xs = new int[1024];
+    private int[] ys = new int[1024];
+    private long[] frames = new long[1024];
+    // Frame of the last change of VIN of each index, reused by a new car or not
+    private long[] vinFrames = new long[1024];
+    // Null for the cars removed since, and the ones not published yet
+    private String[] vins = new String[1024];
+
+    /**
+     * Publishes the positions of the cars moved since the previous frame, and the cars removed since: the shard counts
+     * removed cars as moved. Called by the tick engine of the shard.
+     */
+    public void update(CarStore cars, BitSet movedCars, long frame) {
+        lock.writeLock().lock();
+        try {
+            if (cars.size() > xs.length) {
+                int length = Math.max(cars.size(), xs.length * 2);
+                xs = Arrays.copyOf(xs, length);
+                ys = Arrays.copyOf(ys, length);
+                frames = Arrays.copyOf(frames, length);
+                vinFrames = Arrays.copyOf(vinFrames, length);
+                vins = Arrays.copyOf(vins, length);
+            }
+            size = cars.size();
+            for (int car = movedCars.nextSetBit(0); car >= 0; car = movedCars.nextSetBit(car + 1)) {
+                if (!cars.isRemoved(car)) {
+                    xs[car] = cars.x(car);
+                    ys[car] = cars.y(car);
+                    frames[car] = frame;
+                    // An index reused since the previous frame names another car
+                    String vin = cars.vin(car);
+                    if (!vin.equals(vins[car])) {
+                        vins[car] = vin;
+                        vinFrames[car] = frame;
+                    }
+                } else if (vins[car] != null) {
+                    vins[car] = null;
+                    frames[car] = frame;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the cars changed after a frame, up to another one included, to a visitor, under the read lock.
+     */
+    void forEachChange(long afterFrame, long untilFrame, ChangeVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for (int car = 0; car < size; car++) {
+                long frame = frames[car];
+                if (frame > afterFrame && frame <= untilFrame) {
+                    visitor.visit(car, vins[car], vinFrames[car] > afterFrame, xs[car], ys[car]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    interface ChangeVisitor {
+        /**
+         * @param vin        VIN of the car, null if it was removed
+         * @param vinChanged whether the VIN changed after the frame: the index may name another car than before
+         */
+        void visit(int car, String vin, boolean vinChanged, int x, int y);
+    }
+}
@@ -0,0 +1,134 @@
+package bzh.breizhcamp.city.feed;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.BitSet;
+
+/**
+ * Subscriber of a {@link CityFeed}, following the cars of a viewport, or one car out of {@code sample} of it. Each frame
+ * lists the cars which moved into or inside the viewport since the previous frame as flat {@code [id, x, y, ...]}
+ * triples, the VINs of the cars new to the subscriber by id, and the ids of the cars which left the viewport or were
+ * removed: {@code {"frame": 42, "cars": [...], "vins": {"id": "VIN"}, "removed": [...]}}.
+ */
+@Slf4j
+public class FeedSubscriber {
+    private static final long KEEP_ALIVE_MILLIS = 15_000;
+
+    private final CityFeed feed;
+    private final FeedClient client;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    private final int sample;
+    private final long intervalMillis;
+
+    // Cars of each shard whose VIN was sent, until they leave the viewport
+    private final BitSet[] knownCars;
+    private long sentFrame;
+    private volatile boolean closed;
+    private volatile Thread thread;
+
+    /**
+     * @param sample         1 to follow all the cars, n to follow one car out of n
+     * @param intervalMillis minimum duration between two frames, 0 to follow the frames of the feed
+     */
+    public FeedSubscriber(CityFeed feed, FeedClient client, int minX, int minY, int maxX, int maxY, int sample,
+                          long intervalMillis) {
+        this.feed = feed;
+        this.client = client;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.sample = sample;
+        this.intervalMillis = intervalMillis;
+        this.knownCars = new BitSet[feed.segments().length];
+        for (int i = 0; i < knownCars.length; i++) {
+            knownCars[i] = new BitSet();
+        }
+    }
+
+    void run() {
+        thread = Thread.currentThread();
+        try {
+            while (!closed && client.isOpen()) {
+                long frame = feed.awaitFrame(sentFrame, KEEP_ALIVE_MILLIS);
+                if (frame == sentFrame) {
+                    client.keepAlive();
+                    continue;
+                }
+                String data = frame(frame);
+                if (data != null) {
+                    client.send(data);
+                }
+                if (intervalMillis > 0) {
+                    // The changes coming meanwhile are coalesced into the next frame
+                    Thread.sleep(intervalMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.debug("Live feed subscriber disconnected:", e);
+        } finally {
+            thread = null;
+            feed.unsubscribe(this);
+            client.close();
+        }
+    }
+
+    /**
+     * @return the changes after the last sent frame up to a frame, or null if there are none
+     */
+    String frame(long frame) {
+        StringBuilder cars = new StringBuilder();
+        StringBuilder vins = new StringBuilder();
+        StringBuilder removed = new StringBuilder();
+        FeedSegment[] segments = feed.segments();
+        for (int shard = 0; shard < segments.length; shard++) {
+            BitSet known = knownCars[shard];
+            long shardId = (long) shard << 32;
+            segments[shard].forEachChange(sentFrame, frame, (car, vin, vinChanged, x, y) -> {
+                if (car % sample != 0) {
+                    return;
+                }
+                long id = shardId | car;
+                if (vin == null || x < minX || x > maxX || y < minY || y > maxY) {
+                    if (known.get(car)) {
+                        known.clear(car);
+                        separate(removed).append(id);
+                    }
+                    return;
+                }
+                separate(cars).append(id).append(',').append(x).append(',').append(y);
+                // A car added at the index of a removed one is new to the subscriber
+                if (!known.get(car) || vinChanged) {
+                    known.set(car);
+                    // VINs are alphanumeric: they need no escaping
+                    separate(vins).append('"').append(id).append("\":\"").append(vin).append('"');
+                }
+            });
+        }
+        sentFrame = frame;
+        if (cars.isEmpty() && removed.isEmpty()) {
+            return null;
+        }
+        return "{\"frame\":" + frame + ",\"cars\":[" + cars + "],\"vins\":{" + vins + "},\"removed\":[" + removed + "]}";
+    }
+
+    /**
+     * Disconnects the subscriber.
+     */
+    public void close() {
+        closed = true;
+        Thread current = thread;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    private static StringBuilder separate(StringBuilder builder) {
+        return builder.isEmpty() ? builder : builder.append(',');
+    }
+}
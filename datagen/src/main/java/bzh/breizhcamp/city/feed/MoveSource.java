@@ -0,0 +1,19 @@
+package bzh.breizhcamp.city.feed;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shard of a city publishing the moves of its cars to a {@link CityFeed}.
+ */
+public interface MoveSource {
+
+    /**
+     * Starts or stops recording which cars move. When started, all the cars count as moved.
+     */
+    CompletableFuture<Void> trackMoves(boolean enabled);
+
+    /**
+     * Publishes the cars moved since the previous call to a segment, then forgets them.
+     */
+    CompletableFuture<Void> publishMoves(FeedSegment segment, long frame);
+}
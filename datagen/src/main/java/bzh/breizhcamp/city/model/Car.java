@@ -1,32 +1,22 @@
 package bzh.breizhcamp.city.model;
 
-import bzh.breizhcamp.faker.FakerInstance;
-import lombok.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
-@RequiredArgsConstructor
-@Setter
+/**
+ * Read only view of a car of the {@link bzh.breizhcamp.city.state.CarStore} exposed by the REST API.
+ */
+@AllArgsConstructor
 @Getter
 @ToString
 public class Car {
-    private final String vin = FakerInstance.get().vehicle().vin();
-    private final String licensePlate = FakerInstance.get().vehicle().licensePlate();
-    @Getter(AccessLevel.NONE)
-    private final Set<Car> followingCars = new HashSet<>();
-
+    private final String vin;
+    private final String licensePlate;
     private final City city;
     private final String followedCarVin;
-    private Position position;
-    private Position lastPosition;
-
-    public void addFollowingCar(Car car) {
-        followingCars.add(car);
-    }
-
-    public Set<Car> getFollowingCars() {
-        return Collections.unmodifiableSet(followingCars);
-    }
+    private final Position position;
+    private final Position lastPosition;
+    private final long movingRateMillis;
+    private final long movingJitterMillis;
 }
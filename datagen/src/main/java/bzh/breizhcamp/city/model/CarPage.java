@@ -0,0 +1,18 @@
+package bzh.breizhcamp.city.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Page of a car listing, with the cursor of the next page, null on the last one.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class CarPage {
+    private final List<Car> cars;
+    private final String nextCursor;
+}
@@ -2,14 +2,35 @@ package bzh.breizhcamp.city.model;
 
 import bzh.breizhcamp.faker.FakerInstance;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.ToString;
+import net.datafaker.Faker;
+
+import java.util.Random;
 
 @Getter
 @ToString()
-@RequiredArgsConstructor
 public class City {
     private final int size;
-    private final String name = FakerInstance.get().gameOfThrones().city();
-    private final String id = name.toLowerCase().replaceAll(" ", "_");
+    private final String name;
+    private final String id;
+
+    public City(int size) {
+        this(size, FakerInstance.get().gameOfThrones().city());
+    }
+
+    /**
+     * City named after a seed: the instances of the generator sharing a seed agree on its name and id.
+     */
+    public City(int size, long seed) {
+        this(size, new Faker(new Random(seed)).gameOfThrones().city());
+    }
+
+    /**
+     * City with a given name, restored from a snapshot.
+     */
+    public City(int size, String name) {
+        this.size = size;
+        this.name = name;
+        this.id = name.toLowerCase().replaceAll(" ", "_");
+    }
 }
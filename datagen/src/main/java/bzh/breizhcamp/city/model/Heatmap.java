@@ -0,0 +1,17 @@
+package bzh.breizhcamp.city.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Car counts of a city by square blocks of cells: counts[y][x] is the count of the cells from x * cellsPerPixel to
+ * (x + 1) * cellsPerPixel - 1 on X, and the same on Y.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class Heatmap {
+    private final int cellsPerPixel;
+    private final int[][] counts;
+}
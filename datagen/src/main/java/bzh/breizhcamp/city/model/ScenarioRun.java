@@ -0,0 +1,106 @@
+package bzh.breizhcamp.city.model;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Progress of a load scenario: its cities are created and filled first, then their profiles are played.
+ */
+@Getter
+@ToString
+public class ScenarioRun {
+    public enum Status {
+        STARTING,
+        RUNNING,
+        DONE,
+        CANCELLED,
+        FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String name;
+    private final long durationMillis;
+    private final long startedAt = System.currentTimeMillis();
+    private final List<String> cities = new CopyOnWriteArrayList<>();
+    // Current target event rate of each city, for all the instances
+    private final Map<String, Double> targetRates = new ConcurrentHashMap<>();
+    private volatile Status status = Status.STARTING;
+    private volatile long runningAt;
+    private volatile long completedAt;
+    private volatile int removedCars;
+    private volatile String error;
+
+    public ScenarioRun(String name, long durationMillis) {
+        this.name = name;
+        this.durationMillis = durationMillis;
+    }
+
+    public void cityCreated(String city) {
+        cities.add(city);
+    }
+
+    public void targetRate(String city, double rate) {
+        targetRates.put(city, rate);
+    }
+
+    public void removed(int count) {
+        removedCars += count;
+    }
+
+    public synchronized boolean running() {
+        if (status != Status.STARTING) {
+            return false;
+        }
+        runningAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+        return true;
+    }
+
+    public synchronized void done() {
+        if (status == Status.RUNNING) {
+            completedAt = System.currentTimeMillis();
+            status = Status.DONE;
+        }
+    }
+
+    /**
+     * @return false if the scenario was already over
+     */
+    public synchronized boolean cancel() {
+        if (status != Status.STARTING && status != Status.RUNNING) {
+            return false;
+        }
+        completedAt = System.currentTimeMillis();
+        status = Status.CANCELLED;
+        return true;
+    }
+
+    public synchronized void failed(String error) {
+        if (status == Status.STARTING || status == Status.RUNNING) {
+            this.error = error;
+            completedAt = System.currentTimeMillis();
+            status = Status.FAILED;
+        }
+    }
+
+    public boolean isOver() {
+        Status current = status;
+        return current != Status.STARTING && current != Status.RUNNING;
+    }
+
+    /**
+     * @return the time spent playing the profiles
+     */
+    public long getElapsedMillis() {
+        if (runningAt == 0) {
+            return 0;
+        }
+        return (completedAt > 0 ? completedAt : System.currentTimeMillis()) - runningAt;
+    }
+}
@@ -0,0 +1,63 @@
+package bzh.breizhcamp.city.model;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.UUID;
+
+/**
+ * Progress of the asynchronous creation of a batch of cars.
+ */
+@Getter
+@ToString
+public class SpawnJob {
+    public enum Status {
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String city;
+    private final String followedCarVin;
+    private final int requested;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile int created;
+    private volatile Status status = Status.RUNNING;
+    private volatile long completedAt;
+    private volatile String error;
+
+    public SpawnJob(String city, String followedCarVin, int requested) {
+        this.city = city;
+        this.followedCarVin = followedCarVin;
+        this.requested = requested;
+    }
+
+    public void progress(int count) {
+        created += count;
+    }
+
+    public void done() {
+        completedAt = System.currentTimeMillis();
+        status = Status.DONE;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+        completedAt = System.currentTimeMillis();
+        status = Status.FAILED;
+    }
+
+    public double getProgress() {
+        return requested == 0 ? 1 : (double) created / requested;
+    }
+
+    public long getDurationMillis() {
+        return (completedAt > 0 ? completedAt : System.currentTimeMillis()) - startedAt;
+    }
+
+    public long getCarsPerSecond() {
+        long durationMillis = getDurationMillis();
+        return durationMillis == 0 ? created : created * 1000L / durationMillis;
+    }
+}
@@ -0,0 +1,143 @@
+package bzh.breizhcamp.city.scenario;
+
+import bzh.breizhcamp.events.OverloadPolicy;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load scenario, in JSON or HOCON: cities with their cars and convoys, and for each one a traffic profile of its event
+ * rate and removals of cars at given times.
+ * <pre>
+ * name = "evening-peak"
+ * cities = [{
+ *   size = 1000
+ *   seed = 42
+ *   overloadPolicy = drop
+ *   cars = 20000
+ *   convoys = [{count = 10, followers = 5, topology = chain}]
+ *   profile = [
+ *     {type = ramp, from = 0, to = 20000, duration = 2m}
+ *     {type = diurnal, min = 2000, max = 40000, period = 30m, startHour = 6, duration = 30m}
+ *   ]
+ *   removals = [{at = 20m, cars = 10000}]
+ * }]
+ * </pre>
+ */
+@Getter
+@AllArgsConstructor
+public class Scenario {
+    private final String name;
+    private final List<CityPlan> cities;
+
+    public enum ConvoyTopology {
+        // Each follower follows the previous car of the convoy
+        CHAIN,
+        // All the followers follow the leader
+        STAR
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class CityPlan {
+        private final int size;
+        private final Long seed;
+        // Fixed event rate, used without a profile
+        private final Double eventRate;
+        private final OverloadPolicy overloadPolicy;
+        private final int cars;
+        private final Long movingRateMillis;
+        private final Long movingJitterMillis;
+        private final List<ConvoyPlan> convoys;
+        private final TrafficProfile profile;
+        // Sorted by time
+        private final List<Removal> removals;
+
+        public long durationMillis() {
+            long duration = profile != null ? profile.getDurationMillis() : 0;
+            return removals.isEmpty() ? duration : Math.max(duration, removals.get(removals.size() - 1).getAtMillis());
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class ConvoyPlan {
+        private final int count;
+        private final int followers;
+        private final ConvoyTopology topology;
+    }
+
+    /**
+     * Removal of leader cars, with their convoys, the latest ones first.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Removal {
+        private final long atMillis;
+        private final int cars;
+    }
+
+    public static Scenario parse(String text) {
+        return parse(ConfigFactory.parseString(text).resolve());
+    }
+
+    /**
+     * Loads a scenario file like the configuration: environment variables can be substituted.
+     */
+    public static Scenario load(File file) {
+        return parse(ConfigFactory.parseFile(file).resolve());
+    }
+
+    public static Scenario parse(Config config) {
+        List<CityPlan> cities = new ArrayList<>();
+        for (Config city : config.getConfigList("cities")) {
+            cities.add(parseCity(city));
+        }
+        if (cities.isEmpty()) {
+            throw new IllegalArgumentException("A scenario needs at least one city");
+        }
+        return new Scenario(config.hasPath("name") ? config.getString("name") : "scenario", cities);
+    }
+
+    private static CityPlan parseCity(Config config) {
+        List<ConvoyPlan> convoys = new ArrayList<>();
+        if (config.hasPath("convoys")) {
+            for (Config convoy : config.getConfigList("convoys")) {
+                convoys.add(new ConvoyPlan(convoy.getInt("count"), convoy.getInt("followers"),
+                        convoy.hasPath("topology")
+                                ? ConvoyTopology.valueOf(convoy.getString("topology").toUpperCase())
+                                : ConvoyTopology.CHAIN));
+            }
+        }
+        List<Removal> removals = new ArrayList<>();
+        if (config.hasPath("removals")) {
+            for (Config removal : config.getConfigList("removals")) {
+                removals.add(new Removal(removal.getDuration("at", TimeUnit.MILLISECONDS), removal.getInt("cars")));
+            }
+            removals.sort(Comparator.comparingLong(Removal::getAtMillis));
+        }
+        return new CityPlan(config.hasPath("size") ? config.getInt("size") : 10,
+                config.hasPath("seed") ? config.getLong("seed") : null,
+                config.hasPath("eventRate") ? config.getDouble("eventRate") : null,
+                config.hasPath("overloadPolicy")
+                        ? OverloadPolicy.valueOf(config.getString("overloadPolicy").toUpperCase())
+                        : null,
+                config.hasPath("cars") ? config.getInt("cars") : 0,
+                config.hasPath("movingRateMillis") ? config.getLong("movingRateMillis") : null,
+                config.hasPath("movingJitterMillis") ? config.getLong("movingJitterMillis") : null,
+                convoys,
+                config.hasPath("profile") ? TrafficProfile.parse(config.getConfigList("profile")) : null,
+                removals);
+    }
+
+    public long durationMillis() {
+        return cities.stream().mapToLong(CityPlan::durationMillis).max().orElse(0);
+    }
+}
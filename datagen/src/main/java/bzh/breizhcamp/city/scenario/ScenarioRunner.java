@@ -0,0 +1,210 @@
+package bzh.breizhcamp.city.scenario;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.ScenarioRun;
+import bzh.breizhcamp.city.model.SpawnJob;
+import bzh.breizhcamp.city.services.CityRegistry;
+import bzh.breizhcamp.city.services.CityService;
+import bzh.breizhcamp.city.services.GeneratorInstance;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static bzh.breizhcamp.kafka.Configuration.SCENARIO_UPDATE_MILLIS_PROPERTY;
+
+/**
+ * Plays load scenarios, each one from its own thread: it creates the cities with their cars and convoys, then updates
+ * the event rate of each city from its profile at a fixed interval and removes cars on time. Cities stay once their
+ * scenario is over or cancelled, at their last rate.
+ */
+@Slf4j
+public class ScenarioRunner {
+    private static final int MAX_RUNS = 100;
+    // A rate of 0 means no limit to the rate limiters: this one lets almost nothing through
+    private static final double SILENT_RATE = 1e-3;
+    private static final long SPAWN_POLL_MILLIS = 50;
+    private static final ExecutorService SCENARIO_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "scenario-runner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CityRegistry cityRegistry;
+    private final GeneratorInstance instance;
+    private final long updateMillis;
+
+    // Latest runs, by id
+    private final Map<String, ScenarioRun> runs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ScenarioRun> eldest) {
+            return size() > MAX_RUNS;
+        }
+    });
+
+    public ScenarioRunner(CityRegistry cityRegistry, GeneratorInstance instance, long updateMillis) {
+        this.cityRegistry = cityRegistry;
+        this.instance = instance;
+        this.updateMillis = updateMillis;
+    }
+
+    public static ScenarioRunner fromConfiguration(CityRegistry cityRegistry, Properties configuration) {
+        return new ScenarioRunner(cityRegistry, GeneratorInstance.get(),
+                Long.parseLong((String) configuration.get(SCENARIO_UPDATE_MILLIS_PROPERTY)));
+    }
+
+    /**
+     * Starts playing a scenario in the background.
+     */
+    public ScenarioRun start(Scenario scenario) {
+        if (!instance.isSingle() && scenario.getCities().stream().anyMatch(city -> city.getSeed() == null)) {
+            // Without a shared seed the instances would not agree on the cities
+            throw new IllegalArgumentException("The cities of a scenario need a seed when running several instances");
+        }
+        ScenarioRun run = new ScenarioRun(scenario.getName(), scenario.durationMillis());
+        runs.put(run.getId(), run);
+        SCENARIO_EXECUTOR.execute(() -> play(run, scenario));
+        return run;
+    }
+
+    public ScenarioRun run(String id) {
+        return runs.get(id);
+    }
+
+    public List<ScenarioRun> runs() {
+        synchronized (runs) {
+            return new ArrayList<>(runs.values());
+        }
+    }
+
+    /**
+     * Stops playing a scenario, keeping its cities at their current rate.
+     *
+     * @return false if there is no such scenario or it is already over
+     */
+    public boolean cancel(String id) {
+        ScenarioRun run = runs.get(id);
+        return run != null && run.cancel();
+    }
+
+    private void play(ScenarioRun run, Scenario scenario) {
+        log.info("Starting scenario {}...", scenario.getName());
+        try {
+            List<Scenario.CityPlan> plans = scenario.getCities();
+            List<CityService> cityServices = new ArrayList<>(plans.size());
+            for (Scenario.CityPlan plan : plans) {
+                cityServices.add(setUp(run, plan));
+                if (run.isOver()) {
+                    return;
+                }
+            }
+            if (!run.running()) {
+                return;
+            }
+            log.info("Scenario {} ready, playing its profiles for {} ms", scenario.getName(), scenario.durationMillis());
+            int[] nextRemovals = new int[plans.size()];
+            long start = System.nanoTime();
+            for (long update = 0; !run.isOver(); update++) {
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+                boolean finished = true;
+                for (int i = 0; i < plans.size(); i++) {
+                    Scenario.CityPlan plan = plans.get(i);
+                    CityService cityService = cityServices.get(i);
+                    if (cityService.isClosed()) {
+                        continue;
+                    }
+                    if (plan.getProfile() != null) {
+                        double rate = plan.getProfile().rateAt(elapsedMillis);
+                        setRate(cityService, rate);
+                        run.targetRate(cityService.getCity().getName(), rate);
+                    }
+                    List<Scenario.Removal> removals = plan.getRemovals();
+                    while (nextRemovals[i] < removals.size() && removals.get(nextRemovals[i]).getAtMillis() <= elapsedMillis) {
+                        run.removed(cityService.removeCars(removals.get(nextRemovals[i]++).getCars()));
+                    }
+                    finished &= elapsedMillis >= plan.durationMillis();
+                }
+                if (finished) {
+                    run.done();
+                    break;
+                }
+                // Updates are aligned on the start: a slow update does not shift the next ones
+                LockSupport.parkNanos(start + (update + 1) * updateMillis * 1_000_000L - System.nanoTime());
+            }
+            log.info("Scenario {} {} after {} ms", scenario.getName(), run.getStatus(), run.getElapsedMillis());
+        } catch (Exception e) {
+            log.error("Exception while playing scenario {}:", scenario.getName(), e);
+            run.failed(e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a city of the scenario, then its cars and convoys.
+     */
+    private CityService setUp(ScenarioRun run, Scenario.CityPlan plan) throws Exception {
+        Double eventRate = initialRate(plan);
+        CityService cityService = cityRegistry.createWithSink(() -> CityService.create(plan.getSize(), plan.getSeed(),
+                eventRate, plan.getOverloadPolicy()));
+        if (cityService == null) {
+            throw new IllegalStateException("No city name available");
+        }
+        cityService.awaitSink();
+        String name = cityService.getCity().getName();
+        run.cityCreated(name);
+        long rateMillis = plan.getMovingRateMillis() != null ? plan.getMovingRateMillis() : cityService.getMovingRateMillis();
+        long jitterMillis = plan.getMovingJitterMillis() != null ? plan.getMovingJitterMillis() : cityService.getMovingJitterMillis();
+
+        if (plan.getCars() > 0) {
+            SpawnJob job = cityService.spawnCars(null, plan.getCars(), rateMillis, jitterMillis);
+            while (job.getStatus() == SpawnJob.Status.RUNNING && !run.isOver()) {
+                TimeUnit.MILLISECONDS.sleep(SPAWN_POLL_MILLIS);
+            }
+            if (job.getStatus() == SpawnJob.Status.FAILED) {
+                throw new IllegalStateException("Cars of " + name + " not spawned: " + job.getError());
+            }
+        }
+        for (Scenario.ConvoyPlan convoy : plan.getConvoys()) {
+            // Convoy leaders are split between the instances like the other leaders
+            for (Car leader : cityService.startNewCars(null, convoy.getCount(), rateMillis, jitterMillis)) {
+                if (convoy.getTopology() == Scenario.ConvoyTopology.STAR) {
+                    cityService.startNewCars(leader.getVin(), convoy.getFollowers(), rateMillis, jitterMillis);
+                } else {
+                    String followedVin = leader.getVin();
+                    for (int i = 0; i < convoy.getFollowers(); i++) {
+                        followedVin = cityService.startNewCars(followedVin, 1, rateMillis, jitterMillis).get(0).getVin();
+                    }
+                }
+            }
+        }
+        log.info("City {} of scenario {} ready with {} cars", name, run.getName(), cityService.carCount());
+        return cityService;
+    }
+
+    /**
+     * @return the share of this instance of the rate of a city until its profile starts, null for the configured rate
+     */
+    Double initialRate(Scenario.CityPlan plan) {
+        // The profile starts once all the cities are ready: until then, they run at its first rate
+        Double rate = plan.getProfile() != null ? Double.valueOf(plan.getProfile().rateAt(0)) : plan.getEventRate();
+        return rate != null ? Double.valueOf(instanceRate(rate)) : null;
+    }
+
+    private void setRate(CityService cityService, double rate) {
+        cityService.getEmissionGovernor().getCityRateLimiter().setRate(instanceRate(rate));
+    }
+
+    /**
+     * @return the share of a city rate of this instance, never 0 which would mean no limit
+     */
+    private double instanceRate(double rate) {
+        return Math.max(SILENT_RATE, rate / instance.getCount());
+    }
+}
@@ -0,0 +1,124 @@
+package bzh.breizhcamp.city.scenario;
+
+import com.typesafe.config.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * Target event rate of a city over time, in events per second: segments played one after the other, their last rate
+ * kept once they are over.
+ * <ul>
+ *     <li>{@code constant}: {@code rate}</li>
+ *     <li>{@code ramp}: from {@code from} to {@code to}, linearly</li>
+ *     <li>{@code burst}: {@code base}, then {@code rate} for {@code length} at the start of each {@code every}</li>
+ *     <li>{@code sine}: {@code base} plus or minus {@code amplitude}, over {@code period}</li>
+ *     <li>{@code diurnal}: a day compressed in {@code period}, from {@code min} at night to {@code max} at the evening
+ *     rush hour, starting at {@code startHour}</li>
+ * </ul>
+ */
+public class TrafficProfile {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final List<Segment> segments;
+    private final long durationMillis;
+
+    private record Segment(long durationMillis, LongToDoubleFunction rate) {
+    }
+
+    private TrafficProfile(List<Segment> segments) {
+        this.segments = segments;
+        this.durationMillis = segments.stream().mapToLong(Segment::durationMillis).sum();
+    }
+
+    public static TrafficProfile parse(List<? extends Config> segmentConfigs) {
+        if (segmentConfigs.isEmpty()) {
+            throw new IllegalArgumentException("A profile needs at least one segment");
+        }
+        List<Segment> segments = new ArrayList<>(segmentConfigs.size());
+        for (Config config : segmentConfigs) {
+            long duration = positiveDuration(config, "duration");
+            segments.add(new Segment(duration, rate(config, duration)));
+        }
+        return new TrafficProfile(segments);
+    }
+
+    private static LongToDoubleFunction rate(Config config, long duration) {
+        String type = config.getString("type");
+        return switch (type) {
+            case "constant" -> {
+                double rate = config.getDouble("rate");
+                yield elapsed -> rate;
+            }
+            case "ramp" -> {
+                double from = config.getDouble("from");
+                double to = config.getDouble("to");
+                yield elapsed -> from + (to - from) * elapsed / duration;
+            }
+            case "burst" -> {
+                double base = config.getDouble("base");
+                double rate = config.getDouble("rate");
+                long every = positiveDuration(config, "every");
+                long length = config.getDuration("length", TimeUnit.MILLISECONDS);
+                yield elapsed -> elapsed % every < length ? rate : base;
+            }
+            case "sine" -> {
+                double base = config.getDouble("base");
+                double amplitude = config.getDouble("amplitude");
+                long period = positiveDuration(config, "period");
+                yield elapsed -> base + amplitude * Math.sin(2 * Math.PI * elapsed / period);
+            }
+            case "diurnal" -> {
+                double min = config.getDouble("min");
+                double max = config.getDouble("max");
+                long period = config.hasPath("period") ? positiveDuration(config, "period") : DAY_MILLIS;
+                double startHour = config.hasPath("startHour") ? config.getDouble("startHour") : 0;
+                yield elapsed -> min + (max - min) * dayShape((startHour + 24.0 * elapsed / period) % 24);
+            }
+            default -> throw new IllegalArgumentException("Unknown profile segment type " + type
+                    + ": constant, ramp, burst, sine or diurnal");
+        };
+    }
+
+    private static long positiveDuration(Config config, String path) {
+        long millis = config.getDuration(path, TimeUnit.MILLISECONDS);
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Profile " + path + " must be positive: " + config.root().render());
+        }
+        return millis;
+    }
+
+    /**
+     * @return the traffic of an hour of the day, from 0 at night to 1 at the evening rush hour
+     */
+    static double dayShape(double hour) {
+        return Math.min(1, 0.8 * bump(hour, 8, 1.5) + 0.4 * bump(hour, 13, 3) + bump(hour, 18, 2));
+    }
+
+    private static double bump(double hour, double peakHour, double width) {
+        double distance = (hour - peakHour) / width;
+        return Math.exp(-distance * distance / 2);
+    }
+
+    /**
+     * @return the target rate at a time of the profile, never negative
+     */
+    public double rateAt(long elapsedMillis) {
+        long start = 0;
+        for (Segment segment : segments) {
+            if (elapsedMillis < start + segment.durationMillis()) {
+                return Math.max(0, segment.rate().applyAsDouble(elapsedMillis - start));
+            }
+            start += segment.durationMillis();
+        }
+        Segment last = segments.get(segments.size() - 1);
+        // The last rate played
+        return Math.max(0, last.rate().applyAsDouble(last.durationMillis() - 1));
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,82 @@
+package bzh.breizhcamp.city.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cities by name, safe for concurrent requests: a city is visible once its shards are started, possibly before its sink
+ * is ready, and a deleted city is unreachable before its tick engines are stopped.
+ */
+@Slf4j
+public class CityRegistry {
+    // City names come from a short list: a new city gets another name when its name is taken
+    private static final int MAX_NAME_ATTEMPTS = 10;
+
+    private final ConcurrentMap<String, CityService> cities = new ConcurrentHashMap<>();
+
+    /**
+     * Creates and registers a city.
+     *
+     * @param factory creates a city
+     * @return the registered city, or null if no free name was found
+     */
+    public CityService create(Callable<CityService> factory) throws Exception {
+        for (int attempt = 0; attempt < MAX_NAME_ATTEMPTS; attempt++) {
+            CityService cityService = factory.call();
+            if (cities.putIfAbsent(cityService.getCity().getName(), cityService) == null) {
+                return cityService;
+            }
+            log.debug("City name {} already taken", cityService.getCity().getName());
+            cityService.close();
+        }
+        return null;
+    }
+
+    /**
+     * Creates and registers a city, then creates its sink in the background: the city is returned right away, its cars
+     * held still until the sink is ready. A city whose sink fails is deleted, unless another city took its name since.
+     *
+     * @param factory creates a city without its sink
+     * @return the registered city, or null if no free name was found
+     */
+    public CityService createWithSink(Callable<CityService> factory) throws Exception {
+        CityService cityService = create(factory);
+        if (cityService != null) {
+            String name = cityService.getCity().getName();
+            cityService.initSinkAsync().exceptionally(e -> {
+                log.error("Exception while creating the sink of {}, deleting it:", name, e);
+                cities.remove(name, cityService);
+                cityService.close();
+                return null;
+            });
+        }
+        return cityService;
+    }
+
+    public CityService get(String name) {
+        return cities.get(name);
+    }
+
+    /**
+     * Unregisters a city, then stops it.
+     *
+     * @return false if there is no city with this name
+     */
+    public boolean delete(String name) {
+        CityService cityService = cities.remove(name);
+        if (cityService == null) {
+            return false;
+        }
+        cityService.close();
+        return true;
+    }
+
+    public Collection<CityService> all() {
+        return List.copyOf(cities.values());
+    }
+}
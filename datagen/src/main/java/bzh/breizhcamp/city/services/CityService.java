@@ -1,220 +1,596 @@
 package bzh.breizhcamp.city.services;
 
 import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.avro.SensorDetectionsEvent;
+import bzh.breizhcamp.city.engine.SimulationClock;
+import bzh.breizhcamp.city.engine.TickStatistics;
+import bzh.breizhcamp.city.feed.CityFeed;
 import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.CarPage;
 import bzh.breizhcamp.city.model.City;
-import bzh.breizhcamp.city.model.Position;
+import bzh.breizhcamp.city.model.Heatmap;
+import bzh.breizhcamp.city.model.SpawnJob;
+import bzh.breizhcamp.city.snapshot.CitySnapshot;
+import bzh.breizhcamp.city.state.CarFilter;
+import bzh.breizhcamp.city.state.CarSnapshot;
+import bzh.breizhcamp.city.state.SensorKeys;
+import bzh.breizhcamp.events.EmissionGovernor;
+import bzh.breizhcamp.events.EmissionStatistics;
+import bzh.breizhcamp.events.EventSink;
+import bzh.breizhcamp.events.OverloadPolicy;
+import bzh.breizhcamp.faker.IdentityPool;
 import bzh.breizhcamp.kafka.Configuration;
+import bzh.breizhcamp.kafka.SchemaRegistry;
+import bzh.breizhcamp.metrics.LatencyHistogram;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.admin.AdminClient;
-import org.apache.kafka.clients.admin.KafkaAdminClient;
-import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerRecord;
-import org.jetbrains.annotations.NotNull;
+import org.apache.avro.Schema;
 
 import java.io.Closeable;
-import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
-import static bzh.breizhcamp.kafka.Configuration.KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY;
-import static bzh.breizhcamp.kafka.Configuration.MOVING_RATE_CONFIG_PROPERTY;
+import static bzh.breizhcamp.kafka.Configuration.*;
 
 @Getter
 @Slf4j
-@ToString(exclude = {"kafkaProducer"})
+@ToString(exclude = {"sink", "shards", "carShards", "nextShard", "shareRequests", "emissionGovernor", "spawnJobs", "feed"})
 public class CityService implements Closeable {
-    private static final Random R = new Random();
-
-    private final int movingRateSeconds;
+    private static final int MAX_SPAWN_JOBS = 100;
+    private static final ExecutorService SPAWN_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "spawn-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService SINK_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sink-init");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long movingRateMillis;
+    private final long movingJitterMillis;
     private final String carDetectedTopicName;
+    private final String sensorDetectionsTopicName;
 
     private final City city;
+    private final long seed;
+    private final GeneratorInstance instance;
+
+    @Getter(AccessLevel.NONE)
+    private EventSink sink;
+
+    @Getter(AccessLevel.NONE)
+    private final CityShard[] shards;
+
+    @Getter(AccessLevel.NONE)
+    private final Map<String, CityShard> carShards = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger nextShard = new AtomicInteger();
+    // Requests split between the instances, numbered in arrival order: the instances get the same ones
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong shareRequests = new AtomicLong();
+
+    private final EmissionGovernor emissionGovernor;
+
+    @Getter(AccessLevel.NONE)
+    private final int spawnChunkSize;
+
+    // Latest spawn jobs, by id
+    @Getter(AccessLevel.NONE)
+    private final Map<String, SpawnJob> spawnJobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SpawnJob> eldest) {
+            return size() > MAX_SPAWN_JOBS;
+        }
+    });
+
+    @Getter(AccessLevel.NONE)
+    private volatile boolean closed;
 
     @Getter(AccessLevel.NONE)
-    private KafkaProducer<String, CarDetectedEvent> kafkaProducer;
+    private final long feedIntervalMillis;
 
+    // Created with the first subscriber
     @Getter(AccessLevel.NONE)
-    private final Map<String, Car> cars = new HashMap<>();
+    private CityFeed feed;
 
     @Getter(AccessLevel.NONE)
-    private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(10);
+    private volatile CompletableFuture<CityService> sinkInitialization;
 
     public CityService(int size) {
+        this(new City(size), new SplittableRandom().nextLong(), GeneratorInstance.get(), SimulationClock.get());
+    }
+
+    /**
+     * City named after its seed, simulating the share of the cars of this instance of the generator.
+     */
+    public CityService(int size, long seed) {
+        this(size, seed, GeneratorInstance.get());
+    }
+
+    CityService(int size, long seed, GeneratorInstance instance) {
+        this(size, seed, instance, SimulationClock.get());
+    }
+
+    CityService(int size, long seed, GeneratorInstance instance, SimulationClock clock) {
+        this(new City(size, seed), seed, instance, clock);
+    }
+
+    private CityService(City city, long seed, GeneratorInstance instance, SimulationClock clock) {
         Properties configuration = Configuration.get();
 
-        this.city = new City(size);
+        this.city = city;
+        this.seed = seed;
+        this.instance = instance;
         this.carDetectedTopicName = (String) configuration.get(KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY);
-        movingRateSeconds = Integer.parseInt((String) configuration.get(MOVING_RATE_CONFIG_PROPERTY));
-    }
-
-    public CityService initKafka() throws ExecutionException, InterruptedException {
-        try (AdminClient adminClient = KafkaAdminClient.create(Configuration.get())) {
-            if (!adminClient.listTopics().names().get().contains(carDetectedTopicName)) {
-                log.info("Creating topic {}...", carDetectedTopicName);
-                adminClient.createTopics(Collections.singletonList(
-                                new org.apache.kafka.clients.admin.NewTopic(carDetectedTopicName,
-                                        Optional.of(Integer.parseInt((String) Configuration.get().get(Configuration.KAFKA_CAR_DETECTED_TOPIC_PARTITIONS_PROPERTY))),
-                                        Optional.empty())))
-                        .all().get();
+        this.sensorDetectionsTopicName = (String) configuration.get(KAFKA_SENSOR_DETECTIONS_TOPIC_NAME_PROPERTY);
+        String movingRateMillisProperty = (String) configuration.get(MOVING_RATE_MILLIS_CONFIG_PROPERTY);
+        movingRateMillis = movingRateMillisProperty != null
+                ? Long.parseLong(movingRateMillisProperty)
+                : Long.parseLong((String) configuration.get(MOVING_RATE_CONFIG_PROPERTY)) * 1000;
+        movingJitterMillis = Long.parseLong((String) configuration.get(MOVING_JITTER_MILLIS_CONFIG_PROPERTY));
+
+        emissionGovernor = EmissionGovernor.fromConfiguration(configuration);
+        spawnChunkSize = Integer.parseInt((String) configuration.get(SPAWN_CHUNK_SIZE_PROPERTY));
+        feedIntervalMillis = Long.parseLong((String) configuration.get(FEED_INTERVAL_MILLIS_PROPERTY));
+
+        int shardCount = Integer.parseInt((String) configuration.get(CITY_SHARDS_PROPERTY));
+        if (shardCount <= 0) {
+            shardCount = Runtime.getRuntime().availableProcessors();
+        }
+        // Each shard random generator is split from the city one in order, so a seed gives reproducible moves (not VINs,
+        // which come from the identity pool). Instances sharing the seed split it once per instance first, not to
+        // simulate the same cars
+        SplittableRandom cityRandom = new SplittableRandom(seed);
+        for (int i = 0; i < instance.getIndex(); i++) {
+            cityRandom = cityRandom.split();
+        }
+        long sensorBatchWindowMillis = Long.parseLong((String) configuration.get(SENSOR_BATCH_WINDOW_MILLIS_PROPERTY));
+        SensorKeys sensorKeys = new SensorKeys(city.getId(), city.getSize(),
+                Integer.parseInt((String) configuration.get(SENSOR_KEYS_TABLE_MAX_CELLS_PROPERTY)));
+        shards = new CityShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new CityShard(city, i, cityRandom.split(), carShards, sensorKeys, emissionGovernor, clock,
+                    Long.parseLong((String) configuration.get(TICK_ENGINE_TICK_MILLIS_PROPERTY)),
+                    Integer.parseInt((String) configuration.get(TICK_ENGINE_WHEEL_SIZE_PROPERTY)),
+                    Integer.parseInt((String) configuration.get(PATH_LENGTH_PROPERTY)),
+                    Boolean.parseBoolean((String) configuration.get(PATH_SENSOR_IDS_ENABLED_PROPERTY)),
+                    sensorBatchWindowMillis);
+        }
+    }
+
+    /**
+     * Creates a city, without its sink.
+     *
+     * @param seed           seed of the city, null for a random one
+     * @param eventRate      target rate of detection events per second, null for the configured one
+     * @param overloadPolicy policy of the events above the budget, null for the configured one
+     */
+    public static CityService create(int size, Long seed, Double eventRate, OverloadPolicy overloadPolicy) {
+        CityService cityService = seed == null ? new CityService(size) : new CityService(size, seed);
+        if (eventRate != null) {
+            cityService.emissionGovernor.getCityRateLimiter().setRate(eventRate);
+        }
+        if (overloadPolicy != null) {
+            cityService.emissionGovernor.setOverloadPolicy(overloadPolicy);
+        }
+        return cityService;
+    }
+
+    /**
+     * Creates the configured sink of the city in the background. Its cars are held still until the sink is ready.
+     *
+     * @return the city, once its sink is ready
+     */
+    public CompletableFuture<CityService> initSinkAsync() {
+        for (CityShard shard : shards) {
+            shard.awaitSink();
+        }
+        sinkInitialization = CompletableFuture.supplyAsync(() -> {
+            try {
+                return initSink();
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
             }
+        }, SINK_EXECUTOR);
+        return sinkInitialization;
+    }
+
+    /**
+     * Waits for the sink started by {@link #initSinkAsync()}, if any.
+     */
+    public void awaitSink() throws ExecutionException, InterruptedException {
+        CompletableFuture<CityService> initialization = sinkInitialization;
+        if (initialization != null) {
+            initialization.get();
+        }
+    }
+
+    public CityService initSink() throws ExecutionException, InterruptedException {
+        Properties configuration = Configuration.get();
+        EventSink.Type type = EventSink.type(configuration);
+        // Detections batched by sensor are sent to their own topic, with their own schema
+        boolean batched = shards[0].emitter().batchesBySensor();
+        String topic = batched ? sensorDetectionsTopicName : carDetectedTopicName;
+        Schema schema = batched ? SensorDetectionsEvent.getClassSchema() : CarDetectedEvent.getClassSchema();
+        // Events written to files get their schema id when they are replayed
+        int schemaId = type == EventSink.Type.KAFKA ? SchemaRegistry.valueSchemaId(topic, schema) : 0;
+        // Instances writing segment files in a shared directory do not overwrite each other
+        String sinkName = instance.isSingle() ? city.getName() : city.getName() + "-" + instance.getIndex();
+        return initSink(EventSink.create(configuration, topic, city.getName(), sinkName, schema, schemaId), schemaId);
+    }
+
+    /**
+     * Sends the events of the city to a given sink, closed with the city.
+     */
+    public CityService initSink(EventSink sink, int schemaId) {
+        this.sink = sink;
+        for (CityShard shard : shards) {
+            shard.initSink(sink, schemaId);
         }
-        kafkaProducer = new KafkaProducer<>(Configuration.get());
         return this;
     }
 
     public List<Car> startNewCars(String followedCarVin, int count) {
-        Car followedCar;
+        return startNewCars(followedCarVin, count, movingRateMillis, movingJitterMillis);
+    }
+
+    public List<Car> startNewCars(String followedCarVin, int count, long rateMillis, long jitterMillis) {
+        CityShard followedShard = null;
         if (followedCarVin != null) {
-            followedCar = cars.get(followedCarVin);
-            if (followedCar == null) {
+            followedShard = carShards.get(followedCarVin);
+            if (followedShard == null) {
                 return null;
             }
-        } else {
-            followedCar = null;
         }
+        if (followedShard == null) {
+            // Leaders are split between the instances, followers live on the instance of their leader
+            count = share(count);
+        }
+        String[] vins = new String[count];
+        String[] licensePlates = new String[count];
+        IdentityPool.get().take(vins, licensePlates, 0, count);
 
-        List<Car> retValue = new ArrayList<>();
+        if (followedShard != null) {
+            return followedShard.startNewCars(followedCarVin, vins, licensePlates, 0, count, Math.toIntExact(rateMillis), Math.toIntExact(jitterMillis)).join();
+        }
 
-        for (int i = 0; i < count; i++) {
-            Car car = new Car(this.getCity(), followedCarVin);
+        // Leaders are spread evenly across the shards
+        int first = nextShard.getAndAdd(count);
+        List<CompletableFuture<List<Car>>> futures = new ArrayList<>(shards.length);
+        int offset = 0;
+        for (int i = 0; i < shards.length; i++) {
+            int shardCount = count / shards.length + (Math.floorMod(i - first, shards.length) < count % shards.length ? 1 : 0);
+            if (shardCount > 0) {
+                futures.add(shards[i].startNewCars(null, vins, licensePlates, offset, shardCount, Math.toIntExact(rateMillis), Math.toIntExact(jitterMillis)));
+                offset += shardCount;
+            }
+        }
+        List<Car> retValue = new ArrayList<>(count);
+        futures.forEach(future -> retValue.addAll(future.join()));
+        return retValue;
+    }
+
+    /**
+     * Starts an asynchronous job creating the cars by chunks.
+     *
+     * @return the job, or null if the followed car is unknown
+     */
+    public SpawnJob spawnCars(String followedCarVin, int count, long rateMillis, long jitterMillis) {
+        int rate = Math.toIntExact(rateMillis);
+        int jitter = Math.toIntExact(jitterMillis);
+        CityShard followedShard = null;
+        if (followedCarVin != null) {
+            followedShard = carShards.get(followedCarVin);
+            if (followedShard == null) {
+                return null;
+            }
+        }
+        // Leaders are split between the instances, followers live on the instance of their leader
+        int carCount = followedShard == null ? share(count) : count;
+        SpawnJob job = new SpawnJob(city.getName(), followedCarVin, carCount);
+        spawnJobs.put(job.getId(), job);
+        CityShard[] targetShards = followedShard != null ? new CityShard[]{followedShard} : shards;
+        SPAWN_EXECUTOR.execute(() -> spawn(job, targetShards, followedCarVin, carCount, rate, jitter));
+        return job;
+    }
 
-            Position position = new Position(R.nextInt(city.getSize()), R.nextInt(city.getSize()));
-            car.setPosition(position);
-            car.setLastPosition(position);
+    /**
+     * Removes leaders with their convoys, the latest ones first, spread across the shards.
+     *
+     * @return the number of leaders removed
+     */
+    public int removeCars(int count) {
+        // Leaders are split between the instances
+        int remaining = share(count);
+        int removed = 0;
+        // Shards can have less leaders than their share: the next ones remove more
+        for (int i = 0; i < shards.length && remaining > 0; i++) {
+            int shardRemoved = shards[i].removeLeaders((remaining + shards.length - i - 1) / (shards.length - i)).join();
+            removed += shardRemoved;
+            remaining -= shardRemoved;
+        }
+        return removed;
+    }
 
-            log.info("New car({}) added to city: [{}]", car.getLicensePlate(), car.getPosition());
-            if (followedCar == null) {
-                executorService.scheduleAtFixedRate(() -> {
-                    moveCarToNextPosition(car);
-                    carDetectedAtPosition(car);
-                }, 0, movingRateSeconds, TimeUnit.SECONDS);
+    private void spawn(SpawnJob job, CityShard[] targetShards, String followedCarVin, int count, int rateMillis, int jitterMillis) {
+        log.info("Spawning {} cars in {}...", count, city.getName());
+        try {
+            int remaining = count;
+            while (remaining > 0 && !closed) {
+                // One chunk per shard at a time, created in parallel by their tick engines
+                List<CompletableFuture<Integer>> futures = new ArrayList<>(targetShards.length);
+                for (int i = 0; i < targetShards.length && remaining > 0; i++) {
+                    int chunk = Math.min(remaining, spawnChunkSize);
+                    String[] vins = new String[chunk];
+                    String[] licensePlates = new String[chunk];
+                    IdentityPool.get().take(vins, licensePlates, 0, chunk);
+                    futures.add(targetShards[i].spawnCars(followedCarVin, vins, licensePlates, 0, chunk, rateMillis, jitterMillis));
+                    remaining -= chunk;
+                }
+                for (CompletableFuture<Integer> future : futures) {
+                    int created = future.join();
+                    if (created < 0) {
+                        throw new IllegalStateException("Car " + followedCarVin + " not found");
+                    }
+                    job.progress(created);
+                }
+            }
+            if (closed) {
+                job.failed("City deleted");
             } else {
-                followedCar.addFollowingCar(car);
+                job.done();
             }
+            log.info("{} cars spawned in {} in {} ms", job.getCreated(), city.getName(), job.getDurationMillis());
+        } catch (Exception e) {
+            log.error("Exception while spawning cars in {}:", city.getName(), e);
+            job.failed(e.getMessage());
+        }
+    }
 
-            cars.put(car.getVin(), car);
-
-            retValue.add(car);
+    /**
+     * Copies the cars of the city, each shard in one go by its tick engine.
+     */
+    public CitySnapshot snapshot() {
+        List<CompletableFuture<CarSnapshot>> futures = new ArrayList<>(shards.length);
+        for (CityShard shard : shards) {
+            futures.add(shard.snapshotConvoys());
         }
-        return retValue;
+        List<CarSnapshot> cars = futures.stream().map(CompletableFuture::join).toList();
+        return new CitySnapshot(city.getName(), city.getSize(), seed, emissionGovernor.getCityRateLimiter().getRate(),
+                emissionGovernor.getOverloadPolicy(), cars);
     }
 
-    void moveCarToNextPosition(Car car) {
-        moveCarToNextPosition(car, null);
+    /**
+     * Creates a city from a snapshot, its cars moving again from their saved positions. The cars of a shard of the
+     * snapshot stay together, so convoys are kept even if the number of shards changed.
+     */
+    public static CityService restore(CitySnapshot snapshot) {
+        CityService cityService = new CityService(new City(snapshot.getSize(), snapshot.getName()), snapshot.getSeed(),
+                GeneratorInstance.get(), SimulationClock.get());
+        try {
+            cityService.emissionGovernor.getCityRateLimiter().setRate(snapshot.getEventRate());
+            cityService.emissionGovernor.setOverloadPolicy(snapshot.getOverloadPolicy());
+            List<CompletableFuture<Integer>> futures = new ArrayList<>(snapshot.getShards().size());
+            for (int i = 0; i < snapshot.getShards().size(); i++) {
+                CityShard shard = cityService.shards[i % cityService.shards.length];
+                futures.add(shard.restoreCars(snapshot.getShards().get(i)));
+            }
+            futures.forEach(CompletableFuture::join);
+        } catch (RuntimeException e) {
+            cityService.close();
+            throw e;
+        }
+        return cityService;
     }
 
-    void moveCarToNextPosition(Car car, Position nextPosition) {
-        if (nextPosition == null) {
-            Position currentPosition = car.getPosition();
-            Position lastPosition = car.getLastPosition();
+    /**
+     * @return the live feed of the positions of the cars, created on first use
+     */
+    public synchronized CityFeed feed() {
+        if (feed == null) {
+            feed = new CityFeed(city.getName(), Arrays.asList(shards), feedIntervalMillis);
+            if (closed) {
+                feed.close();
+            }
+        }
+        return feed;
+    }
 
-            boolean moveX = ableToMove(lastPosition.getX(), currentPosition.getX()) &&
-                    // If we cannot move on Y we need to move on X
-                    (!ableToMove(lastPosition.getY(), currentPosition.getY()) || R.nextBoolean());
+    public boolean isClosed() {
+        return closed;
+    }
 
-            int currentCoordinate = moveX ? currentPosition.getX() : currentPosition.getY();
-            int lastCoordinate = moveX ? lastPosition.getX() : lastPosition.getY();
-            int nextCoordinate = getNextCoordinate(currentCoordinate, lastCoordinate);
+    public SpawnJob spawnJob(String id) {
+        return spawnJobs.get(id);
+    }
 
-            nextPosition = new Position(
-                    moveX ? nextCoordinate : currentPosition.getX(),
-                    moveX ? currentPosition.getY() : nextCoordinate);
+    public List<SpawnJob> spawnJobs() {
+        synchronized (spawnJobs) {
+            return new ArrayList<>(spawnJobs.values());
         }
+    }
 
-        car.setLastPosition(car.getPosition());
-        car.setPosition(nextPosition);
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (feed != null) {
+            feed.close();
+        }
+        log.info("Waiting for tick engines to shutdown...");
+        for (CityShard shard : shards) {
+            shard.close();
+        }
+        log.info("Tick engines shutdowned.");
+        if (sink != null) {
+            sink.close();
+        }
+    }
 
-        log.trace("Car({}) moved to new position: [{}]", car.getLicensePlate(), car.getPosition());
+    public List<TickStatistics> tickStatistics() {
+        return Arrays.stream(shards).map(CityShard::tickStatistics).toList();
+    }
 
-        car.getFollowingCars().forEach(followingCar -> {
-            moveCarToNextPosition(followingCar, car.getLastPosition());
-        });
+    public List<Car> cars() {
+        List<Car> retValue = new ArrayList<>();
+        forEachCar(CarFilter.ALL, retValue::add);
+        return retValue;
     }
 
-    private void carDetectedAtPosition(Car car) {
-        CarDetectedEvent event = new CarDetectedEvent(
-                sensorId(car),
-                car.getVin(),
-                car.getLicensePlate(),
-                city.getName(),
-                car.getPosition().getX(),
-                car.getPosition().getY(),
-                Instant.now()
-        );
+    /**
+     * Lists the cars matching a filter, shard by shard, each one from a snapshot of its shard. A cursor is a car index of
+     * a shard: the cars there during the whole paging are listed once, but the ones added meanwhile are missed when they
+     * take the index of a removed car below the cursor, or join a shard already listed.
+     *
+     * @param cursor next cursor of the previous page, null for the first page
+     */
+    public CarPage cars(CarFilter filter, String cursor, int limit) {
+        int shard = 0;
+        int from = 0;
+        if (cursor != null) {
+            String[] parts = cursor.split("-");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            shard = Integer.parseInt(parts[0]);
+            from = Integer.parseInt(parts[1]);
+        }
+        List<Car> retValue = new ArrayList<>(Math.min(limit, 1024));
+        for (; shard < shards.length; shard++, from = 0) {
+            if (!canMatch(shard, filter)) {
+                continue;
+            }
+            CarSnapshot snapshot = shards[shard].snapshot(filter, from, limit - retValue.size()).join();
+            for (int i = 0; i < snapshot.size(); i++) {
+                retValue.add(snapshot.toCar(i, city));
+            }
+            if (retValue.size() == limit) {
+                String nextCursor = snapshot.complete() ? nextCursor(shard + 1, filter) : shard + "-" + snapshot.nextIndex();
+                return new CarPage(retValue, nextCursor);
+            }
+        }
+        return new CarPage(retValue, null);
+    }
 
-        if (kafkaProducer != null) {
-            ProducerRecord<String, CarDetectedEvent> record = new ProducerRecord<>(carDetectedTopicName,
-                    sensorId(car),
-                    event);
-            try {
-                kafkaProducer.send(record, (metadata, exception) -> {
-                    if (exception != null) {
-                        log.error("Exception while sending event to Kafka:", exception);
-                    } else {
-                        log.debug("[{}] Car({}) detected at position: [{}]", car.getCity().getName(), car.getVin(), car.getPosition());
-                    }
-                });
-            } catch (Exception exception) {
-                log.error("Exception while sending event to Kafka:", exception);
+    /**
+     * Hands the cars matching a filter to a consumer, from one point in time snapshot per shard.
+     */
+    public void forEachCar(CarFilter filter, Consumer<Car> consumer) {
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (canMatch(shard, filter)) {
+                CarSnapshot snapshot = shards[shard].snapshot(filter, 0, Integer.MAX_VALUE).join();
+                for (int i = 0; i < snapshot.size(); i++) {
+                    consumer.accept(snapshot.toCar(i, city));
+                }
             }
         }
+    }
 
-        car.getFollowingCars().forEach(followingCar -> {
-            carDetectedAtPosition(followingCar);
-        });
+    /**
+     * @return the share of this instance of the leaders of a request
+     */
+    private int share(int count) {
+        return instance.share(count, shareRequests.getAndIncrement());
     }
 
-    @NotNull
-    private String sensorId(Car car) {
-        return String.join("-", city.getId(), Integer.toString(car.getPosition().getX()), Integer.toString(car.getPosition().getY()));
+    // Followers always live in the shard of their leader
+    private boolean canMatch(int shard, CarFilter filter) {
+        return filter.getFollowedCarVin() == null || carShards.get(filter.getFollowedCarVin()) == shards[shard];
     }
 
-    private int getNextCoordinate(int currentCoordinate, int lastCoordinate) {
-        int nextCoordinate;
-        if (currentCoordinate == 0) {
-            nextCoordinate = 1;
-        } else if (currentCoordinate == city.getSize()) {
-            nextCoordinate = city.getSize() - 1;
-        } else if (currentCoordinate == lastCoordinate) {
-            nextCoordinate = R.nextBoolean() ? currentCoordinate + 1 : currentCoordinate - 1;
-        } else {
-            nextCoordinate = currentCoordinate + (currentCoordinate - lastCoordinate);
+    private String nextCursor(int shard, CarFilter filter) {
+        for (; shard < shards.length; shard++) {
+            if (canMatch(shard, filter) && shards[shard].carCount() > 0) {
+                return shard + "-0";
+            }
         }
-        return nextCoordinate;
+        return null;
     }
 
-
-    boolean ableToMove(int lastPosition, int currentPosition) {
-        return (currentPosition > 0 && currentPosition < city.getSize())
-                || (currentPosition == 0 && lastPosition == 0)
-                || (currentPosition == city.getSize() && lastPosition == city.getSize());
+    /**
+     * Lists the cars in a bounding box through the occupancy grids of the shards.
+     */
+    public List<Car> carsInArea(int minX, int minY, int maxX, int maxY, int limit) {
+        List<CompletableFuture<CarSnapshot>> futures = Arrays.stream(shards)
+                .map(shard -> shard.snapshotArea(minX, minY, maxX, maxY, limit))
+                .toList();
+        List<Car> retValue = new ArrayList<>();
+        for (CompletableFuture<CarSnapshot> future : futures) {
+            CarSnapshot snapshot = future.join();
+            for (int i = 0; i < snapshot.size() && retValue.size() < limit; i++) {
+                retValue.add(snapshot.toCar(i, city));
+            }
+        }
+        return retValue;
     }
 
-    @Override
-    public void close() {
-        if (kafkaProducer != null) {
-            this.kafkaProducer.close();
+    /**
+     * @param resolution maximum number of blocks of cells on each side
+     */
+    public Heatmap heatmap(int resolution) {
+        int cells = city.getSize() + 1;
+        int cellsPerPixel = (cells + resolution - 1) / resolution;
+        int width = (cells + cellsPerPixel - 1) / cellsPerPixel;
+        // Shards are counted one after the other, each one adding to the counts
+        int[] counts = new int[width * width];
+        for (CityShard shard : shards) {
+            shard.heatmap(cellsPerPixel, counts).join();
         }
-        executorService.shutdown();
-        try {
-            log.info("Waiting for executor service to shutdown...");
-            while (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
-                log.info("Still waiting for executor service to shutdown...");
-            }
-            log.info("Executor service shutdowned.");
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        int[][] rows = new int[width][];
+        for (int y = 0; y < width; y++) {
+            rows[y] = Arrays.copyOfRange(counts, y * width, (y + 1) * width);
         }
+        return new Heatmap(cellsPerPixel, rows);
+    }
+
+    public List<EmissionStatistics> emissionStatistics() {
+        return Arrays.stream(shards).map(shard -> EmissionStatistics.of(shard.emitter())).toList();
+    }
+
+    public int carCount() {
+        return Arrays.stream(shards).mapToInt(CityShard::carCount).sum();
+    }
+
+    public int followerCount() {
+        return Arrays.stream(shards).mapToInt(CityShard::followerCount).sum();
+    }
+
+    public List<LatencyHistogram> sendLatencies() {
+        return Arrays.stream(shards).map(shard -> shard.emitter().sendLatency()).toList();
+    }
+
+    public List<LatencyHistogram> tickLags() {
+        return Arrays.stream(shards).map(shard -> shard.tickStatistics().lagHistogram()).toList();
+    }
+
+    public double bufferUsage() {
+        return sink != null ? sink.bufferUsage() : 0;
+    }
+
+    CityShard shard(int index) {
+        return shards[index];
     }
 
-    public Map<String, Car> cars() {
-        return Collections.unmodifiableMap(cars);
+    int shardCount() {
+        return shards.length;
     }
 }
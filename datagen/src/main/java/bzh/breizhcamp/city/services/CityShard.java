@@ -0,0 +1,421 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.city.engine.SimulationClock;
+import bzh.breizhcamp.city.engine.TickEngine;
+import bzh.breizhcamp.city.engine.TickStatistics;
+import bzh.breizhcamp.city.feed.FeedSegment;
+import bzh.breizhcamp.city.feed.MoveSource;
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.City;
+import bzh.breizhcamp.city.state.CarFilter;
+import bzh.breizhcamp.city.state.CarSnapshot;
+import bzh.breizhcamp.city.state.CarStore;
+import bzh.breizhcamp.city.state.OccupancyGrid;
+import bzh.breizhcamp.city.state.SensorKeys;
+import bzh.breizhcamp.events.CarDetectedEmitter;
+import bzh.breizhcamp.events.EmissionGovernor;
+import bzh.breizhcamp.events.EventSink;
+import bzh.breizhcamp.events.OverloadPolicy;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Disjoint slice of the cars of a city, simulated by its own tick engine thread with its own random generator.
+ * A follower always lives in the shard of its leader.
+ */
+@Slf4j
+public class CityShard implements MoveSource, Closeable {
+    private final City city;
+    private final SplittableRandom random;
+    // VIN to shard routing table shared by all the shards of the city, not used while moving cars
+    private final Map<String, CityShard> carShards;
+
+    // Only accessed by the tick engine thread: car indexes are the tick engine handles
+    private final CarStore cars = new CarStore();
+    private final OccupancyGrid occupancy;
+    private final TickEngine tickEngine;
+
+    private final EmissionGovernor governor;
+    private final CarDetectedEmitter emitter;
+
+    // Live counts, readable from any thread
+    private volatile int carCount;
+    private volatile int followerCount;
+    // Set while the sink of the city is being created: nothing moves until it is there
+    private volatile boolean awaitingSink;
+    // Cars moved since the last frame of the live feed, null while nobody follows the city
+    private BitSet movedCars;
+    // Leaders in the order they were added, the latest last: removals take them from the end
+    private int[] leaders = new int[64];
+    private int leaderCount;
+
+    CityShard(City city, int index, SplittableRandom random, Map<String, CityShard> carShards, SensorKeys sensorKeys,
+              EmissionGovernor governor, SimulationClock clock, long tickMillis, int wheelSize, int pathLength,
+              boolean pathSensorIds, long sensorBatchWindowMillis) {
+        this.city = city;
+        this.random = random;
+        this.carShards = carShards;
+        this.governor = governor;
+        this.occupancy = cars.indexOccupancy(city.getSize());
+        if (pathLength > 0) {
+            cars.trackPaths(pathLength, city.getId().hashCode());
+        }
+        this.emitter = new CarDetectedEmitter(cars, sensorKeys, governor, city.getName(), pathSensorIds);
+        if (sensorBatchWindowMillis > 0) {
+            emitter.batchBySensor(sensorBatchWindowMillis);
+        }
+        this.tickEngine = new TickEngine(city.getId() + "-" + index, tickMillis, wheelSize, this::moveScheduledCar, clock);
+        this.tickEngine.gate(this::beforeTick);
+    }
+
+    /**
+     * Holds the cars still until {@link #initSink}. A backfill goes on meanwhile: the engine leaves its steps rather
+     * than holding back the engines of the other cities, and their commands, for as long as the sink takes.
+     */
+    void awaitSink() {
+        awaitingSink = true;
+        tickEngine.leaveClock();
+    }
+
+    void initSink(EventSink sink, int schemaId) {
+        tickEngine.submit(() -> {
+            emitter.initSink(sink, schemaId);
+            awaitingSink = false;
+            tickEngine.joinClock();
+            return null;
+        }).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> trackMoves(boolean enabled) {
+        return tickEngine.submit(() -> {
+            movedCars = enabled ? new BitSet(cars.size()) : null;
+            if (enabled) {
+                movedCars.set(0, cars.size());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMoves(FeedSegment segment, long frame) {
+        return tickEngine.submit(() -> {
+            if (movedCars != null) {
+                segment.update(cars, movedCars, frame);
+                movedCars.clear();
+            }
+            return null;
+        });
+    }
+
+    CarDetectedEmitter emitter() {
+        return emitter;
+    }
+
+    CompletableFuture<List<Car>> startNewCars(String followedCarVin, String[] vins, String[] licensePlates, int offset,
+                                              int count, int rateMillis, int jitterMillis) {
+        return tickEngine.submit(() -> addCars(followedCarVin, vins, licensePlates, offset, count, rateMillis, jitterMillis));
+    }
+
+    /**
+     * Bulk version of {@link #startNewCars}: no car views nor log per car, and the first moves of the leaders are spread
+     * over their moving rate.
+     *
+     * @return the number of cars spawned, or -1 if the followed car is unknown
+     */
+    CompletableFuture<Integer> spawnCars(String followedCarVin, String[] vins, String[] licensePlates, int offset,
+                                         int count, int rateMillis, int jitterMillis) {
+        return tickEngine.submit(() -> {
+            int followedCar = followedCar(followedCarVin);
+            if (followedCarVin != null && followedCar == CarStore.NO_CAR) {
+                return -1;
+            }
+            long now = tickEngine.nowMillis();
+            for (int i = offset; i < offset + count; i++) {
+                int car = addCar(vins[i], licensePlates[i], followedCar, rateMillis, jitterMillis);
+                if (followedCar == CarStore.NO_CAR) {
+                    scheduleLeader(car, now + random.nextInt(Math.max(1, rateMillis)));
+                }
+            }
+            updateCounts(followedCar, count);
+            return count;
+        });
+    }
+
+    /**
+     * Adds the cars of a snapshot, leaders before their followers, at their saved positions. As for a spawn, the first
+     * moves of the leaders are spread over their moving rate.
+     *
+     * @return the number of cars restored
+     */
+    CompletableFuture<Integer> restoreCars(CarSnapshot snapshot) {
+        return tickEngine.submit(() -> {
+            long now = tickEngine.nowMillis();
+            int followers = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                String leaderVin = snapshot.leaderVin(i);
+                int leaderCar = leaderVin != null ? cars.indexOf(leaderVin) : CarStore.NO_CAR;
+                if (leaderVin != null && leaderCar == CarStore.NO_CAR) {
+                    throw new IllegalStateException("Leader " + leaderVin + " of " + snapshot.vin(i) + " not restored");
+                }
+                int car = cars.add(snapshot.vin(i), snapshot.licensePlate(i), snapshot.x(i), snapshot.y(i), leaderCar,
+                        snapshot.movingRateMillis(i), snapshot.movingJitterMillis(i));
+                cars.setLastPosition(car, snapshot.lastX(i), snapshot.lastY(i));
+                markMoved(car);
+                carShards.put(snapshot.vin(i), this);
+                if (leaderCar == CarStore.NO_CAR) {
+                    scheduleLeader(car, now + random.nextInt(Math.max(1, snapshot.movingRateMillis(i))));
+                } else {
+                    followers++;
+                }
+            }
+            carCount = cars.count();
+            followerCount += followers;
+            return snapshot.size();
+        });
+    }
+
+    /**
+     * Removes the latest leaders added to the shard, with their convoys.
+     *
+     * @return the number of leaders removed
+     */
+    CompletableFuture<Integer> removeLeaders(int count) {
+        return tickEngine.submit(() -> {
+            int removed = 0;
+            for (; leaderCount > 0 && removed < count; leaderCount--) {
+                int car = leaders[leaderCount - 1];
+                // The feed publishes the removal, the tick engine entry of the leader releases the indexes
+                for (int convoyCar = car; convoyCar != CarStore.NO_CAR; convoyCar = cars.nextInConvoy(car, convoyCar)) {
+                    markMoved(convoyCar);
+                }
+                String[] vins = cars.removeConvoy(car);
+                for (String vin : vins) {
+                    carShards.remove(vin);
+                }
+                followerCount -= vins.length - 1;
+                removed++;
+            }
+            carCount = cars.count();
+            return removed;
+        });
+    }
+
+    /**
+     * Copies all the cars, each one after its leader.
+     */
+    CompletableFuture<CarSnapshot> snapshotConvoys() {
+        return tickEngine.submit(cars::snapshotConvoys);
+    }
+
+    CompletableFuture<CarSnapshot> snapshot(CarFilter filter, int from, int limit) {
+        return tickEngine.submit(() -> cars.snapshot(filter, from, limit));
+    }
+
+    /**
+     * Copies the cars in a bounding box, found through the occupancy grid.
+     */
+    CompletableFuture<CarSnapshot> snapshotArea(int minX, int minY, int maxX, int maxY, int limit) {
+        return tickEngine.submit(() -> {
+            int[] found = occupancy.carsIn(minX, minY, maxX, maxY, limit);
+            return cars.snapshot(found, found.length);
+        });
+    }
+
+    /**
+     * @param counts row major car counts by blocks of cells, added to
+     */
+    CompletableFuture<Void> heatmap(int cellsPerPixel, int[] counts) {
+        return tickEngine.submit(() -> {
+            occupancy.heatmap(cellsPerPixel, counts);
+            return null;
+        });
+    }
+
+    TickStatistics tickStatistics() {
+        return tickEngine.statistics();
+    }
+
+    CarStore carStore() {
+        return cars;
+    }
+
+    int carCount() {
+        return carCount;
+    }
+
+    int followerCount() {
+        return followerCount;
+    }
+
+    private List<Car> addCars(String followedCarVin, String[] vins, String[] licensePlates, int offset, int count,
+                              int rateMillis, int jitterMillis) {
+        int followedCar = followedCar(followedCarVin);
+        if (followedCarVin != null && followedCar == CarStore.NO_CAR) {
+            return null;
+        }
+
+        List<Car> retValue = new ArrayList<>();
+
+        for (int i = offset; i < offset + count; i++) {
+            int car = addCar(vins[i], licensePlates[i], followedCar, rateMillis, jitterMillis);
+
+            log.info("New car({}) added to city: [{}]", cars.licensePlate(car), cars.position(car));
+            if (followedCar == CarStore.NO_CAR) {
+                scheduleLeader(car, tickEngine.nowMillis());
+            }
+            retValue.add(cars.toCar(car, city));
+        }
+        updateCounts(followedCar, count);
+        return retValue;
+    }
+
+    private int followedCar(String followedCarVin) {
+        return followedCarVin != null ? cars.indexOf(followedCarVin) : CarStore.NO_CAR;
+    }
+
+    private int addCar(String vin, String licensePlate, int followedCar, int rateMillis, int jitterMillis) {
+        int car = cars.add(vin,
+                licensePlate,
+                random.nextInt(city.getSize()),
+                random.nextInt(city.getSize()),
+                followedCar,
+                rateMillis,
+                jitterMillis);
+        carShards.put(vin, this);
+        markMoved(car);
+        return car;
+    }
+
+    private void scheduleLeader(int car, long timestamp) {
+        if (leaderCount == leaders.length) {
+            leaders = Arrays.copyOf(leaders, leaderCount * 2);
+        }
+        leaders[leaderCount++] = car;
+        tickEngine.scheduleAt(car, timestamp);
+    }
+
+    private void markMoved(int car) {
+        if (movedCars != null) {
+            movedCars.set(car);
+        }
+    }
+
+    private void updateCounts(int followedCar, int count) {
+        carCount = cars.count();
+        if (followedCar != CarStore.NO_CAR) {
+            followerCount += count;
+        }
+    }
+
+    private long moveScheduledCar(int car, long deadline, long now) {
+        if (cars.isRemoved(car)) {
+            // Its last entry: once the emitter forgot them, the indexes of the convoy can be reused
+            for (int convoyCar = car; convoyCar != CarStore.NO_CAR; convoyCar = cars.nextInConvoy(car, convoyCar)) {
+                emitter.forget(convoyCar);
+            }
+            cars.releaseConvoy(car);
+            return -1;
+        }
+        moveCarToNextPosition(car);
+
+        int jitterMillis = cars.movingJitterMillis(car);
+        int jitter = jitterMillis > 0 ? random.nextInt(-jitterMillis, jitterMillis + 1) : 0;
+        return deadline + Math.max(1, cars.movingRateMillis(car) + jitter);
+    }
+
+    /**
+     * Moves a car and, in the same pass, each car of its convoy to the previous position of its leader, emitting their
+     * detection events.
+     */
+    void moveCarToNextPosition(int car) {
+        int currentX = cars.x(car);
+        int currentY = cars.y(car);
+        int lastX = cars.lastX(car);
+        int lastY = cars.lastY(car);
+
+        boolean moveX = ableToMove(lastX, currentX) &&
+                // If we cannot move on Y we need to move on X
+                (!ableToMove(lastY, currentY) || random.nextBoolean());
+
+        if (moveX) {
+            moveCarToPosition(car, getNextCoordinate(currentX, lastX), currentY);
+        } else {
+            moveCarToPosition(car, currentX, getNextCoordinate(currentY, lastY));
+        }
+    }
+
+    private void moveCarToPosition(int car, int nextX, int nextY) {
+        long timestamp = tickEngine.tickTimestampMillis();
+        moveCar(car, nextX, nextY, timestamp);
+
+        // Iterative walk, leaders before their followers: convoys can be as deep as needed
+        for (int followingCar = cars.nextInConvoy(car, car); followingCar != CarStore.NO_CAR; followingCar = cars.nextInConvoy(car, followingCar)) {
+            int leaderCar = cars.leader(followingCar);
+            moveCar(followingCar, cars.lastX(leaderCar), cars.lastY(leaderCar), timestamp);
+        }
+    }
+
+    private void moveCar(int car, int nextX, int nextY, long timestamp) {
+        cars.move(car, nextX, nextY);
+        markMoved(car);
+
+        if (log.isTraceEnabled()) {
+            log.trace("Car({}) moved to new position: [{}]", cars.licensePlate(car), cars.position(car));
+        }
+
+        emitter.emit(car, timestamp);
+    }
+
+    private boolean beforeTick() {
+        if (awaitingSink) {
+            return false;
+        }
+        // The rate is measured on the wall clock, even when backfilling
+        emitter.sampleRate(System.currentTimeMillis());
+        boolean flushed = emitter.flushPending(tickEngine.tickTimestampMillis());
+        // A backfill waits for the sink rather than skipping positions, and a window batched by sensor is sent whole
+        // before the next one starts
+        return flushed || (governor.getOverloadPolicy() != OverloadPolicy.SLOW && !tickEngine.clock().isBackfill()
+                && !emitter.batchesBySensor());
+    }
+
+    private int getNextCoordinate(int currentCoordinate, int lastCoordinate) {
+        int nextCoordinate;
+        if (currentCoordinate == 0) {
+            nextCoordinate = 1;
+        } else if (currentCoordinate == city.getSize()) {
+            nextCoordinate = city.getSize() - 1;
+        } else if (currentCoordinate == lastCoordinate) {
+            nextCoordinate = random.nextBoolean() ? currentCoordinate + 1 : currentCoordinate - 1;
+        } else {
+            nextCoordinate = currentCoordinate + (currentCoordinate - lastCoordinate);
+        }
+        return nextCoordinate;
+    }
+
+
+    boolean ableToMove(int lastPosition, int currentPosition) {
+        return (currentPosition > 0 && currentPosition < city.getSize())
+                || (currentPosition == 0 && lastPosition == 0)
+                || (currentPosition == city.getSize() && lastPosition == city.getSize());
+    }
+
+    @Override
+    public void close() {
+        // The last window batched by sensor is not over yet: sent before the sink of the city is closed
+        tickEngine.submit(() -> {
+            emitter.flushWindow();
+            return null;
+        });
+        tickEngine.close();
+    }
+}
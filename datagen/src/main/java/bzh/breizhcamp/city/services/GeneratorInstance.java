@@ -0,0 +1,64 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.kafka.Configuration;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Properties;
+
+import static bzh.breizhcamp.kafka.Configuration.INSTANCE_COUNT_PROPERTY;
+import static bzh.breizhcamp.kafka.Configuration.INSTANCE_INDEX_PROPERTY;
+
+/**
+ * Position of this generator among the instances simulating the same cities. Instances do not talk to each other: they
+ * get the same requests and the same city seeds, and each one simulates its own share of the leader cars, with the
+ * followers of its leaders.
+ */
+@Getter
+@ToString
+public class GeneratorInstance {
+    private static final GeneratorInstance CONFIGURED = fromConfiguration(Configuration.get());
+
+    private final int index;
+    private final int count;
+
+    public GeneratorInstance(int index, int count) {
+        if (count <= 0 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid generator instance " + index + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    public static GeneratorInstance get() {
+        return CONFIGURED;
+    }
+
+    static GeneratorInstance fromConfiguration(Properties configuration) {
+        return new GeneratorInstance(Integer.parseInt((String) configuration.get(INSTANCE_INDEX_PROPERTY)),
+                Integer.parseInt((String) configuration.get(INSTANCE_COUNT_PROPERTY)));
+    }
+
+    public boolean isSingle() {
+        return count == 1;
+    }
+
+    /**
+     * @return the number of cars out of a total simulated by this instance: the shares of all the instances add up to
+     * the total and differ by one car at most
+     */
+    public int share(int total) {
+        return share(total, 0);
+    }
+
+    /**
+     * Share of a request among a sequence: the instances with one more car than the others change from one request to
+     * the next, so small requests are spread too.
+     *
+     * @param request number of the request in the sequence, the same on all the instances
+     */
+    public int share(int total, long request) {
+        int rotatedIndex = (int) Math.floorMod(index + request, (long) count);
+        return (int) ((long) total * (rotatedIndex + 1) / count - (long) total * rotatedIndex / count);
+    }
+}
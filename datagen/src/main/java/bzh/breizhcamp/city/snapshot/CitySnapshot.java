@@ -0,0 +1,29 @@
+package bzh.breizhcamp.city.snapshot;
+
+import bzh.breizhcamp.city.state.CarSnapshot;
+import bzh.breizhcamp.events.OverloadPolicy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * State of a city needed to restart it: its identity, its emission settings and its cars, shard by shard. The cars of a
+ * shard come in their creation order, leaders before their followers.
+ */
+@AllArgsConstructor
+@Getter
+@ToString(exclude = "shards")
+public class CitySnapshot {
+    private final String name;
+    private final int size;
+    private final long seed;
+    private final double eventRate;
+    private final OverloadPolicy overloadPolicy;
+    private final List<CarSnapshot> shards;
+
+    public int carCount() {
+        return shards.stream().mapToInt(CarSnapshot::size).sum();
+    }
+}
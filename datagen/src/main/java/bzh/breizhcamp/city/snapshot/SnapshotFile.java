@@ -0,0 +1,139 @@
+package bzh.breizhcamp.city.snapshot;
+
+import bzh.breizhcamp.city.state.CarSnapshot;
+import bzh.breizhcamp.events.OverloadPolicy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary file of a {@link CitySnapshot}, big endian:
+ * <pre>
+ * magic "BZHS", version
+ * name, size, seed, event rate, overload policy
+ * shard count, then for each shard: car count, then for each car:
+ *   VIN, license plate, index of its leader in the shard or -1, x, y, last x, last y, moving rate, moving jitter
+ * </pre>
+ * Strings are written as an unsigned short length and their UTF-8 bytes. Files are written next to their destination
+ * then moved over it, so a crash never leaves a partial snapshot, and read from a memory mapping.
+ */
+public class SnapshotFile {
+    private static final byte[] MAGIC = {'B', 'Z', 'H', 'S'};
+    private static final int VERSION = 1;
+
+    private SnapshotFile() {
+    }
+
+    public static void write(Path path, CitySnapshot snapshot) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            output.write(MAGIC);
+            output.writeInt(VERSION);
+            writeString(output, snapshot.getName());
+            output.writeInt(snapshot.getSize());
+            output.writeLong(snapshot.getSeed());
+            output.writeDouble(snapshot.getEventRate());
+            writeString(output, snapshot.getOverloadPolicy().name());
+            output.writeInt(snapshot.getShards().size());
+            for (CarSnapshot cars : snapshot.getShards()) {
+                writeCars(output, cars);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CitySnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            int version = buffer.getInt();
+            if (!Arrays.equals(MAGIC, magic) || version != VERSION) {
+                throw new IOException("Not a version " + VERSION + " city snapshot: " + path);
+            }
+            // Large enough for any string length
+            byte[] bytes = new byte[0xFFFF];
+            String name = readString(buffer, bytes);
+            int size = buffer.getInt();
+            long seed = buffer.getLong();
+            double eventRate = buffer.getDouble();
+            OverloadPolicy overloadPolicy = OverloadPolicy.valueOf(readString(buffer, bytes));
+            int shardCount = buffer.getInt();
+            List<CarSnapshot> shards = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(readCars(buffer, bytes));
+            }
+            return new CitySnapshot(name, size, seed, eventRate, overloadPolicy, shards);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupted city snapshot: " + path, e);
+        }
+    }
+
+    private static void writeCars(DataOutputStream output, CarSnapshot cars) throws IOException {
+        Map<String, Integer> indexes = new HashMap<>(cars.size() * 2);
+        output.writeInt(cars.size());
+        for (int i = 0; i < cars.size(); i++) {
+            indexes.put(cars.vin(i), i);
+            writeString(output, cars.vin(i));
+            writeString(output, cars.licensePlate(i));
+            // Leaders come first: their index is already known
+            String leaderVin = cars.leaderVin(i);
+            output.writeInt(leaderVin != null ? indexes.get(leaderVin) : -1);
+            output.writeInt(cars.x(i));
+            output.writeInt(cars.y(i));
+            output.writeInt(cars.lastX(i));
+            output.writeInt(cars.lastY(i));
+            output.writeInt(cars.movingRateMillis(i));
+            output.writeInt(cars.movingJitterMillis(i));
+        }
+    }
+
+    private static CarSnapshot readCars(MappedByteBuffer buffer, byte[] bytes) {
+        int count = buffer.getInt();
+        int[] positions = new int[count * 4];
+        int[] rates = new int[count * 2];
+        String[] identities = new String[count * 3];
+        for (int i = 0; i < count; i++) {
+            identities[i * 3] = readString(buffer, bytes);
+            identities[i * 3 + 1] = readString(buffer, bytes);
+            int leader = buffer.getInt();
+            if (leader >= i) {
+                throw new IllegalArgumentException("Car " + i + " follows car " + leader + " restored after it");
+            }
+            identities[i * 3 + 2] = leader >= 0 ? identities[leader * 3] : null;
+            positions[i * 4] = buffer.getInt();
+            positions[i * 4 + 1] = buffer.getInt();
+            positions[i * 4 + 2] = buffer.getInt();
+            positions[i * 4 + 3] = buffer.getInt();
+            rates[i * 2] = buffer.getInt();
+            rates[i * 2 + 1] = buffer.getInt();
+        }
+        return new CarSnapshot(count, count, true, positions, rates, identities);
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer, byte[] bytes) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+package bzh.breizhcamp.city.snapshot;
+
+import bzh.breizhcamp.city.services.CityService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static bzh.breizhcamp.kafka.Configuration.*;
+
+/**
+ * Directory of the snapshots of the cities, one file per city: written periodically and at shutdown, restored at
+ * startup. A deleted city has its snapshot deleted with it.
+ */
+@Slf4j
+public class SnapshotStore {
+    private static final String EXTENSION = ".snapshot";
+
+    private final Path directory;
+    private final long intervalSeconds;
+
+    public SnapshotStore(Path directory, long intervalSeconds) {
+        this.directory = directory;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * @return the store, or null if snapshots are disabled
+     */
+    public static SnapshotStore fromConfiguration(Properties configuration) {
+        if (!Boolean.parseBoolean((String) configuration.get(SNAPSHOT_ENABLED_PROPERTY))) {
+            return null;
+        }
+        return new SnapshotStore(Paths.get((String) configuration.get(SNAPSHOT_DIRECTORY_PROPERTY)),
+                Long.parseLong((String) configuration.get(SNAPSHOT_INTERVAL_SECONDS_PROPERTY)));
+    }
+
+    /**
+     * Writes the snapshots of the cities every interval, from a background thread.
+     */
+    public void start(Supplier<Collection<CityService>> cities) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> writeAll(cities.get()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void writeAll(Collection<CityService> cities) {
+        for (CityService cityService : cities) {
+            try {
+                write(cityService);
+            } catch (Exception e) {
+                log.error("Exception while writing the snapshot of {}:", cityService.getCity().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot of a city, unless it was deleted.
+     */
+    public synchronized void write(CityService cityService) throws IOException {
+        if (cityService.isClosed()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        CitySnapshot snapshot = cityService.snapshot();
+        Files.createDirectories(directory);
+        SnapshotFile.write(path(cityService.getCity().getId()), snapshot);
+        log.info("Snapshot of {} with {} cars written in {} ms", snapshot.getName(), snapshot.carCount(),
+                System.currentTimeMillis() - start);
+    }
+
+    public synchronized void delete(CityService cityService) throws IOException {
+        Files.deleteIfExists(path(cityService.getCity().getId()));
+    }
+
+    /**
+     * Reads all the snapshots of the directory, skipping the unreadable ones.
+     */
+    public List<CitySnapshot> readAll() {
+        List<CitySnapshot> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    snapshots.add(SnapshotFile.read(file));
+                } catch (IOException e) {
+                    log.error("Skipping snapshot {}:", file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Exception while listing the snapshots of {}:", directory, e);
+        }
+        return snapshots;
+    }
+
+    private Path path(String cityId) {
+        return directory.resolve(cityId + EXTENSION);
+    }
+}
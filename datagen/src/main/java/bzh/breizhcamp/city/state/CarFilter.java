@@ -0,0 +1,43 @@
+package bzh.breizhcamp.city.state;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Criteria of a car listing: leaders only, direct followers of a car, and a bounding box of positions, all inclusive.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class CarFilter {
+    public static final CarFilter ALL = new CarFilter(false, null, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final boolean leadersOnly;
+    private final String followedCarVin;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    /**
+     * @return the predicate of the cars of the store matching the filter, or null if none of them can match
+     */
+    IntPredicate bind(CarStore cars) {
+        int followedCar = CarStore.NO_CAR;
+        if (followedCarVin != null) {
+            followedCar = cars.indexOf(followedCarVin);
+            if (followedCar == CarStore.NO_CAR) {
+                return null;
+            }
+        }
+        int leader = followedCar;
+        boolean anyPosition = minX == Integer.MIN_VALUE && minY == Integer.MIN_VALUE
+                && maxX == Integer.MAX_VALUE && maxY == Integer.MAX_VALUE;
+        return car -> (!leadersOnly || cars.leader(car) == CarStore.NO_CAR)
+                && (leader == CarStore.NO_CAR || cars.leader(car) == leader)
+                && (anyPosition || (cars.x(car) >= minX && cars.x(car) <= maxX && cars.y(car) >= minY && cars.y(car) <= maxY));
+    }
+}
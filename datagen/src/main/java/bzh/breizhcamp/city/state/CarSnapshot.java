@@ -0,0 +1,100 @@
+package bzh.breizhcamp.city.state;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.City;
+import bzh.breizhcamp.city.model.Position;
+
+/**
+ * Point in time copy of some cars of a {@link CarStore}, in primitive arrays: taken by the tick engine thread in one go,
+ * then read by any thread without tearing.
+ */
+public class CarSnapshot {
+    private final int size;
+    private final int nextIndex;
+    private final boolean complete;
+    private final int[] positions;
+    private final int[] rates;
+    private final String[] identities;
+
+    /**
+     * @param positions  x, y, last x and last y of each car
+     * @param rates      moving rate and jitter of each car, in milliseconds
+     * @param identities VIN, license plate and VIN of the leader, or null, of each car
+     */
+    public CarSnapshot(int size, int nextIndex, boolean complete, int[] positions, int[] rates, String[] identities) {
+        this.size = size;
+        this.nextIndex = nextIndex;
+        this.complete = complete;
+        this.positions = positions;
+        this.rates = rates;
+        this.identities = identities;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the store index to resume the listing from
+     */
+    public int nextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * @return true if the whole store was scanned
+     */
+    public boolean complete() {
+        return complete;
+    }
+
+    public String vin(int index) {
+        return identities[index * 3];
+    }
+
+    public String licensePlate(int index) {
+        return identities[index * 3 + 1];
+    }
+
+    /**
+     * @return the VIN of the leader of a car, null if it leads itself
+     */
+    public String leaderVin(int index) {
+        return identities[index * 3 + 2];
+    }
+
+    public int x(int index) {
+        return positions[index * 4];
+    }
+
+    public int y(int index) {
+        return positions[index * 4 + 1];
+    }
+
+    public int lastX(int index) {
+        return positions[index * 4 + 2];
+    }
+
+    public int lastY(int index) {
+        return positions[index * 4 + 3];
+    }
+
+    public int movingRateMillis(int index) {
+        return rates[index * 2];
+    }
+
+    public int movingJitterMillis(int index) {
+        return rates[index * 2 + 1];
+    }
+
+    public Car toCar(int index, City city) {
+        return new Car(identities[index * 3],
+                identities[index * 3 + 1],
+                city,
+                identities[index * 3 + 2],
+                new Position(positions[index * 4], positions[index * 4 + 1]),
+                new Position(positions[index * 4 + 2], positions[index * 4 + 3]),
+                rates[index * 2],
+                rates[index * 2 + 1]);
+    }
+}
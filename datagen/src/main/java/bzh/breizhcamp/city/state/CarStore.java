@@ -0,0 +1,410 @@
+package bzh.breizhcamp.city.state;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.City;
+import bzh.breizhcamp.city.model.Position;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Struct of arrays state of the cars of a city: a car is an index in primitive arrays.
+ * Followers of a car are linked through the firstFollower/nextFollower arrays: with the leader array, the convoy of a
+ * car is a tree walked without recursion nor allocation by {@link #nextInConvoy(int, int)}.
+ * Removed cars keep their index until it is released by {@link #releaseConvoy(int)}: their VIN is cleared and they are
+ * skipped by the listings. Released indexes are reused by the next cars added, so the arrays stay as large as the most
+ * cars held at once.
+ * Not thread safe: it is only mutated by the tick engine thread of its city.
+ */
+public class CarStore {
+    public static final int NO_CAR = -1;
+    // Leader of a convoy leader whose indexes were released
+    private static final int RELEASED = -2;
+
+    private int size;
+    // Removed cars, released or not
+    private int removedCount;
+    // Released indexes, the latest last
+    private int[] freeCars = new int[16];
+    private int freeCount;
+    private int[] x;
+    private int[] y;
+    private int[] lastX;
+    private int[] lastY;
+    private int[] leader;
+    private int[] firstFollower;
+    private int[] nextFollower;
+    private int[] movingRateMillis;
+    private int[] movingJitterMillis;
+    private String[] vins;
+    private String[] licensePlates;
+    private final Map<String, Integer> vinIndex = new HashMap<>();
+    private OccupancyGrid occupancy;
+    private PathTracker paths;
+
+    public CarStore() {
+        this(1024);
+    }
+
+    public CarStore(int initialCapacity) {
+        x = new int[initialCapacity];
+        y = new int[initialCapacity];
+        lastX = new int[initialCapacity];
+        lastY = new int[initialCapacity];
+        leader = new int[initialCapacity];
+        firstFollower = new int[initialCapacity];
+        nextFollower = new int[initialCapacity];
+        movingRateMillis = new int[initialCapacity];
+        movingJitterMillis = new int[initialCapacity];
+        vins = new String[initialCapacity];
+        licensePlates = new String[initialCapacity];
+    }
+
+    public int add(String vin, String licensePlate, int positionX, int positionY, int leaderCar,
+                   int rateMillis, int jitterMillis) {
+        int car;
+        if (freeCount > 0) {
+            car = freeCars[--freeCount];
+            removedCount--;
+        } else {
+            if (size == x.length) {
+                grow();
+            }
+            car = size++;
+        }
+        vins[car] = vin;
+        licensePlates[car] = licensePlate;
+        x[car] = positionX;
+        y[car] = positionY;
+        lastX[car] = positionX;
+        lastY[car] = positionY;
+        leader[car] = leaderCar;
+        firstFollower[car] = NO_CAR;
+        nextFollower[car] = NO_CAR;
+        movingRateMillis[car] = rateMillis;
+        movingJitterMillis[car] = jitterMillis;
+        if (leaderCar != NO_CAR) {
+            nextFollower[car] = firstFollower[leaderCar];
+            firstFollower[leaderCar] = car;
+        }
+        vinIndex.put(vin, car);
+        if (occupancy != null) {
+            occupancy.add(car);
+        }
+        if (paths != null) {
+            paths.add(car);
+        }
+        return car;
+    }
+
+    /**
+     * Starts indexing the positions of the cars, kept up to date by {@link #add} and {@link #move}.
+     *
+     * @param citySize maximum coordinate of the positions
+     */
+    public OccupancyGrid indexOccupancy(int citySize) {
+        occupancy = new OccupancyGrid(this, citySize);
+        for (int car = 0; car < size; car++) {
+            occupancy.add(car);
+        }
+        return occupancy;
+    }
+
+    /**
+     * Starts tracking the last sensors of the cars and their path ids, kept up to date by {@link #add} and
+     * {@link #move}. Cars already in the store start with an empty path.
+     *
+     * @param length number of sensors of a path
+     * @param seed   seed of the path ids, the same for all the stores of a city
+     */
+    public PathTracker trackPaths(int length, long seed) {
+        paths = new PathTracker(this, length, seed, x.length);
+        for (int car = 0; car < size; car++) {
+            paths.add(car);
+        }
+        return paths;
+    }
+
+    /**
+     * @return the paths of the cars, null if they are not tracked
+     */
+    public PathTracker paths() {
+        return paths;
+    }
+
+    public int indexOf(String vin) {
+        Integer car = vinIndex.get(vin);
+        return car == null ? NO_CAR : car;
+    }
+
+    /**
+     * @return the number of indexes used, removed and released cars included
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of released indexes, waiting to be reused
+     */
+    public int freeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return the number of cars not removed
+     */
+    public int count() {
+        return size - removedCount;
+    }
+
+    public boolean isRemoved(int car) {
+        return vins[car] == null;
+    }
+
+    /**
+     * Removes a leader and its convoy.
+     *
+     * @return the VINs of the removed cars, the leader first
+     */
+    public String[] removeConvoy(int car) {
+        if (leader[car] != NO_CAR) {
+            throw new IllegalArgumentException("Car " + vins[car] + " is not a leader");
+        }
+        int convoySize = 0;
+        for (int convoyCar = car; convoyCar != NO_CAR; convoyCar = nextInConvoy(car, convoyCar)) {
+            convoySize++;
+        }
+        String[] removedVins = new String[convoySize];
+        int removed = 0;
+        for (int convoyCar = car; convoyCar != NO_CAR; convoyCar = nextInConvoy(car, convoyCar)) {
+            removedVins[removed++] = vins[convoyCar];
+            vinIndex.remove(vins[convoyCar]);
+            if (occupancy != null) {
+                occupancy.remove(convoyCar);
+            }
+        }
+        // Cleared once the walk is over: it needs the follower links
+        for (int convoyCar = car; convoyCar != NO_CAR; ) {
+            int next = nextInConvoy(car, convoyCar);
+            vins[convoyCar] = null;
+            licensePlates[convoyCar] = null;
+            convoyCar = next;
+        }
+        removedCount += convoySize;
+        return removedVins;
+    }
+
+    /**
+     * Hands the indexes of a removed convoy over to the next cars added. Until then they keep naming the removed cars:
+     * a convoy is released once nothing refers to its indexes anymore, such as the tick engine entry of its leader.
+     *
+     * @param car removed convoy leader
+     */
+    public void releaseConvoy(int car) {
+        if (!isRemoved(car) || leader[car] != NO_CAR) {
+            throw new IllegalArgumentException("Car " + car + " is not a removed leader");
+        }
+        // The follower links are kept by the removal
+        for (int convoyCar = car; convoyCar != NO_CAR; convoyCar = nextInConvoy(car, convoyCar)) {
+            if (freeCount == freeCars.length) {
+                freeCars = Arrays.copyOf(freeCars, freeCount * 2);
+            }
+            freeCars[freeCount++] = convoyCar;
+        }
+        // The walk never reads the leader of the convoy leader: marked only now, it prevents a second release
+        leader[car] = RELEASED;
+    }
+
+    public int x(int car) {
+        return x[car];
+    }
+
+    public int y(int car) {
+        return y[car];
+    }
+
+    public int lastX(int car) {
+        return lastX[car];
+    }
+
+    public int lastY(int car) {
+        return lastY[car];
+    }
+
+    public int leader(int car) {
+        return leader[car];
+    }
+
+    public int firstFollower(int car) {
+        return firstFollower[car];
+    }
+
+    public int nextFollower(int car) {
+        return nextFollower[car];
+    }
+
+    /**
+     * Depth first walk of the convoy led by a car: each car comes after its leader.
+     *
+     * @param convoyLeader car leading the convoy
+     * @param car          current car of the walk, the convoy leader to start it
+     * @return the next car of the convoy, or {@link #NO_CAR} at the end of the convoy
+     */
+    public int nextInConvoy(int convoyLeader, int car) {
+        if (firstFollower[car] != NO_CAR) {
+            return firstFollower[car];
+        }
+        // Go back up to the first leader with followers left to walk
+        while (car != convoyLeader) {
+            if (nextFollower[car] != NO_CAR) {
+                return nextFollower[car];
+            }
+            car = leader[car];
+        }
+        return NO_CAR;
+    }
+
+    public int movingRateMillis(int car) {
+        return movingRateMillis[car];
+    }
+
+    public int movingJitterMillis(int car) {
+        return movingJitterMillis[car];
+    }
+
+    public String vin(int car) {
+        return vins[car];
+    }
+
+    public String licensePlate(int car) {
+        return licensePlates[car];
+    }
+
+    /**
+     * Moves a car: its current position becomes its last position.
+     */
+    public void move(int car, int nextX, int nextY) {
+        lastX[car] = x[car];
+        lastY[car] = y[car];
+        x[car] = nextX;
+        y[car] = nextY;
+        if (occupancy != null) {
+            occupancy.moved(car);
+        }
+        if (paths != null) {
+            paths.moved(car);
+        }
+    }
+
+    public void setLastPosition(int car, int positionX, int positionY) {
+        lastX[car] = positionX;
+        lastY[car] = positionY;
+    }
+
+    public Position position(int car) {
+        return new Position(x[car], y[car]);
+    }
+
+    public Car toCar(int car, City city) {
+        return new Car(vins[car],
+                licensePlates[car],
+                city,
+                leader[car] == NO_CAR ? null : vins[leader[car]],
+                new Position(x[car], y[car]),
+                new Position(lastX[car], lastY[car]),
+                movingRateMillis[car],
+                movingJitterMillis[car]);
+    }
+
+    /**
+     * Copies the cars matching a filter, in index order.
+     *
+     * @param from  index of the first car to scan
+     * @param limit maximum number of cars to copy
+     */
+    public CarSnapshot snapshot(CarFilter filter, int from, int limit) {
+        IntPredicate predicate = filter.bind(this);
+        if (predicate == null) {
+            return new CarSnapshot(0, size, true, new int[0], new int[0], new String[0]);
+        }
+        // Filtered listings usually match few cars: arrays start small
+        int capacity = Math.min(Math.min(limit, Math.max(0, size - from)), 1024);
+        int[] positions = new int[capacity * 4];
+        int[] rates = new int[capacity * 2];
+        String[] identities = new String[capacity * 3];
+        int count = 0;
+        int car = from;
+        for (; car < size && count < limit; car++) {
+            if (vins[car] != null && predicate.test(car)) {
+                if (count == capacity) {
+                    capacity = (int) Math.min(limit, Math.min(size - from, capacity * 2L));
+                    positions = Arrays.copyOf(positions, capacity * 4);
+                    rates = Arrays.copyOf(rates, capacity * 2);
+                    identities = Arrays.copyOf(identities, capacity * 3);
+                }
+                copy(car, count++, positions, rates, identities);
+            }
+        }
+        return new CarSnapshot(count, car, car == size, positions, rates, identities);
+    }
+
+    /**
+     * Copies all the cars, convoy by convoy with each car after its leader, as a restore adds them: with reused indexes,
+     * a follower can come before its leader in index order.
+     */
+    public CarSnapshot snapshotConvoys() {
+        int[] carIndexes = new int[count()];
+        int count = 0;
+        for (int car = 0; car < size; car++) {
+            if (!isRemoved(car) && leader[car] == NO_CAR) {
+                for (int convoyCar = car; convoyCar != NO_CAR; convoyCar = nextInConvoy(car, convoyCar)) {
+                    carIndexes[count++] = convoyCar;
+                }
+            }
+        }
+        return snapshot(carIndexes, count);
+    }
+
+    /**
+     * Copies some cars, in the given order.
+     */
+    public CarSnapshot snapshot(int[] carIndexes, int count) {
+        int[] positions = new int[count * 4];
+        int[] rates = new int[count * 2];
+        String[] identities = new String[count * 3];
+        for (int i = 0; i < count; i++) {
+            copy(carIndexes[i], i, positions, rates, identities);
+        }
+        return new CarSnapshot(count, size, true, positions, rates, identities);
+    }
+
+    private void copy(int car, int index, int[] positions, int[] rates, String[] identities) {
+        positions[index * 4] = x[car];
+        positions[index * 4 + 1] = y[car];
+        positions[index * 4 + 2] = lastX[car];
+        positions[index * 4 + 3] = lastY[car];
+        rates[index * 2] = movingRateMillis[car];
+        rates[index * 2 + 1] = movingJitterMillis[car];
+        identities[index * 3] = vins[car];
+        identities[index * 3 + 1] = licensePlates[car];
+        identities[index * 3 + 2] = leader[car] == NO_CAR ? null : vins[leader[car]];
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, x.length * 2);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        lastX = Arrays.copyOf(lastX, capacity);
+        lastY = Arrays.copyOf(lastY, capacity);
+        leader = Arrays.copyOf(leader, capacity);
+        firstFollower = Arrays.copyOf(firstFollower, capacity);
+        nextFollower = Arrays.copyOf(nextFollower, capacity);
+        movingRateMillis = Arrays.copyOf(movingRateMillis, capacity);
+        movingJitterMillis = Arrays.copyOf(movingJitterMillis, capacity);
+        vins = Arrays.copyOf(vins, capacity);
+        licensePlates = Arrays.copyOf(licensePlates, capacity);
+    }
+}
@@ -0,0 +1,157 @@
+package bzh.breizhcamp.city.state;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index of the cars of a {@link CarStore}: the city is cut in square tiles of cells, each one listing the cars
+ * on its cells. Tiles are only allocated once a car drives on them, so large cities with few cars stay cheap.
+ * Queries cost the number of tiles they cover plus the number of cars on them, not the number of cars of the store.
+ * Not thread safe: it is updated by its store, on the tick engine thread, at each change of a car position.
+ */
+public class OccupancyGrid {
+    // 16x16 cells per tile: a few cars per tile for a million cars in a 10000x10000 city
+    private static final int TILE_BITS = 4;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+
+    private final CarStore cars;
+    private final int citySize;
+    private final int tilesPerSide;
+    private final Tile[] tiles;
+    // Tile of each car, and its index in the cars of the tile
+    private int[] carTiles = new int[1024];
+    private int[] carSlots = new int[1024];
+
+    private static final class Tile {
+        private int[] cars = new int[4];
+        private int count;
+    }
+
+    OccupancyGrid(CarStore cars, int citySize) {
+        this.cars = cars;
+        this.citySize = citySize;
+        // Positions go from 0 to the city size, both included
+        this.tilesPerSide = (citySize >> TILE_BITS) + 1;
+        this.tiles = new Tile[tilesPerSide * tilesPerSide];
+    }
+
+    /**
+     * Indexes a car newly added to the store, at its current position.
+     */
+    void add(int car) {
+        if (car >= carTiles.length) {
+            int capacity = Math.max(car + 1, carTiles.length * 2);
+            carTiles = Arrays.copyOf(carTiles, capacity);
+            carSlots = Arrays.copyOf(carSlots, capacity);
+        }
+        insert(car, tileIndex(cars.x(car), cars.y(car)));
+    }
+
+    /**
+     * Updates the index after a move of a car: only changes of tile cost anything.
+     */
+    void moved(int car) {
+        int tile = tileIndex(cars.x(car), cars.y(car));
+        if (tile != carTiles[car]) {
+            remove(car);
+            insert(car, tile);
+        }
+    }
+
+    /**
+     * Lists the cars in a bounding box, all inclusive, tile by tile.
+     *
+     * @param limit maximum number of cars to list
+     */
+    public int[] carsIn(int minX, int minY, int maxX, int maxY, int limit) {
+        int[] result = new int[Math.min(limit, 16)];
+        minX = Math.max(0, minX);
+        minY = Math.max(0, minY);
+        maxX = Math.min(citySize, maxX);
+        maxY = Math.min(citySize, maxY);
+        int count = 0;
+        for (int tileY = minY >> TILE_BITS; tileY <= maxY >> TILE_BITS; tileY++) {
+            for (int tileX = minX >> TILE_BITS; tileX <= maxX >> TILE_BITS; tileX++) {
+                Tile tile = tiles[tileY * tilesPerSide + tileX];
+                if (tile == null) {
+                    continue;
+                }
+                for (int i = 0; i < tile.count; i++) {
+                    int car = tile.cars[i];
+                    int x = cars.x(car);
+                    int y = cars.y(car);
+                    if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                        if (count == limit) {
+                            return result;
+                        }
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, (int) Math.min(limit, count * 2L));
+                        }
+                        result[count++] = car;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Counts the cars by blocks of cells.
+     *
+     * @param cellsPerPixel side of the square blocks of cells
+     * @param counts        row major counts of the blocks, added to
+     */
+    public void heatmap(int cellsPerPixel, int[] counts) {
+        int width = citySize / cellsPerPixel + 1;
+        for (int tileY = 0; tileY < tilesPerSide; tileY++) {
+            for (int tileX = 0; tileX < tilesPerSide; tileX++) {
+                Tile tile = tiles[tileY * tilesPerSide + tileX];
+                if (tile == null || tile.count == 0) {
+                    continue;
+                }
+                int pixelX = (tileX << TILE_BITS) / cellsPerPixel;
+                int pixelY = (tileY << TILE_BITS) / cellsPerPixel;
+                int lastCell = TILE_SIZE - 1;
+                if (pixelX == Math.min(citySize, (tileX << TILE_BITS) + lastCell) / cellsPerPixel
+                        && pixelY == Math.min(citySize, (tileY << TILE_BITS) + lastCell) / cellsPerPixel) {
+                    // The whole tile is in one block
+                    counts[pixelY * width + pixelX] += tile.count;
+                } else {
+                    for (int i = 0; i < tile.count; i++) {
+                        int car = tile.cars[i];
+                        counts[cars.y(car) / cellsPerPixel * width + cars.x(car) / cellsPerPixel]++;
+                    }
+                }
+            }
+        }
+    }
+
+    private int tileIndex(int x, int y) {
+        return (y >> TILE_BITS) * tilesPerSide + (x >> TILE_BITS);
+    }
+
+    private void insert(int car, int tileIndex) {
+        Tile tile = tiles[tileIndex];
+        if (tile == null) {
+            tile = new Tile();
+            tiles[tileIndex] = tile;
+        }
+        if (tile.count == tile.cars.length) {
+            tile.cars = Arrays.copyOf(tile.cars, tile.count * 2);
+        }
+        carTiles[car] = tileIndex;
+        carSlots[car] = tile.count;
+        tile.cars[tile.count++] = car;
+    }
+
+    /**
+     * Removes a car from the index, at its current position.
+     */
+    void remove(int car) {
+        Tile tile = tiles[carTiles[car]];
+        // The last car of the tile takes the slot of the removed one
+        int slot = carSlots[car];
+        int lastCar = tile.cars[--tile.count];
+        tile.cars[slot] = lastCar;
+        carSlots[lastCar] = slot;
+    }
+}
@@ -0,0 +1,133 @@
+package bzh.breizhcamp.city.state;
+
+import java.util.Arrays;
+
+/**
+ * Last sensors seen by each car of a {@link CarStore}, in a ring of cells per car, and a rolling hash of them: the id
+ * of the path of the car, the same for all the cars going through the same sensors in the same order.
+ * The hash is a polynomial one, updated in constant time at each move by adding the new cell and removing the oldest.
+ * Not thread safe: it is updated by its store, on the tick engine thread, at each move of a car.
+ */
+public class PathTracker {
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+
+    private final CarStore cars;
+    private final int length;
+    // Seed of the cell hashes: paths through the same coordinates in different cities get different ids
+    private final long seed;
+    // BASE^length: weight of the oldest cell, removed from the hash when the ring is full
+    private final long oldestWeight;
+    // Cells of each car, x and y packed in a long, in a ring of length cells starting at index car * length
+    private long[] cells;
+    private long[] hashes;
+    private int[] heads;
+    private int[] counts;
+
+    PathTracker(CarStore cars, int length, long seed, int initialCapacity) {
+        this.cars = cars;
+        this.length = length;
+        this.seed = seed;
+        long weight = 1;
+        for (int i = 0; i < length; i++) {
+            weight *= BASE;
+        }
+        this.oldestWeight = weight;
+        this.cells = new long[initialCapacity * length];
+        this.hashes = new long[initialCapacity];
+        this.heads = new int[initialCapacity];
+        this.counts = new int[initialCapacity];
+    }
+
+    /**
+     * Starts an empty path for a car newly added to the store.
+     */
+    void add(int car) {
+        if (car >= hashes.length) {
+            int capacity = Math.max(car + 1, hashes.length * 2);
+            cells = Arrays.copyOf(cells, capacity * length);
+            hashes = Arrays.copyOf(hashes, capacity);
+            heads = Arrays.copyOf(heads, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        hashes[car] = 0;
+        heads[car] = 0;
+        counts[car] = 0;
+    }
+
+    /**
+     * Appends the current position of a car to its path, dropping the oldest one once the ring is full.
+     */
+    void moved(int car) {
+        long cell = cell(cars.x(car), cars.y(car));
+        int slot = car * length + heads[car];
+        long hash = hashes[car] * BASE + cellHash(cell);
+        if (counts[car] == length) {
+            hash -= cellHash(cells[slot]) * oldestWeight;
+        } else {
+            counts[car]++;
+        }
+        cells[slot] = cell;
+        hashes[car] = hash;
+        heads[car] = heads[car] + 1 == length ? 0 : heads[car] + 1;
+    }
+
+    /**
+     * @return the number of sensors of a full path
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return true once the car went through enough sensors to have a path id
+     */
+    public boolean complete(int car) {
+        return counts[car] == length;
+    }
+
+    /**
+     * @return the id of the path of a car, only meaningful once {@link #complete(int) complete}
+     */
+    public long pathId(int car) {
+        return mix(hashes[car]);
+    }
+
+    /**
+     * @param index index in the path of the car, from 0 for the oldest sensor
+     */
+    public int x(int car, int index) {
+        return (int) (cells[slot(car, index)] >>> 32);
+    }
+
+    /**
+     * @param index index in the path of the car, from 0 for the oldest sensor
+     */
+    public int y(int car, int index) {
+        return (int) cells[slot(car, index)];
+    }
+
+    private int slot(int car, int index) {
+        // The head is the slot of the oldest cell once the ring is full, and the next free one before
+        int start = counts[car] == length ? heads[car] : 0;
+        int offset = start + index;
+        return car * length + (offset >= length ? offset - length : offset);
+    }
+
+    private long cellHash(long cell) {
+        return mix(cell ^ seed);
+    }
+
+    private static long cell(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    // Finalizer of MurmurHash3 64 bits: spreads close coordinates over the whole range
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,63 @@
+package bzh.breizhcamp.city.state;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * UTF-8 encoded sensor ids of a city, {@code cityId-x-y}, indexed by position.
+ * Keys are built the first time a cell is visited and shared by all the shards of the city.
+ * Cities with more cells than the table limit build their keys on each call.
+ */
+public class SensorKeys {
+    private final byte[] prefix;
+    private final int width;
+    private final AtomicReferenceArray<byte[]> keys;
+
+    public SensorKeys(String cityId, int citySize, int maxCells) {
+        this.prefix = (cityId + "-").getBytes(StandardCharsets.UTF_8);
+        this.width = citySize + 1;
+        long cells = (long) width * width;
+        this.keys = cells <= maxCells ? new AtomicReferenceArray<>((int) cells) : null;
+    }
+
+    public byte[] key(int x, int y) {
+        if (keys == null) {
+            return build(x, y);
+        }
+        int cell = x * width + y;
+        byte[] key = keys.get(cell);
+        if (key == null) {
+            key = build(x, y);
+            keys.lazySet(cell, key);
+        }
+        return key;
+    }
+
+    private byte[] build(int x, int y) {
+        byte[] key = new byte[prefix.length + digits(x) + 1 + digits(y)];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        int position = writeDigits(key, prefix.length, x);
+        key[position] = '-';
+        writeDigits(key, position + 1, y);
+        return key;
+    }
+
+    private static int writeDigits(byte[] bytes, int offset, int value) {
+        int end = offset + digits(value);
+        int position = end;
+        do {
+            bytes[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        return end;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
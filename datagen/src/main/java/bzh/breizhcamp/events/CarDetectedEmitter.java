@@ -0,0 +1,407 @@
+package bzh.breizhcamp.events;
+
+import bzh.breizhcamp.city.state.CarStore;
+import bzh.breizhcamp.city.state.PathTracker;
+import bzh.breizhcamp.city.state.SensorKeys;
+import bzh.breizhcamp.kafka.CarDetectedEventEncoder;
+import bzh.breizhcamp.kafka.SensorDetectionsEventEncoder;
+import bzh.breizhcamp.metrics.LatencyHistogram;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Emits the detection events of the cars of one city shard, within the budget of the {@link EmissionGovernor}: one event
+ * per detection, or one event per sensor and window listing its detections when they are batched by sensor.
+ * Not thread safe: only used by the tick engine thread of its shard, except for the send callback.
+ */
+@Slf4j
+public class CarDetectedEmitter {
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final CarStore cars;
+    private final SensorKeys sensorKeys;
+    private final EmissionGovernor governor;
+    private final String cityName;
+    private final boolean pathSensorIds;
+    // Free list of the send callbacks, recycled to time each send without allocating
+    private final AtomicReference<Send> freeSends = new AtomicReference<>();
+
+    private CarDetectedEventEncoder encoder;
+    private SensorDetectionsEventEncoder batchEncoder;
+    private EventSink sink;
+    private int permits;
+
+    // Path of the car being sent, reused from one event to the next
+    private final byte[] pathId = new byte[16];
+    private byte[][] pathKeys = new byte[0][];
+
+    // Cars waiting for their latest position to be sent, in arrival order
+    private final BitSet pendingCars = new BitSet();
+    private int[] pendingQueue = new int[256];
+    private int pendingCount;
+
+    // Detections of the current window when they are batched by sensor, and the sensors of the window already sent
+    private SensorBatcher batcher;
+    private int sentSensors;
+
+    @Getter
+    private volatile long sent;
+    @Getter
+    private volatile long dropped;
+    @Getter
+    private volatile long coalesced;
+    @Getter
+    private volatile long acknowledged;
+    @Getter
+    private volatile long batchedDetections;
+    private final AtomicLong errors = new AtomicLong();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    // Events sent per second, measured over windows of at least one second
+    @Getter
+    private volatile double eventsPerSecond;
+    private long rateWindowStart;
+    private long rateWindowSent;
+
+    public CarDetectedEmitter(CarStore cars, SensorKeys sensorKeys, EmissionGovernor governor, String cityName) {
+        this(cars, sensorKeys, governor, cityName, true);
+    }
+
+    /**
+     * @param pathSensorIds whether the events list the sensor ids of the path of the car along with its path id, when
+     *                      the paths of the store are tracked
+     */
+    public CarDetectedEmitter(CarStore cars, SensorKeys sensorKeys, EmissionGovernor governor, String cityName,
+                              boolean pathSensorIds) {
+        this.cars = cars;
+        this.sensorKeys = sensorKeys;
+        this.governor = governor;
+        this.cityName = cityName;
+        this.pathSensorIds = pathSensorIds;
+    }
+
+    /**
+     * Batches the detections by sensor: each sensor sends one event listing the cars it detected during each window.
+     * Must be called before {@link #initSink}.
+     *
+     * @param windowMillis length of the windows of event time
+     */
+    public void batchBySensor(long windowMillis) {
+        batcher = new SensorBatcher(windowMillis);
+    }
+
+    public boolean batchesBySensor() {
+        return batcher != null;
+    }
+
+    /**
+     * @param schemaId id of the schema of the events: SensorDetectionsEvent when they are batched by sensor,
+     *                 CarDetectedEvent otherwise
+     */
+    public void initSink(EventSink sink, int schemaId) {
+        if (batcher != null) {
+            this.batchEncoder = new SensorDetectionsEventEncoder(schemaId, cityName);
+        } else {
+            this.encoder = new CarDetectedEventEncoder(schemaId, cityName);
+        }
+        this.sink = sink;
+    }
+
+    public void emit(int car, long timestamp) {
+        if (sink == null) {
+            return;
+        }
+        if (batcher != null) {
+            batch(car, timestamp);
+        } else if (pendingCars.get(car)) {
+            // Already waiting: its latest position will be sent
+            coalesced++;
+        } else if (tryAcquire()) {
+            send(car, timestamp);
+        } else if (governor.getOverloadPolicy() == OverloadPolicy.DROP) {
+            dropped++;
+        } else {
+            enqueue(car);
+        }
+    }
+
+    /**
+     * Sends the pending events as long as the budget allows it. When the detections are batched by sensor, sends the
+     * events of the window once the timestamp is past its end.
+     *
+     * @return true if no event is pending anymore
+     */
+    public boolean flushPending(long timestamp) {
+        if (batcher != null) {
+            return batcher.isEmpty() || timestamp < batcher.windowEnd() || flushBatches();
+        }
+        int flushed = 0;
+        while (flushed < pendingCount) {
+            int car = pendingQueue[flushed];
+            // A car removed since its last move has nothing to send anymore, nor a forgotten one
+            if (pendingCars.get(car) && !cars.isRemoved(car)) {
+                if (!tryAcquire()) {
+                    break;
+                }
+                send(car, timestamp);
+            }
+            flushed++;
+            pendingCars.clear(car);
+        }
+        pendingCount -= flushed;
+        System.arraycopy(pendingQueue, flushed, pendingQueue, 0, pendingCount);
+        return pendingCount == 0;
+    }
+
+    /**
+     * Sends the window batched by sensor before its end, when the city closes, as long as the budget allows it: the
+     * detections left are counted as dropped.
+     */
+    public void flushWindow() {
+        if (batcher == null || batcher.isEmpty() || flushBatches()) {
+            return;
+        }
+        for (; sentSensors < batcher.sensorCount(); sentSensors++) {
+            dropped += batcher.detectionCount(sentSensors);
+        }
+        batcher.clear();
+        sentSensors = 0;
+    }
+
+    /**
+     * Drops the pending event of a removed car before its index is reused: the queue skips it, or sends the car added
+     * at the index if it got one meanwhile.
+     */
+    public void forget(int car) {
+        pendingCars.clear(car);
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public int pendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the durations between the sends of the events and their acknowledgements
+     */
+    public LatencyHistogram sendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * Updates the events rate: called at each tick.
+     */
+    public void sampleRate(long timestamp) {
+        long elapsed = timestamp - rateWindowStart;
+        if (elapsed >= 1000) {
+            long currentSent = sent;
+            if (rateWindowStart > 0) {
+                eventsPerSecond = (currentSent - rateWindowSent) * 1000.0 / elapsed;
+            }
+            rateWindowStart = timestamp;
+            rateWindowSent = currentSent;
+        }
+    }
+
+    private boolean tryAcquire() {
+        if (permits == 0) {
+            permits = governor.acquireUpTo(governor.permitsBatch());
+            if (permits == 0) {
+                return false;
+            }
+        }
+        if (!governor.tryStartSend()) {
+            return false;
+        }
+        permits--;
+        return true;
+    }
+
+    private void send(int car, long timestamp) {
+        byte[] key = sensorKeys.key(cars.x(car), cars.y(car));
+        PathTracker paths = cars.paths();
+        int length;
+        if (paths != null && paths.complete(car)) {
+            writeHex(paths.pathId(car));
+            int pathLength = pathSensorIds ? pathKeys(paths, car) : 0;
+            length = encoder.encode(key, cars.vin(car), cars.licensePlate(car), cars.x(car), cars.y(car), timestamp,
+                    pathId, pathSensorIds ? pathKeys : null, pathLength);
+        } else {
+            length = encoder.encode(key, cars.vin(car), cars.licensePlate(car), cars.x(car), cars.y(car), timestamp);
+        }
+        Send callback = acquireSend();
+        try {
+            sent++;
+            callback.startNanos = System.nanoTime();
+            sink.send(key, encoder.buffer(), length, timestamp, callback);
+        } catch (Exception exception) {
+            sent--;
+            releaseSend(callback);
+            governor.onSendCompleted();
+            errors.incrementAndGet();
+            log.error("Exception while sending event:", exception);
+        }
+    }
+
+    private void batch(int car, long timestamp) {
+        // The window is normally sent before the tick moving the cars past its end
+        if (!batcher.isEmpty() && timestamp >= batcher.windowEnd() && !flushBatches()) {
+            dropped++;
+            return;
+        }
+        batcher.add(car, cars.vin(car), cars.x(car), cars.y(car), timestamp);
+    }
+
+    /**
+     * Sends one event per sensor of the window, as long as the budget allows it. With the DROP policy, the events of
+     * the sensors over the budget are dropped.
+     *
+     * @return true once the window is over and the next one can start
+     */
+    private boolean flushBatches() {
+        for (; sentSensors < batcher.sensorCount(); sentSensors++) {
+            int liveCount = 0;
+            for (int detection = batcher.firstDetection(sentSensors); detection >= 0; detection = batcher.nextDetection(detection)) {
+                if (isLive(detection)) {
+                    liveCount++;
+                }
+            }
+            // A sensor whose cars were all removed since has nothing to send anymore
+            if (liveCount == 0) {
+                continue;
+            }
+            if (!tryAcquire()) {
+                if (governor.getOverloadPolicy() != OverloadPolicy.DROP) {
+                    return false;
+                }
+                for (; sentSensors < batcher.sensorCount(); sentSensors++) {
+                    dropped += batcher.detectionCount(sentSensors);
+                }
+                break;
+            }
+            sendBatch(sentSensors, liveCount);
+        }
+        batcher.clear();
+        sentSensors = 0;
+        return true;
+    }
+
+    private void sendBatch(int sensor, int liveCount) {
+        int x = batcher.sensorX(sensor);
+        int y = batcher.sensorY(sensor);
+        byte[] key = sensorKeys.key(x, y);
+        batchEncoder.start(key, x, y, batcher.windowStart(), batcher.windowEnd(), liveCount);
+        long timestamp = batcher.windowStart();
+        for (int detection = batcher.firstDetection(sensor); detection >= 0; detection = batcher.nextDetection(detection)) {
+            int car = batcher.car(detection);
+            if (isLive(detection)) {
+                timestamp = batcher.timestamp(detection);
+                batchEncoder.add(cars.vin(car), cars.licensePlate(car), timestamp);
+            }
+        }
+        int length = batchEncoder.end();
+        Send callback = acquireSend();
+        try {
+            sent++;
+            batchedDetections += liveCount;
+            callback.startNanos = System.nanoTime();
+            // The event is timestamped with its last detection
+            sink.send(key, batchEncoder.buffer(), length, timestamp, callback);
+        } catch (Exception exception) {
+            sent--;
+            batchedDetections -= liveCount;
+            releaseSend(callback);
+            governor.onSendCompleted();
+            errors.incrementAndGet();
+            log.error("Exception while sending event:", exception);
+        }
+    }
+
+    /**
+     * @return false if the car of a detection was removed since, even if its index now names another car
+     */
+    private boolean isLive(int detection) {
+        // The store hands back the VIN instance of the detection as long as the car is still there
+        return cars.vin(batcher.car(detection)) == batcher.vin(detection);
+    }
+
+    private void writeHex(long value) {
+        for (int i = pathId.length - 1; i >= 0; i--) {
+            pathId[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    private int pathKeys(PathTracker paths, int car) {
+        int pathLength = paths.length();
+        if (pathKeys.length < pathLength) {
+            pathKeys = new byte[pathLength][];
+        }
+        for (int i = 0; i < pathLength; i++) {
+            pathKeys[i] = sensorKeys.key(paths.x(car, i), paths.y(car, i));
+        }
+        return pathLength;
+    }
+
+    private void enqueue(int car) {
+        if (pendingCount == pendingQueue.length) {
+            pendingQueue = Arrays.copyOf(pendingQueue, pendingCount * 2);
+        }
+        pendingQueue[pendingCount++] = car;
+        pendingCars.set(car);
+    }
+
+    private Send acquireSend() {
+        // Only the engine thread takes callbacks from the list: the head cannot be taken and given back concurrently
+        Send send = freeSends.get();
+        while (send != null && !freeSends.compareAndSet(send, send.next)) {
+            send = freeSends.get();
+        }
+        return send != null ? send : new Send();
+    }
+
+    private void releaseSend(Send send) {
+        Send head;
+        do {
+            head = freeSends.get();
+            send.next = head;
+        } while (!freeSends.compareAndSet(head, send));
+    }
+
+    private void onSendCompletion(RecordMetadata metadata, Exception exception, long latencyNanos) {
+        governor.onSendCompleted();
+        if (exception != null) {
+            errors.incrementAndGet();
+            log.error("Exception while sending event:", exception);
+        } else {
+            sendLatency.recordNanos(latencyNanos);
+            acknowledged++;
+            if (metadata != null && log.isDebugEnabled()) {
+                log.debug("[{}] Car detected event sent to {}-{}@{}", cityName, metadata.topic(), metadata.partition(), metadata.offset());
+            }
+        }
+    }
+
+    private final class Send implements Callback {
+        private long startNanos;
+        private Send next;
+
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            long latencyNanos = System.nanoTime() - startNanos;
+            releaseSend(this);
+            onSendCompletion(metadata, exception, latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package bzh.breizhcamp.events;
+
+import bzh.breizhcamp.kafka.Configuration;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static bzh.breizhcamp.kafka.Configuration.*;
+
+/**
+ * Throughput governor of the detection events of a city: a target rate for the city, a global target rate and a
+ * global budget of records sent but not acknowledged yet.
+ */
+@Getter
+public class EmissionGovernor {
+    // Rate permits are taken from the limiters by batches of up to 10 ms of the rate, to limit contention between shards
+    // without letting one shard hold the permits of the others at low rates
+    private static final int MAX_PERMITS_BATCH = 64;
+    private static final double PERMITS_BATCH_SECONDS = 0.01;
+    private static final RateLimiter GLOBAL_RATE_LIMITER;
+    private static final long MAX_IN_FLIGHT;
+    private static final AtomicLong IN_FLIGHT = new AtomicLong();
+
+    static {
+        Properties configuration = Configuration.get();
+        GLOBAL_RATE_LIMITER = new RateLimiter(Double.parseDouble((String) configuration.get(EMISSION_RATE_GLOBAL_PROPERTY)));
+        MAX_IN_FLIGHT = Long.parseLong((String) configuration.get(EMISSION_MAX_IN_FLIGHT_PROPERTY));
+    }
+
+    private final RateLimiter cityRateLimiter;
+    @Setter
+    private volatile OverloadPolicy overloadPolicy;
+
+    public EmissionGovernor(double cityEventsPerSecond, OverloadPolicy overloadPolicy) {
+        this.cityRateLimiter = new RateLimiter(cityEventsPerSecond);
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    public static EmissionGovernor fromConfiguration(Properties configuration) {
+        return new EmissionGovernor(Double.parseDouble((String) configuration.get(EMISSION_RATE_CITY_PROPERTY)),
+                OverloadPolicy.valueOf(((String) configuration.get(EMISSION_OVERLOAD_POLICY_PROPERTY)).toUpperCase()));
+    }
+
+    /**
+     * @return the number of rate permits granted by both the city and the global rate limiters
+     */
+    public int acquireUpTo(int count) {
+        int granted = cityRateLimiter.acquireUpTo(count);
+        if (granted == 0) {
+            return 0;
+        }
+        int globallyGranted = GLOBAL_RATE_LIMITER.acquireUpTo(granted);
+        // The city permits refused globally are left to the other shards of the city
+        cityRateLimiter.release(granted - globallyGranted);
+        return globallyGranted;
+    }
+
+    /**
+     * @return the number of rate permits to take at once: 10 ms of the lowest of the city and the global rates
+     */
+    public int permitsBatch() {
+        double rate = lowestRate(cityRateLimiter.getRate(), GLOBAL_RATE_LIMITER.getRate());
+        return rate <= 0 ? MAX_PERMITS_BATCH : (int) Math.max(1, Math.min(MAX_PERMITS_BATCH, rate * PERMITS_BATCH_SECONDS));
+    }
+
+    public boolean tryStartSend() {
+        while (true) {
+            long inFlight = IN_FLIGHT.get();
+            if (inFlight >= MAX_IN_FLIGHT) {
+                return false;
+            }
+            if (IN_FLIGHT.compareAndSet(inFlight, inFlight + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void onSendCompleted() {
+        IN_FLIGHT.decrementAndGet();
+    }
+
+    public static long inFlight() {
+        return IN_FLIGHT.get();
+    }
+
+    // A rate of 0 means no limit
+    private static double lowestRate(double rate, double otherRate) {
+        return rate <= 0 ? otherRate : otherRate <= 0 ? rate : Math.min(rate, otherRate);
+    }
+}
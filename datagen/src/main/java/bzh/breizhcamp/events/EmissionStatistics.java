@@ -0,0 +1,33 @@
+package bzh.breizhcamp.events;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@AllArgsConstructor
+@Getter
+@ToString
+public class EmissionStatistics {
+    private final long sent;
+    private final double eventsPerSecond;
+    private final long acknowledged;
+    private final long errors;
+    private final long dropped;
+    private final long coalesced;
+    // Detections sent within the events of their sensor, when they are batched by sensor
+    private final long batchedDetections;
+    private final int pending;
+    private final long globalInFlight;
+
+    public static EmissionStatistics of(CarDetectedEmitter emitter) {
+        return new EmissionStatistics(emitter.getSent(),
+                emitter.getEventsPerSecond(),
+                emitter.getAcknowledged(),
+                emitter.getErrors(),
+                emitter.getDropped(),
+                emitter.getCoalesced(),
+                emitter.getBatchedDetections(),
+                emitter.pendingCount(),
+                EmissionGovernor.inFlight());
+    }
+}
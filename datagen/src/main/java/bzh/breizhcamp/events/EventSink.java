@@ -0,0 +1,66 @@
+package bzh.breizhcamp.events;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.events.file.FileEventSink;
+import bzh.breizhcamp.kafka.CarDetectedEventEncoder;
+import bzh.breizhcamp.kafka.KafkaEventSink;
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.Callback;
+
+import java.io.Closeable;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+import static bzh.breizhcamp.kafka.Configuration.SINK_TYPE_PROPERTY;
+
+/**
+ * Destination of the encoded detection events of a city. Sinks are shared by the shards of the city and must be thread
+ * safe.
+ */
+public interface EventSink extends Closeable {
+
+    enum Type {
+        KAFKA,
+        NOOP,
+        FILE
+    }
+
+    /**
+     * Sends an encoded event. The value buffer may be reused by the caller as soon as this method returns.
+     *
+     * @param value    event in the Confluent wire format
+     * @param callback invoked once the event is acknowledged or failed, with a null metadata for non Kafka sinks
+     */
+    void send(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback);
+
+    /**
+     * @return the used share of the send buffer, between 0 and 1, 0 for sinks without buffer
+     */
+    default double bufferUsage() {
+        return 0;
+    }
+
+    @Override
+    void close();
+
+    static Type type(Properties configuration) {
+        return Type.valueOf(((String) configuration.get(SINK_TYPE_PROPERTY)).toUpperCase());
+    }
+
+    /**
+     * @param cityName name of the city, in the events generated by the sink itself
+     * @param name     name of the sink, naming its files
+     * @param schema   schema of the events
+     * @param schemaId id of the event schema, for the events generated by the sink itself
+     */
+    static EventSink create(Properties configuration, String topic, String cityName, String name, Schema schema, int schemaId)
+            throws ExecutionException, InterruptedException {
+        return switch (type(configuration)) {
+            // Heartbeats are detection events: there are none among the detections batched by sensor
+            case KAFKA -> KafkaEventSink.create(configuration, topic,
+                    CarDetectedEvent.getClassSchema().equals(schema) ? new CarDetectedEventEncoder(schemaId, cityName) : null);
+            case NOOP -> new NoopEventSink();
+            case FILE -> FileEventSink.create(configuration, topic, name, schema);
+        };
+    }
+}
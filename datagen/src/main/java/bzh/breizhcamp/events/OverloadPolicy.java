@@ -0,0 +1,13 @@
+package bzh.breizhcamp.events;
+
+/**
+ * What happens to a detection event when the emission budget is exhausted.
+ */
+public enum OverloadPolicy {
+    // The event is lost
+    DROP,
+    // Only the latest position of the car is sent once the budget is available again
+    COALESCE,
+    // As COALESCE, and the simulation clock of the shard is held back until the pending events are sent
+    SLOW
+}
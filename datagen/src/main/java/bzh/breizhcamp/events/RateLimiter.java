@@ -0,0 +1,61 @@
+package bzh.breizhcamp.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket: permits are handed out at a fixed rate, with up to one second of unused permits kept as
+ * burst. A rate of 0 means no limit.
+ */
+public class RateLimiter {
+    private static final long ONE_SECOND_NANOS = 1_000_000_000L;
+
+    private final AtomicLong nextPermitNanos = new AtomicLong(System.nanoTime());
+    private volatile double eventsPerSecond;
+    private volatile long intervalNanos;
+
+    public RateLimiter(double eventsPerSecond) {
+        setRate(eventsPerSecond);
+    }
+
+    public void setRate(double eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+        this.intervalNanos = eventsPerSecond > 0 ? Math.max(1, (long) (ONE_SECOND_NANOS / eventsPerSecond)) : 0;
+    }
+
+    public double getRate() {
+        return eventsPerSecond;
+    }
+
+    /**
+     * @return the number of permits granted, between 0 and the requested count
+     */
+    public int acquireUpTo(int count) {
+        long interval = intervalNanos;
+        if (interval == 0) {
+            return count;
+        }
+        while (true) {
+            long now = System.nanoTime();
+            long next = nextPermitNanos.get();
+            long base = Math.max(next, now - ONE_SECOND_NANOS);
+            long available = (now - base) / interval;
+            if (available <= 0) {
+                return 0;
+            }
+            int granted = (int) Math.min(count, available);
+            if (nextPermitNanos.compareAndSet(next, base + granted * interval)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * Gives back permits acquired but not used.
+     */
+    public void release(int count) {
+        long interval = intervalNanos;
+        if (interval > 0 && count > 0) {
+            nextPermitNanos.addAndGet(-count * interval);
+        }
+    }
+}
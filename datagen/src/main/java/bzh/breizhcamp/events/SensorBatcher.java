@@ -0,0 +1,190 @@
+package bzh.breizhcamp.events;
+
+import java.util.Arrays;
+
+/**
+ * Detections of the cars of a shard grouped by sensor over a window of event time. Windows are aligned on multiples of
+ * their length, so the windows of all the shards and instances match. Sensors and detections are kept in arrays reused
+ * from one window to the next.
+ * Not thread safe: only used by the tick engine thread of its shard.
+ */
+class SensorBatcher {
+    private static final int NO_DETECTION = -1;
+
+    private final long windowMillis;
+    private long windowStart;
+
+    // Open addressing table of the sensors of the window, from their cell to their index + 1, 0 for a free slot
+    private long[] tableCells = new long[64];
+    private int[] tableSensors = new int[64];
+
+    // Sensors of the window, in order of their first detection
+    private int sensorCount;
+    private int[] sensorX = new int[32];
+    private int[] sensorY = new int[32];
+    private int[] firstDetections = new int[32];
+    private int[] lastDetections = new int[32];
+    private int[] detectionCounts = new int[32];
+
+    // Detections of the window, linked sensor by sensor in detection order
+    private int detectionCount;
+    private int[] detectionCars = new int[256];
+    // VINs of the detected cars, telling whether their index was reused by another car since
+    private String[] detectionVins = new String[256];
+    private long[] detectionTimestamps = new long[256];
+    private int[] nextDetections = new int[256];
+
+    SensorBatcher(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Adds a detection: the window starts with its first detection.
+     */
+    void add(int car, String vin, int x, int y, long timestamp) {
+        if (detectionCount == 0) {
+            windowStart = Math.floorDiv(timestamp, windowMillis) * windowMillis;
+        }
+        int sensor = sensor(x, y);
+        if (detectionCount == detectionCars.length) {
+            detectionCars = Arrays.copyOf(detectionCars, detectionCount * 2);
+            detectionVins = Arrays.copyOf(detectionVins, detectionCount * 2);
+            detectionTimestamps = Arrays.copyOf(detectionTimestamps, detectionCount * 2);
+            nextDetections = Arrays.copyOf(nextDetections, detectionCount * 2);
+        }
+        int detection = detectionCount++;
+        detectionCars[detection] = car;
+        detectionVins[detection] = vin;
+        detectionTimestamps[detection] = timestamp;
+        nextDetections[detection] = NO_DETECTION;
+        if (detectionCounts[sensor] == 0) {
+            firstDetections[sensor] = detection;
+        } else {
+            nextDetections[lastDetections[sensor]] = detection;
+        }
+        lastDetections[sensor] = detection;
+        detectionCounts[sensor]++;
+    }
+
+    boolean isEmpty() {
+        return detectionCount == 0;
+    }
+
+    long windowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return the end of the window, excluded
+     */
+    long windowEnd() {
+        return windowStart + windowMillis;
+    }
+
+    int sensorCount() {
+        return sensorCount;
+    }
+
+    int sensorX(int sensor) {
+        return sensorX[sensor];
+    }
+
+    int sensorY(int sensor) {
+        return sensorY[sensor];
+    }
+
+    int detectionCount() {
+        return detectionCount;
+    }
+
+    int detectionCount(int sensor) {
+        return detectionCounts[sensor];
+    }
+
+    /**
+     * @return the first detection of a sensor, iterated with {@link #nextDetection(int)}
+     */
+    int firstDetection(int sensor) {
+        return firstDetections[sensor];
+    }
+
+    /**
+     * @return the next detection of the same sensor, or -1 after the last one
+     */
+    int nextDetection(int detection) {
+        return nextDetections[detection];
+    }
+
+    int car(int detection) {
+        return detectionCars[detection];
+    }
+
+    String vin(int detection) {
+        return detectionVins[detection];
+    }
+
+    long timestamp(int detection) {
+        return detectionTimestamps[detection];
+    }
+
+    /**
+     * Forgets the detections of the window, to start the next one.
+     */
+    void clear() {
+        Arrays.fill(tableSensors, 0);
+        Arrays.fill(detectionCounts, 0, sensorCount, 0);
+        Arrays.fill(detectionVins, 0, detectionCount, null);
+        sensorCount = 0;
+        detectionCount = 0;
+    }
+
+    private int sensor(int x, int y) {
+        long cell = ((long) x << 32) | (y & 0xFFFFFFFFL);
+        int mask = tableCells.length - 1;
+        int slot = hash(cell) & mask;
+        while (tableSensors[slot] != 0) {
+            if (tableCells[slot] == cell) {
+                return tableSensors[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int sensor = sensorCount++;
+        if (sensor == sensorX.length) {
+            int length = sensor * 2;
+            sensorX = Arrays.copyOf(sensorX, length);
+            sensorY = Arrays.copyOf(sensorY, length);
+            firstDetections = Arrays.copyOf(firstDetections, length);
+            lastDetections = Arrays.copyOf(lastDetections, length);
+            detectionCounts = Arrays.copyOf(detectionCounts, length);
+        }
+        sensorX[sensor] = x;
+        sensorY[sensor] = y;
+        tableCells[slot] = cell;
+        tableSensors[slot] = sensor + 1;
+        // The table is kept at most half full
+        if (sensorCount * 2 > tableCells.length) {
+            resizeTable();
+        }
+        return sensor;
+    }
+
+    private void resizeTable() {
+        int length = tableCells.length * 2;
+        tableCells = new long[length];
+        tableSensors = new int[length];
+        for (int sensor = 0; sensor < sensorCount; sensor++) {
+            long cell = ((long) sensorX[sensor] << 32) | (sensorY[sensor] & 0xFFFFFFFFL);
+            int slot = hash(cell) & (length - 1);
+            while (tableSensors[slot] != 0) {
+                slot = (slot + 1) & (length - 1);
+            }
+            tableCells[slot] = cell;
+            tableSensors[slot] = sensor + 1;
+        }
+    }
+
+    private static int hash(long cell) {
+        long h = cell * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,94 @@
+package bzh.breizhcamp.events.file;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.events.EventSink;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.kafka.clients.producer.Callback;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static bzh.breizhcamp.kafka.Configuration.*;
+
+/**
+ * Appends the events to segment files of the configured directory, to be replayed later by {@link SegmentReplayer}.
+ * Each sending thread gets its own segments, named after the city and the thread, so sends never contend. Events are
+ * acknowledged once written to a segment, which for Avro segments is when their block is.
+ */
+@Slf4j
+public class FileEventSink implements EventSink {
+    private final Path directory;
+    private final String name;
+    private final SegmentFormat format;
+    private final long segmentBytes;
+    private final List<SegmentWriter> writers = new ArrayList<>();
+    private final ThreadLocal<SegmentWriter> writer = ThreadLocal.withInitial(this::newWriter);
+
+    public FileEventSink(Path directory, String name, SegmentFormat format, long segmentBytes) {
+        this.directory = directory;
+        this.name = name;
+        this.format = format;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * @param schema schema of the events, which must be CarDetectedEvent for Avro segments
+     */
+    public static FileEventSink create(Properties configuration, String topic, String name, Schema schema) {
+        SegmentFormat format = SegmentFormat.valueOf(((String) configuration.get(SINK_FILE_FORMAT_PROPERTY)).toUpperCase());
+        if (format == SegmentFormat.AVRO && !CarDetectedEvent.getClassSchema().equals(schema)) {
+            throw new IllegalArgumentException("Avro segments only hold " + CarDetectedEvent.class.getSimpleName()
+                    + " records, not " + schema.getName());
+        }
+        Path directory = Path.of((String) configuration.get(SINK_FILE_DIRECTORY_PROPERTY), topic);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Writing events of {} to {}", name, directory);
+        return new FileEventSink(directory, name, format,
+                Long.parseLong((String) configuration.get(SINK_FILE_SEGMENT_BYTES_PROPERTY)));
+    }
+
+    @Override
+    public void send(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback) {
+        try {
+            writer.get().append(key, value, valueLength, timestamp, callback);
+        } catch (IOException e) {
+            callback.onCompletion(null, e);
+        }
+    }
+
+    private SegmentWriter newWriter() {
+        String prefix = (name + "-" + Thread.currentThread().getName()).replaceAll("[^A-Za-z0-9_.-]", "_");
+        SegmentWriter segmentWriter = new SegmentWriter(directory, prefix, format, segmentBytes);
+        synchronized (writers) {
+            writers.add(segmentWriter);
+        }
+        return segmentWriter;
+    }
+
+    /**
+     * Closes the segments: must be called once the sending threads are stopped.
+     */
+    @Override
+    public void close() {
+        synchronized (writers) {
+            for (SegmentWriter segmentWriter : writers) {
+                try {
+                    segmentWriter.close();
+                } catch (IOException e) {
+                    log.error("Exception while closing segment:", e);
+                }
+            }
+            writers.clear();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package bzh.breizhcamp.events.file;
+
+import java.nio.file.Path;
+
+public enum SegmentFormat {
+    // Length prefixed key, Confluent wire format value and timestamp records
+    CONFLUENT(".cwf"),
+    // Avro object container file of CarDetectedEvent records
+    AVRO(".avro");
+
+    private final String extension;
+
+    SegmentFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public static SegmentFormat of(Path file) {
+        for (SegmentFormat format : values()) {
+            if (file.getFileName().toString().endsWith(format.extension)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown segment format: " + file);
+    }
+}
@@ -0,0 +1,130 @@
+package bzh.breizhcamp.events.file;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.kafka.CarDetectedEventEncoder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads back the events of a segment file written by {@link SegmentWriter}, with their value in the Confluent wire
+ * format of the given schema id.
+ */
+public class SegmentReader implements Closeable {
+    private final int schemaId;
+
+    // Confluent wire format segments
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    // Avro container segments
+    private DataFileReader<CarDetectedEvent> avroReader;
+    private final SpecificDatumWriter<CarDetectedEvent> avroWriter = new SpecificDatumWriter<>(CarDetectedEvent.class);
+    private final ByteArrayOutputStream avroOutput = new ByteArrayOutputStream();
+    private BinaryEncoder avroEncoder;
+    private CarDetectedEvent event;
+
+    private byte[] key;
+    private byte[] value;
+    private long timestamp;
+
+    public SegmentReader(Path file, int schemaId) throws IOException {
+        this.schemaId = schemaId;
+        if (SegmentFormat.of(file) == SegmentFormat.CONFLUENT) {
+            channel = FileChannel.open(file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[SegmentWriter.CONFLUENT_MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, SegmentWriter.CONFLUENT_MAGIC)) {
+                throw new IOException("Not a segment file: " + file);
+            }
+        } else {
+            avroReader = new DataFileReader<>(file.toFile(), new SpecificDatumReader<>(CarDetectedEvent.class));
+        }
+    }
+
+    /**
+     * Moves to the next event.
+     *
+     * @return false at the end of the segment
+     */
+    public boolean next() throws IOException {
+        return buffer != null ? nextConfluent() : nextAvro();
+    }
+
+    private boolean nextConfluent() {
+        // Segments not closed properly end with zeros: keys are never empty
+        if (buffer.remaining() < 4) {
+            return false;
+        }
+        int keyLength = buffer.getInt();
+        if (keyLength == 0) {
+            return false;
+        }
+        key = new byte[keyLength];
+        buffer.get(key);
+        value = new byte[buffer.getInt()];
+        buffer.get(value);
+        timestamp = buffer.getLong();
+        writeHeader(value);
+        return true;
+    }
+
+    private boolean nextAvro() throws IOException {
+        if (!avroReader.hasNext()) {
+            return false;
+        }
+        event = avroReader.next(event);
+        avroOutput.reset();
+        avroOutput.write(new byte[CarDetectedEventEncoder.HEADER_LENGTH]);
+        avroEncoder = EncoderFactory.get().directBinaryEncoder(avroOutput, avroEncoder);
+        avroWriter.write(event, avroEncoder);
+        avroEncoder.flush();
+        key = event.getSensorId().toString().getBytes(StandardCharsets.UTF_8);
+        value = avroOutput.toByteArray();
+        timestamp = event.getTimestamp().toEpochMilli();
+        writeHeader(value);
+        return true;
+    }
+
+    private void writeHeader(byte[] bytes) {
+        bytes[0] = 0x0;
+        bytes[1] = (byte) (schemaId >>> 24);
+        bytes[2] = (byte) (schemaId >>> 16);
+        bytes[3] = (byte) (schemaId >>> 8);
+        bytes[4] = (byte) schemaId;
+    }
+
+    public byte[] key() {
+        return key;
+    }
+
+    public byte[] value() {
+        return value;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (avroReader != null) {
+            avroReader.close();
+        }
+    }
+}
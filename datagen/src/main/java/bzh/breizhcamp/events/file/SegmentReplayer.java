@@ -0,0 +1,73 @@
+package bzh.breizhcamp.events.file;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.avro.SensorDetectionsEvent;
+import bzh.breizhcamp.kafka.Configuration;
+import bzh.breizhcamp.kafka.KafkaEventSink;
+import bzh.breizhcamp.kafka.SchemaRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static bzh.breizhcamp.kafka.Configuration.KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY;
+import static bzh.breizhcamp.kafka.Configuration.KAFKA_SENSOR_DETECTIONS_TOPIC_NAME_PROPERTY;
+
+/**
+ * Replays the segment files of a directory into Kafka as fast as the producer allows.
+ * Usage: {@code SegmentReplayer <directory> [topic]}, the topic defaults to the configured car detected topic.
+ */
+@Slf4j
+public class SegmentReplayer {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SegmentReplayer <directory> [topic]");
+            System.exit(1);
+        }
+        Properties configuration = Configuration.get();
+        Path directory = Path.of(args[0]);
+        String topic = args.length > 1 ? args[1] : (String) configuration.get(KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY);
+
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(path -> path.toString().endsWith(SegmentFormat.CONFLUENT.extension())
+                            || path.toString().endsWith(SegmentFormat.AVRO.extension()))
+                    .sorted()
+                    .toList();
+        }
+
+        // Segments of the topic of the detections batched by sensor hold SensorDetectionsEvent records
+        Schema schema = topic.equals(configuration.get(KAFKA_SENSOR_DETECTIONS_TOPIC_NAME_PROPERTY))
+                ? SensorDetectionsEvent.getClassSchema()
+                : CarDetectedEvent.getClassSchema();
+        int schemaId = SchemaRegistry.valueSchemaId(topic, schema);
+        AtomicLong errors = new AtomicLong();
+        long count = 0;
+        long start = System.nanoTime();
+        try (KafkaEventSink sink = KafkaEventSink.create(configuration, topic, null)) {
+            for (Path file : files) {
+                log.info("Replaying {} to {}...", file, topic);
+                try (SegmentReader reader = new SegmentReader(file, schemaId)) {
+                    while (reader.next()) {
+                        sink.send(reader.key(), reader.value(), reader.value().length, reader.timestamp(), (metadata, exception) -> {
+                            if (exception != null && errors.getAndIncrement() == 0) {
+                                log.error("Exception while sending event to Kafka:", exception);
+                            }
+                        });
+                        count++;
+                    }
+                }
+            }
+            sink.flush();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info("{} events replayed from {} files in {}s ({} events/s), {} errors",
+                count, files.size(), String.format("%.1f", seconds), Math.round(count / seconds), errors.get());
+    }
+}
@@ -0,0 +1,228 @@
+package bzh.breizhcamp.events.file;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.kafka.CarDetectedEventEncoder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Callback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Appends events to rolling memory mapped segment files. Each segment is mapped with its full size and truncated to
+ * its written length when it is rolled or closed. Segments are numbered after the ones already in the directory with the
+ * same prefix, left by a previous writer of a city deleted and created again, or restored.
+ * Events are acknowledged once they are in the mapped segment. Avro events are first gathered into a block, written
+ * when it is full, a second old, or the writer closed: an idle writer keeps its last block until its next event.
+ * Not thread safe: the {@link FileEventSink} gives one writer to each sending thread.
+ */
+@Slf4j
+class SegmentWriter implements Closeable {
+    static final byte[] CONFLUENT_MAGIC = {'B', 'Z', 'H', '1'};
+    private static final byte[] AVRO_MAGIC = {'O', 'b', 'j', 1};
+    private static final int AVRO_SYNC_LENGTH = 16;
+    private static final int AVRO_BLOCK_BYTES = 64 * 1024;
+    private static final long AVRO_BLOCK_MILLIS = 1000;
+
+    private final Path directory;
+    private final String prefix;
+    private final SegmentFormat format;
+    private final long segmentBytes;
+
+    // Found in the directory when the first segment is opened
+    private int segmentIndex = -1;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    // Avro container data block being built
+    private final byte[] sync = new byte[AVRO_SYNC_LENGTH];
+    private byte[] block;
+    private int blockLength;
+    private int blockCount;
+    private long blockStartMillis;
+    // Acknowledged when the block is written
+    private Callback[] blockCallbacks = new Callback[256];
+
+    SegmentWriter(Path directory, String prefix, SegmentFormat format, long segmentBytes) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.format = format;
+        this.segmentBytes = segmentBytes;
+        // Blocks are written whole: several of them must fit in a segment
+        this.block = new byte[(int) Math.min(AVRO_BLOCK_BYTES, segmentBytes / 4)];
+        ThreadLocalRandom.current().nextBytes(sync);
+    }
+
+    /**
+     * Appends an event, acknowledged through its callback once it is written to the segment.
+     *
+     * @throws IOException if the event could not be appended: its callback is not called
+     */
+    void append(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback) throws IOException {
+        if (format == SegmentFormat.CONFLUENT) {
+            ensureRemaining(4 + key.length + 4 + valueLength + 8);
+            buffer.putInt(key.length).put(key).putInt(valueLength).put(value, 0, valueLength).putLong(timestamp);
+            callback.onCompletion(null, null);
+        } else {
+            // The container holds the schema: only the Avro payload is kept
+            int payloadLength = valueLength - CarDetectedEventEncoder.HEADER_LENGTH;
+            long now = System.currentTimeMillis();
+            if (blockLength + payloadLength > block.length || (blockCount > 0 && now - blockStartMillis >= AVRO_BLOCK_MILLIS)) {
+                flushBlock();
+                if (payloadLength > block.length) {
+                    block = new byte[payloadLength];
+                }
+            }
+            if (blockCount == 0) {
+                blockStartMillis = now;
+            }
+            if (blockCount == blockCallbacks.length) {
+                blockCallbacks = Arrays.copyOf(blockCallbacks, blockCount * 2);
+            }
+            System.arraycopy(value, CarDetectedEventEncoder.HEADER_LENGTH, block, blockLength, payloadLength);
+            blockLength += payloadLength;
+            blockCallbacks[blockCount++] = callback;
+        }
+    }
+
+    /**
+     * Writes the block to the segment, then acknowledges its events, or fails them all.
+     */
+    private void flushBlock() throws IOException {
+        if (blockCount == 0) {
+            return;
+        }
+        try {
+            ensureRemaining(10 + 10 + blockLength + AVRO_SYNC_LENGTH);
+            putLong(blockCount);
+            putLong(blockLength);
+            buffer.put(block, 0, blockLength).put(sync);
+        } catch (IOException e) {
+            completeBlock(e);
+            throw e;
+        }
+        completeBlock(null);
+    }
+
+    private void completeBlock(Exception exception) {
+        int count = blockCount;
+        blockCount = 0;
+        blockLength = 0;
+        for (int i = 0; i < count; i++) {
+            Callback callback = blockCallbacks[i];
+            blockCallbacks[i] = null;
+            callback.onCompletion(null, exception);
+        }
+    }
+
+    private void ensureRemaining(int length) throws IOException {
+        if (buffer == null || buffer.remaining() < length) {
+            closeSegment();
+            openSegment();
+            if (buffer.remaining() < length) {
+                throw new IOException("Record of " + length + " bytes does not fit in a segment of " + segmentBytes + " bytes");
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (segmentIndex < 0) {
+            segmentIndex = nextSegmentIndex();
+        }
+        Path file;
+        while (true) {
+            file = directory.resolve(String.format("%s-%06d%s", prefix, segmentIndex++, format.extension()));
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Segment file {} already exists", file);
+            }
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        if (format == SegmentFormat.CONFLUENT) {
+            buffer.put(CONFLUENT_MAGIC);
+        } else {
+            writeAvroHeader();
+        }
+        log.info("New segment file {}", file);
+    }
+
+    /**
+     * @return the index after the highest one of the segments of the prefix in the directory, 0 if there are none
+     */
+    private int nextSegmentIndex() throws IOException {
+        String start = prefix + "-";
+        String end = format.extension();
+        int next = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(start) && name.endsWith(end)) {
+                    String index = name.substring(start.length(), name.length() - end.length());
+                    // Other prefixes may start with this one, followed by more than digits
+                    if (!index.isEmpty() && index.length() < 10 && index.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                        next = Math.max(next, Integer.parseInt(index) + 1);
+                    }
+                }
+            }
+        }
+        return next;
+    }
+
+    private void writeAvroHeader() {
+        buffer.put(AVRO_MAGIC);
+        // File metadata: a map of 2 entries
+        putLong(2);
+        putBytes("avro.schema".getBytes(StandardCharsets.UTF_8));
+        putBytes(CarDetectedEvent.getClassSchema().toString().getBytes(StandardCharsets.UTF_8));
+        putBytes("avro.codec".getBytes(StandardCharsets.UTF_8));
+        putBytes("null".getBytes(StandardCharsets.UTF_8));
+        putLong(0);
+        buffer.put(sync);
+    }
+
+    private void closeSegment() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        int length = buffer.position();
+        buffer.force();
+        channel.truncate(length);
+        channel.close();
+        buffer = null;
+        channel = null;
+    }
+
+    private void putBytes(byte[] bytes) {
+        putLong(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putLong(long value) {
+        long n = (value << 1) ^ (value >> 63);
+        while ((n & ~0x7FL) != 0) {
+            buffer.put((byte) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        buffer.put((byte) n);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (format == SegmentFormat.AVRO) {
+            flushBlock();
+        }
+        closeSegment();
+    }
+}
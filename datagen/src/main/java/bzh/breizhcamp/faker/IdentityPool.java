@@ -0,0 +1,91 @@
+package bzh.breizhcamp.faker;
+
+import bzh.breizhcamp.kafka.Configuration;
+import lombok.extern.slf4j.Slf4j;
+import net.datafaker.Faker;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static bzh.breizhcamp.kafka.Configuration.IDENTITY_POOL_SIZE_PROPERTY;
+import static bzh.breizhcamp.kafka.Configuration.IDENTITY_POOL_THREADS_PROPERTY;
+
+/**
+ * VINs and license plates generated ahead of time by background threads, each one with its own Faker, so that spawning
+ * cars does not wait for Faker. Callers only wait when they take more identities than the pool holds.
+ */
+@Slf4j
+public class IdentityPool {
+    private static final int BATCH_SIZE = 1024;
+    private static final IdentityPool INSTANCE = new IdentityPool(Configuration.get());
+
+    private final BlockingQueue<Batch> batches;
+
+    // Batch being consumed, guarded by this
+    private Batch current;
+    private int currentIndex;
+
+    private record Batch(String[] vins, String[] licensePlates) {
+    }
+
+    IdentityPool(Properties configuration) {
+        int size = Integer.parseInt((String) configuration.get(IDENTITY_POOL_SIZE_PROPERTY));
+        int threads = Integer.parseInt((String) configuration.get(IDENTITY_POOL_THREADS_PROPERTY));
+        if (threads <= 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        batches = new ArrayBlockingQueue<>(Math.max(1, size / BATCH_SIZE));
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::generate, "identity-pool-" + i);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+        log.info("Identity pool of {} identities filled by {} threads", size, threads);
+    }
+
+    public static IdentityPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Fills the arrays with unused identities, waiting for them if the pool runs dry.
+     */
+    public synchronized void take(String[] vins, String[] licensePlates, int offset, int count) {
+        int taken = 0;
+        while (taken < count) {
+            if (current == null || currentIndex == BATCH_SIZE) {
+                try {
+                    current = batches.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for identities", e);
+                }
+                currentIndex = 0;
+            }
+            int length = Math.min(count - taken, BATCH_SIZE - currentIndex);
+            System.arraycopy(current.vins(), currentIndex, vins, offset + taken, length);
+            System.arraycopy(current.licensePlates(), currentIndex, licensePlates, offset + taken, length);
+            currentIndex += length;
+            taken += length;
+        }
+    }
+
+    private void generate() {
+        Faker faker = new Faker();
+        try {
+            while (true) {
+                String[] vins = new String[BATCH_SIZE];
+                String[] licensePlates = new String[BATCH_SIZE];
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    vins[i] = faker.vehicle().vin();
+                    licensePlates[i] = faker.vehicle().licensePlate();
+                }
+                batches.put(new Batch(vins, licensePlates));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
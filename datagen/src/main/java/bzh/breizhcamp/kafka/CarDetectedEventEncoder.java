@@ -0,0 +1,83 @@
+package bzh.breizhcamp.kafka;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes {@link bzh.breizhcamp.avro.CarDetectedEvent} records in the Confluent wire format.
+ * Fields are written in the order of car-detection-event.avsc.
+ * Not thread safe: there is one encoder per city shard.
+ */
+public class CarDetectedEventEncoder extends WireFormatEncoder {
+    private final byte[] city;
+
+    public CarDetectedEventEncoder(int schemaId, String city) {
+        super(schemaId);
+        this.city = city.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes an event without path into the internal buffer.
+     *
+     * @param sensorId UTF-8 bytes of the sensor id
+     * @return the length of the encoded event, available through {@link #buffer()}
+     */
+    public int encode(byte[] sensorId, String vin, String licensePlate, int x, int y, long timestamp) {
+        return encode(sensorId, vin, licensePlate, x, y, timestamp, null, null, 0);
+    }
+
+    /**
+     * Encodes an event into the internal buffer.
+     *
+     * @param sensorId      UTF-8 bytes of the sensor id
+     * @param pathId        UTF-8 bytes of the path id, null for none
+     * @param pathSensorIds UTF-8 bytes of the sensor ids of the path, oldest first, null for none
+     * @param pathLength    number of sensor ids of the path
+     * @return the length of the encoded event, available through {@link #buffer()}
+     */
+    public int encode(byte[] sensorId, String vin, String licensePlate, int x, int y, long timestamp,
+                      byte[] pathId, byte[][] pathSensorIds, int pathLength) {
+        int maxLength = HEADER_LENGTH
+                + 5 + sensorId.length
+                + 5 + vin.length() * 3
+                + 5 + licensePlate.length() * 3
+                + 5 + city.length
+                + 5 + 5 + 10
+                + 1 + (pathId != null ? 5 + pathId.length : 0)
+                + 1 + (pathSensorIds != null ? 5 + 1 : 0);
+        if (pathSensorIds != null) {
+            for (int i = 0; i < pathLength; i++) {
+                maxLength += 5 + pathSensorIds[i].length;
+            }
+        }
+        writeHeader(maxLength);
+
+        writeBytes(sensorId);
+        writeString(vin);
+        writeString(licensePlate);
+        writeBytes(city);
+        writeLong(x);
+        writeLong(y);
+        writeLong(timestamp);
+        // Optional fields are unions with null first: the branch index, then the value if not null
+        if (pathId == null) {
+            writeLong(0);
+        } else {
+            writeLong(1);
+            writeBytes(pathId);
+        }
+        if (pathSensorIds == null) {
+            writeLong(0);
+        } else {
+            writeLong(1);
+            // Arrays are written as one block of items, then an empty block
+            if (pathLength > 0) {
+                writeLong(pathLength);
+                for (int i = 0; i < pathLength; i++) {
+                    writeBytes(pathSensorIds[i]);
+                }
+            }
+            writeLong(0);
+        }
+        return position;
+    }
+}
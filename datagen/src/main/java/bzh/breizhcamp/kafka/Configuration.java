@@ -6,8 +6,17 @@ import com.typesafe.config.ConfigFactory;
 import java.util.Properties;
 
 public class Configuration {
+    // Parsed once: the configuration does not change while the application runs
+    private static final Properties PROPERTIES = load();
 
+    /**
+     * @return a copy of the configuration, free to be modified by the caller
+     */
     public static Properties get() {
+        return (Properties) PROPERTIES.clone();
+    }
+
+    private static Properties load() {
         Config conf = ConfigFactory.load();
         Properties properties = new Properties();
         conf.entrySet().forEach(e -> properties.put(e.getKey(), e.getValue().unwrapped().toString()));
@@ -15,8 +24,44 @@ public class Configuration {
         return properties;
     }
 
+    public static final String SERVER_PORT_PROPERTY = "server.port";
+    public static final String INSTANCE_INDEX_PROPERTY = "instance.index";
+    public static final String INSTANCE_COUNT_PROPERTY = "instance.count";
     public static String MOVING_RATE_CONFIG_PROPERTY = "car.moving.fixed.rate.seconds";
+    public static final String MOVING_RATE_MILLIS_CONFIG_PROPERTY = "car.moving.fixed.rate.millis";
+    public static final String MOVING_JITTER_MILLIS_CONFIG_PROPERTY = "car.moving.jitter.millis";
+    public static final String TICK_ENGINE_TICK_MILLIS_PROPERTY = "tick.engine.tick.millis";
+    public static final String TICK_ENGINE_WHEEL_SIZE_PROPERTY = "tick.engine.wheel.size";
+    public static final String CITY_SHARDS_PROPERTY = "city.shards";
+    public static final String CLOCK_MODE_PROPERTY = "clock.mode";
+    public static final String CLOCK_BACKFILL_START_PROPERTY = "clock.backfill.start";
+    public static final String CLOCK_BACKFILL_END_PROPERTY = "clock.backfill.end";
+    public static final String EMISSION_RATE_GLOBAL_PROPERTY = "emission.rate.global";
+    public static final String EMISSION_RATE_CITY_PROPERTY = "emission.rate.city";
+    public static final String EMISSION_MAX_IN_FLIGHT_PROPERTY = "emission.max.in.flight";
+    public static final String EMISSION_OVERLOAD_POLICY_PROPERTY = "emission.overload.policy";
     public static String KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY = "kafka.car.detected.topic.name";
     public static final String KAFKA_CAR_DETECTED_TOPIC_PARTITIONS_PROPERTY = "kafka.car.detected.topic.partitions";
+    public static final String KAFKA_SENSOR_DETECTIONS_TOPIC_NAME_PROPERTY = "kafka.sensor.detections.topic.name";
+    public static final String KAFKA_PRODUCER_POOL_SIZE_PROPERTY = "kafka.producer.pool.size";
+    public static final String HEARTBEAT_INTERVAL_MILLIS_PROPERTY = "heartbeat.interval.millis";
+    public static final String SCHEMA_REGISTRY_URL_PROPERTY = "schema.registry.url";
+    public static final String SENSOR_KEYS_TABLE_MAX_CELLS_PROPERTY = "sensor.keys.table.max.cells";
+    public static final String SENSOR_BATCH_WINDOW_MILLIS_PROPERTY = "sensor.batch.window.millis";
+    public static final String PATH_LENGTH_PROPERTY = "path.length";
+    public static final String PATH_SENSOR_IDS_ENABLED_PROPERTY = "path.sensor.ids.enabled";
+    public static final String IDENTITY_POOL_SIZE_PROPERTY = "identity.pool.size";
+    public static final String IDENTITY_POOL_THREADS_PROPERTY = "identity.pool.threads";
+    public static final String SPAWN_CHUNK_SIZE_PROPERTY = "spawn.chunk.size";
+    public static final String SNAPSHOT_ENABLED_PROPERTY = "snapshot.enabled";
+    public static final String SNAPSHOT_DIRECTORY_PROPERTY = "snapshot.directory";
+    public static final String SNAPSHOT_INTERVAL_SECONDS_PROPERTY = "snapshot.interval.seconds";
+    public static final String SCENARIO_FILE_PROPERTY = "scenario.file";
+    public static final String SCENARIO_UPDATE_MILLIS_PROPERTY = "scenario.update.millis";
+    public static final String FEED_INTERVAL_MILLIS_PROPERTY = "feed.interval.millis";
+    public static final String SINK_TYPE_PROPERTY = "sink.type";
+    public static final String SINK_FILE_DIRECTORY_PROPERTY = "sink.file.directory";
+    public static final String SINK_FILE_FORMAT_PROPERTY = "sink.file.format";
+    public static final String SINK_FILE_SEGMENT_BYTES_PROPERTY = "sink.file.segment.bytes";
 
 }
@@ -0,0 +1,153 @@
+package bzh.breizhcamp.kafka;
+
+import bzh.breizhcamp.events.EventSink;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class KafkaEventSink implements EventSink {
+    // Shared by the sinks of all the cities: sending heartbeats is cheap
+    private static final ScheduledExecutorService HEARTBEAT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "heartbeats");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final byte[] HEARTBEAT_SENSOR_ID = "heartbeat".getBytes(StandardCharsets.UTF_8);
+
+    private final Producer<byte[], byte[]> producer;
+    private final String topic;
+    // Shared producers outlive the sinks using them
+    private final boolean ownsProducer;
+
+    // Heartbeats: latest event timestamps of the topic, shared with the other sinks sending to it, null when disabled
+    private PartitionActivity activity;
+    private CarDetectedEventEncoder heartbeatEncoder;
+    private long heartbeatIntervalMillis;
+    private ScheduledFuture<?> heartbeats;
+
+    /**
+     * Sink owning its producer, closed with it.
+     */
+    public KafkaEventSink(Producer<byte[], byte[]> producer, String topic) {
+        this(producer, topic, true);
+    }
+
+    private KafkaEventSink(Producer<byte[], byte[]> producer, String topic, boolean ownsProducer) {
+        this.producer = producer;
+        this.topic = topic;
+        this.ownsProducer = ownsProducer;
+    }
+
+    /**
+     * Creates the topic if needed, and the sink, sending through a producer of the shared pool.
+     *
+     * @param heartbeatEncoder encoder of the heartbeats when they are enabled by the configuration, null for none
+     */
+    public static KafkaEventSink create(Properties configuration, String topic, CarDetectedEventEncoder heartbeatEncoder)
+            throws ExecutionException, InterruptedException {
+        ProducerPool pool = ProducerPool.get();
+        pool.ensureTopic(topic);
+        KafkaEventSink sink = new KafkaEventSink(pool.nextProducer(), topic, false);
+        long heartbeatIntervalMillis = Long.parseLong((String) configuration.get(Configuration.HEARTBEAT_INTERVAL_MILLIS_PROPERTY));
+        if (heartbeatEncoder != null && heartbeatIntervalMillis > 0) {
+            sink.startHeartbeats(heartbeatEncoder, heartbeatIntervalMillis, pool.activity(topic, sink.producer));
+        }
+        return sink;
+    }
+
+    /**
+     * Periodically sends a heartbeat event to each partition which got no event for an interval of event time, so the
+     * watermarks of the consumers of idle partitions keep up with the others. Heartbeats are detection events with the
+     * sensor id {@code heartbeat}, no VIN, no license plate and -1 coordinates, timestamped with the latest event
+     * timestamp of the topic.
+     * Idle partitions are found with {@link SensorPartitioner}, which must be the partitioner of the producer.
+     */
+    public void startHeartbeats(CarDetectedEventEncoder encoder, long intervalMillis) {
+        startHeartbeats(encoder, intervalMillis, new PartitionActivity(producer.partitionsFor(topic).size()));
+    }
+
+    /**
+     * Sends heartbeats to the partitions idle for all the sinks sharing an activity: each idle partition gets one
+     * heartbeat per interval, from any of them.
+     */
+    public void startHeartbeats(CarDetectedEventEncoder encoder, long intervalMillis, PartitionActivity activity) {
+        this.activity = activity;
+        heartbeatEncoder = encoder;
+        heartbeatIntervalMillis = intervalMillis;
+        heartbeats = HEARTBEAT_EXECUTOR.scheduleAtFixedRate(this::sendHeartbeats, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void send(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback) {
+        producer.send(new ProducerRecord<>(topic, null, timestamp, key, Arrays.copyOf(value, valueLength)), callback);
+        if (activity != null) {
+            activity.record(SensorPartitioner.partition(key, activity.partitions()), timestamp);
+        }
+    }
+
+    void sendHeartbeats() {
+        long timestamp = activity.latestTimestamp();
+        if (timestamp == 0) {
+            return;
+        }
+        for (int partition = 0; partition < activity.partitions(); partition++) {
+            if (activity.claimIdle(partition, timestamp, heartbeatIntervalMillis)) {
+                int length = heartbeatEncoder.encode(HEARTBEAT_SENSOR_ID, "", "", -1, -1, timestamp);
+                producer.send(new ProducerRecord<>(topic, partition, timestamp, HEARTBEAT_SENSOR_ID,
+                        Arrays.copyOf(heartbeatEncoder.buffer(), length)), (metadata, exception) -> {
+                    if (exception != null) {
+                        log.warn("Exception while sending heartbeat:", exception);
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public double bufferUsage() {
+        Metric available = null;
+        Metric total = null;
+        for (Map.Entry<MetricName, ? extends Metric> metric : producer.metrics().entrySet()) {
+            if ("producer-metrics".equals(metric.getKey().group())) {
+                if ("buffer-available-bytes".equals(metric.getKey().name())) {
+                    available = metric.getValue();
+                } else if ("buffer-total-bytes".equals(metric.getKey().name())) {
+                    total = metric.getValue();
+                }
+            }
+        }
+        if (available == null || total == null) {
+            return 0;
+        }
+        double totalBytes = ((Number) total.metricValue()).doubleValue();
+        return totalBytes > 0 ? 1 - ((Number) available.metricValue()).doubleValue() / totalBytes : 0;
+    }
+
+    public void flush() {
+        producer.flush();
+    }
+
+    @Override
+    public void close() {
+        if (heartbeats != null) {
+            heartbeats.cancel(false);
+        }
+        if (ownsProducer) {
+            producer.close();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bzh.breizhcamp.kafka;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latest event timestamps sent to a topic and to each of its partitions, by all the sinks sending to it: the cities share
+ * the partitions, so a partition is only idle when none of them sent to it.
+ */
+public class PartitionActivity {
+    private final AtomicLongArray partitionTimestamps;
+    private final AtomicLong latestTimestamp = new AtomicLong();
+
+    public PartitionActivity(int partitions) {
+        this.partitionTimestamps = new AtomicLongArray(partitions);
+    }
+
+    public int partitions() {
+        return partitionTimestamps.length();
+    }
+
+    public void record(int partition, long timestamp) {
+        partitionTimestamps.accumulateAndGet(partition, timestamp, Math::max);
+        latestTimestamp.accumulateAndGet(timestamp, Math::max);
+    }
+
+    /**
+     * @return the latest event timestamp of the topic, 0 before the first event
+     */
+    public long latestTimestamp() {
+        return latestTimestamp.get();
+    }
+
+    /**
+     * Claims the heartbeat of a partition which got no event for an interval: the other sinks see it as active.
+     *
+     * @return false if the partition is not idle, or if another sink claimed it first
+     */
+    boolean claimIdle(int partition, long timestamp, long intervalMillis) {
+        long partitionTimestamp = partitionTimestamps.get(partition);
+        return partitionTimestamp <= timestamp - intervalMillis
+                && partitionTimestamps.compareAndSet(partition, partitionTimestamp, timestamp);
+    }
+}
@@ -0,0 +1,108 @@
+package bzh.breizhcamp.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.KafkaAdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static bzh.breizhcamp.kafka.Configuration.KAFKA_CAR_DETECTED_TOPIC_PARTITIONS_PROPERTY;
+import static bzh.breizhcamp.kafka.Configuration.KAFKA_PRODUCER_POOL_SIZE_PROPERTY;
+
+/**
+ * Kafka producers shared by the sinks of all the cities: batches and compression span the cities, and the buffer
+ * memory, sender threads and connections do not grow with their number. Each new sink gets the next producer in turn.
+ * Topics are checked, and created if needed, once. The sinks of a topic share the activity of its partitions.
+ */
+@Slf4j
+public class ProducerPool implements Closeable {
+    private static ProducerPool instance;
+
+    private final Properties configuration;
+    private final List<Producer<byte[], byte[]>> producers;
+    private final AtomicInteger nextProducer = new AtomicInteger();
+    private final Set<String> checkedTopics = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, PartitionActivity> activities = new ConcurrentHashMap<>();
+
+    ProducerPool(Properties configuration, List<Producer<byte[], byte[]>> producers) {
+        this.configuration = configuration;
+        this.producers = producers;
+    }
+
+    /**
+     * @return the pool of the configuration, created with its producers on first use and closed at shutdown
+     */
+    public static synchronized ProducerPool get() {
+        if (instance == null) {
+            Properties configuration = Configuration.get();
+            int size = Math.max(1, Integer.parseInt((String) configuration.get(KAFKA_PRODUCER_POOL_SIZE_PROPERTY)));
+            List<Producer<byte[], byte[]>> producers = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                producers.add(new KafkaProducer<>(configuration));
+            }
+            log.info("{} shared Kafka producers created", size);
+            ProducerPool pool = new ProducerPool(configuration, producers);
+            // Sends still buffered are flushed before exiting
+            Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "producer-pool-shutdown"));
+            instance = pool;
+        }
+        return instance;
+    }
+
+    public Producer<byte[], byte[]> nextProducer() {
+        return producers.get(Math.floorMod(nextProducer.getAndIncrement(), producers.size()));
+    }
+
+    /**
+     * @param producer producer of the pool, giving the number of partitions of the topic
+     * @return the latest event timestamps of a topic and of its partitions, shared by all the sinks sending to it
+     */
+    public PartitionActivity activity(String topic, Producer<byte[], byte[]> producer) {
+        return activities.computeIfAbsent(topic, name -> new PartitionActivity(producer.partitionsFor(name).size()));
+    }
+
+    /**
+     * Creates a topic if it does not exist yet, once per topic: later calls return right away.
+     */
+    public void ensureTopic(String topic) throws ExecutionException, InterruptedException {
+        if (checkedTopics.contains(topic)) {
+            return;
+        }
+        synchronized (checkedTopics) {
+            if (checkedTopics.contains(topic)) {
+                return;
+            }
+            try (AdminClient adminClient = KafkaAdminClient.create(configuration)) {
+                if (!adminClient.listTopics().names().get().contains(topic)) {
+                    log.info("Creating topic {}...", topic);
+                    adminClient.createTopics(Collections.singletonList(
+                                    new NewTopic(topic,
+                                            Optional.of(Integer.parseInt((String) configuration.get(KAFKA_CAR_DETECTED_TOPIC_PARTITIONS_PROPERTY))),
+                                            Optional.empty())))
+                            .all().get();
+                }
+            }
+            checkedTopics.add(topic);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Producer<byte[], byte[]> producer : producers) {
+            producer.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package bzh.breizhcamp.kafka;
+
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registers the value schemas of the topics once, with the same subject naming strategy as the KafkaAvroSerializer,
+ * and caches their ids for the encoders.
+ */
+@Slf4j
+public class SchemaRegistry {
+    private static final Map<String, Integer> SCHEMA_IDS = new ConcurrentHashMap<>();
+
+    public static int valueSchemaId(String topic, Schema schema) {
+        return SCHEMA_IDS.computeIfAbsent(topic + "-value", subject -> register(subject, schema));
+    }
+
+    private static int register(String subject, Schema schema) {
+        Properties configuration = Configuration.get();
+        Map<String, Object> originals = new HashMap<>();
+        configuration.forEach((key, value) -> originals.put((String) key, value));
+
+        SchemaRegistryClient client = new CachedSchemaRegistryClient(
+                configuration.getProperty(Configuration.SCHEMA_REGISTRY_URL_PROPERTY), 10, originals);
+        try {
+            int schemaId = client.register(subject, new AvroSchema(schema));
+            log.info("Schema of subject {} registered with id {}", subject, schemaId);
+            return schemaId;
+        } catch (IOException | RestClientException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package bzh.breizhcamp.kafka;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes {@link bzh.breizhcamp.avro.SensorDetectionsEvent} records in the Confluent wire format, one detection at a
+ * time: {@link #start}, {@link #add} for each detection, then {@link #end}.
+ * Fields are written in the order of sensor-detections-event.avsc.
+ * Not thread safe: there is one encoder per city shard.
+ */
+public class SensorDetectionsEventEncoder extends WireFormatEncoder {
+    private final byte[] city;
+
+    public SensorDetectionsEventEncoder(int schemaId, String city) {
+        super(schemaId);
+        this.city = city.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts an event into the internal buffer.
+     *
+     * @param sensorId  UTF-8 bytes of the sensor id
+     * @param windowEnd end of the window, excluded
+     * @param count     number of detections added next, at least 1
+     */
+    public void start(byte[] sensorId, int x, int y, long windowStart, long windowEnd, int count) {
+        writeHeader(HEADER_LENGTH
+                + 5 + sensorId.length
+                + 5 + city.length
+                + 5 + 5 + 10 + 10
+                + 10);
+        writeBytes(sensorId);
+        writeBytes(city);
+        writeLong(x);
+        writeLong(y);
+        writeLong(windowStart);
+        writeLong(windowEnd);
+        // Arrays are written as one block of items, then an empty block
+        writeLong(count);
+    }
+
+    public void add(String vin, String licensePlate, long timestamp) {
+        ensureRemaining(5 + vin.length() * 3 + 5 + licensePlate.length() * 3 + 10 + 1);
+        writeString(vin);
+        writeString(licensePlate);
+        writeLong(timestamp);
+    }
+
+    /**
+     * @return the length of the encoded event, available through {@link #buffer()}
+     */
+    public int end() {
+        writeLong(0);
+        return position;
+    }
+}
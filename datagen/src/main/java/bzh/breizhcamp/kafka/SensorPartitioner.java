@@ -0,0 +1,67 @@
+package bzh.breizhcamp.kafka;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.Utils;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads the sensor ids of a city, {@code cityId-x-y}, evenly across the partitions of a topic: the cells are numbered
+ * along the diagonals of the city, so neighbouring cells of a small city never share a partition as long as there are
+ * enough partitions. The number of a cell is offset by a hash of the city id, so the cities do not all start on the
+ * first partition. A sensor always goes to the same partition.
+ * Other keys are partitioned like the default partitioner does.
+ */
+public class SensorPartitioner implements Partitioner {
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+    }
+
+    @Override
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        int partitions = cluster.partitionsForTopic(topic).size();
+        if (keyBytes == null) {
+            return ThreadLocalRandom.current().nextInt(partitions);
+        }
+        return partition(keyBytes, partitions);
+    }
+
+    public static int partition(byte[] sensorId, int partitions) {
+        // Parses the coordinates backwards: the city id may contain dashes too
+        int position = sensorId.length - 1;
+        long y = 0;
+        for (long unit = 1; position >= 0 && isDigit(sensorId[position]); position--, unit *= 10) {
+            y += (sensorId[position] - '0') * unit;
+        }
+        int yStart = position + 1;
+        if (position < 0 || sensorId[position] != '-' || yStart == sensorId.length) {
+            return Utils.toPositive(Utils.murmur2(sensorId)) % partitions;
+        }
+        position--;
+        long x = 0;
+        for (long unit = 1; position >= 0 && isDigit(sensorId[position]); position--, unit *= 10) {
+            x += (sensorId[position] - '0') * unit;
+        }
+        if (position < 0 || sensorId[position] != '-' || position + 2 == yStart) {
+            return Utils.toPositive(Utils.murmur2(sensorId)) % partitions;
+        }
+        int cityHash = 0;
+        for (int i = 0; i < position; i++) {
+            cityHash = 31 * cityHash + sensorId[i];
+        }
+        // Cantor pairing: cells (0, 0), (1, 0), (0, 1), (2, 0)... get consecutive numbers
+        long cell = (x + y) * (x + y + 1) / 2 + y;
+        return (int) Math.floorMod(cell + cityHash, (long) partitions);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    @Override
+    public void close() {
+    }
+}
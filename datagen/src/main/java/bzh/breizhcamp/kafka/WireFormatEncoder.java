@@ -0,0 +1,116 @@
+package bzh.breizhcamp.kafka;
+
+import java.util.Arrays;
+
+/**
+ * Base of the encoders writing records in the Confluent wire format (magic byte, schema id and Avro binary payload)
+ * straight into a reused buffer, without building the intermediate Avro objects.
+ * Not thread safe.
+ */
+public abstract class WireFormatEncoder {
+    public static final int HEADER_LENGTH = 5;
+    private static final byte MAGIC_BYTE = 0x0;
+
+    private final int schemaId;
+
+    protected byte[] buffer = new byte[256];
+    protected int position;
+
+    protected WireFormatEncoder(int schemaId) {
+        this.schemaId = schemaId;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return a copy of the last encoded record
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Starts a new record with its header.
+     *
+     * @param maxLength maximum length of the record, header included
+     */
+    protected void writeHeader(int maxLength) {
+        if (buffer.length < maxLength) {
+            buffer = new byte[Math.max(maxLength, buffer.length * 2)];
+        }
+        position = 0;
+        buffer[position++] = MAGIC_BYTE;
+        buffer[position++] = (byte) (schemaId >>> 24);
+        buffer[position++] = (byte) (schemaId >>> 16);
+        buffer[position++] = (byte) (schemaId >>> 8);
+        buffer[position++] = (byte) schemaId;
+    }
+
+    /**
+     * Makes room for more bytes in the record being written.
+     */
+    protected void ensureRemaining(int length) {
+        if (buffer.length - position < length) {
+            buffer = Arrays.copyOf(buffer, Math.max(position + length, buffer.length * 2));
+        }
+    }
+
+    protected void writeBytes(byte[] bytes) {
+        writeLong(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    protected void writeString(String string) {
+        writeLong(utf8Length(string));
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    // Avro int and long share the same zig-zag variable length encoding
+    protected void writeLong(long value) {
+        long n = (value << 1) ^ (value >> 63);
+        while ((n & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        buffer[position++] = (byte) n;
+    }
+
+    private static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,66 @@
+package bzh.breizhcamp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of durations in microseconds, with log-linear buckets in the spirit of HdrHistogram: each power
+ * of two is split in {@value #SUB_BUCKETS} linear sub-buckets, for a relative error below 7%.
+ * Recording only increments counters of preallocated arrays: it never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Durations up to 2^27 microseconds (about 2 minutes), longer ones are counted in the last bucket
+    private static final int MAX_MAGNITUDE = 27;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(Math.min(index(micros), BUCKETS - 1));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sumMicros() {
+        return sumMicros.get();
+    }
+
+    /**
+     * @return the number of recorded durations up to the given one, within the precision of the buckets
+     */
+    public long countAtOrBelow(long micros) {
+        long retValue = 0;
+        for (int i = 0; i < BUCKETS && upperMicros(i) <= micros; i++) {
+            retValue += counts.get(i);
+        }
+        return retValue;
+    }
+
+    static int index(long micros) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros | 1);
+        int shift = Math.max(0, magnitude - SUB_BUCKET_BITS);
+        // Values below 2 * SUB_BUCKETS are counted one by one, then each power of two takes SUB_BUCKETS buckets
+        return shift * SUB_BUCKETS + (int) (micros >>> shift);
+    }
+
+    static long upperMicros(int index) {
+        int shift = Math.max(0, index / SUB_BUCKETS - 1);
+        long subBucket = index - (long) shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,109 @@
+package bzh.breizhcamp.metrics;
+
+import java.util.Collection;
+
+/**
+ * Builds a scrape in the Prometheus text exposition format.
+ */
+public class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Histogram buckets in seconds, from 100 microseconds to 10 seconds
+    private static final String[] BUCKETS = {"0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025",
+            "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+
+    private final StringBuilder builder = new StringBuilder();
+
+    public PrometheusWriter family(String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * @param labels label names and values, alternated
+     */
+    public PrometheusWriter sample(String name, double value, String... labels) {
+        builder.append(name);
+        appendLabels(labels, null);
+        builder.append(' ');
+        appendValue(value);
+        builder.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes the buckets, sum and count of the merged histograms, in seconds.
+     */
+    public PrometheusWriter histogram(String name, Collection<LatencyHistogram> histograms, String... labels) {
+        for (String bucket : BUCKETS) {
+            long micros = Math.round(Double.parseDouble(bucket) * 1_000_000);
+            long count = 0;
+            for (LatencyHistogram histogram : histograms) {
+                count += histogram.countAtOrBelow(micros);
+            }
+            builder.append(name).append("_bucket");
+            appendLabels(labels, bucket);
+            builder.append(' ').append(count).append('\n');
+        }
+        long count = 0;
+        long sumMicros = 0;
+        for (LatencyHistogram histogram : histograms) {
+            count += histogram.count();
+            sumMicros += histogram.sumMicros();
+        }
+        builder.append(name).append("_bucket");
+        appendLabels(labels, "+Inf");
+        builder.append(' ').append(count).append('\n');
+        sample(name + "_sum", sumMicros / 1_000_000.0, labels);
+        sample(name + "_count", count, labels);
+        return this;
+    }
+
+    private void appendLabels(String[] labels, String le) {
+        if (labels.length == 0 && le == null) {
+            return;
+        }
+        builder.append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"");
+            appendEscaped(labels[i + 1]);
+            builder.append('"');
+        }
+        if (le != null) {
+            if (labels.length > 0) {
+                builder.append(',');
+            }
+            builder.append("le=\"").append(le).append('"');
+        }
+        builder.append('}');
+    }
+
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> builder.append("\\\\");
+                case '"' -> builder.append("\\\"");
+                case '\n' -> builder.append("\\n");
+                default -> builder.append(c);
+            }
+        }
+    }
+
+    private void appendValue(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            builder.append((long) value);
+        } else {
+            builder.append(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString();
+    }
+}
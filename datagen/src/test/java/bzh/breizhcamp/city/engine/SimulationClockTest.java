@@ -0,0 +1,125 @@
+package bzh.breizhcamp.city.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class SimulationClockTest {
+
+    @Test
+    public void testBackfillEnginesInStep() throws InterruptedException {
+        // Given
+        Instant start = Instant.parse("2025-04-01T00:00:00Z");
+        Instant end = Instant.parse("2025-04-01T00:10:00Z");
+        SimulationClock clock = SimulationClock.backfill(start, end, 10);
+        List<Long> timestamps = Collections.synchronizedList(new ArrayList<>());
+        TickEngine[] engines = new TickEngine[2];
+        for (int i = 0; i < engines.length; i++) {
+            int engine = i;
+            engines[i] = new TickEngine("backfill-" + i, 10, 512, (handle, deadline, now) -> {
+                timestamps.add(engines[engine].tickTimestampMillis());
+                return deadline + 1000;
+            }, clock);
+        }
+
+        // When
+        for (TickEngine engine : engines) {
+            for (int handle = 0; handle < 10; handle++) {
+                engine.schedule(handle, 0);
+            }
+        }
+        long timeout = System.currentTimeMillis() + 30_000;
+        while (!clock.finished() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        for (TickEngine engine : engines) {
+            engine.close();
+        }
+
+        // Then
+        Assertions.assertTrue(clock.finished());
+        Assertions.assertEquals(start.toEpochMilli(), timestamps.get(0));
+        // 600 moves of each of the 20 handles, but the first one of the handles scheduled after the clock started
+        Assertions.assertTrue(timestamps.size() > 599 * 20, "Moves: " + timestamps.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            Assertions.assertTrue(timestamps.get(i) >= timestamps.get(i - 1));
+        }
+        Assertions.assertTrue(timestamps.get(timestamps.size() - 1) < end.toEpochMilli());
+    }
+
+    @Test
+    public void testBackfillWaitsForCars() throws InterruptedException {
+        // Given
+        SimulationClock clock = SimulationClock.backfill(Instant.parse("2025-04-01T00:00:00Z"), null, 10);
+
+        // When
+        try (TickEngine engine = new TickEngine("idle", 10, 512, (handle, deadline, now) -> -1, clock)) {
+            Thread.sleep(200);
+
+            // Then
+            Assertions.assertEquals(0, clock.nowMillis());
+            Assertions.assertEquals(Instant.parse("2025-04-01T00:00:00Z").toEpochMilli(),
+                    engine.tickTimestampMillis());
+        }
+    }
+
+    @Test
+    public void testGatedEngineOutOfTheSteps() throws InterruptedException {
+        // Given
+        SimulationClock clock = SimulationClock.backfill(Instant.parse("2025-04-01T00:00:00Z"), null, 10);
+        try (TickEngine moving = new TickEngine("moving", 10, 512, (handle, deadline, now) -> deadline + 10, clock);
+             TickEngine waiting = new TickEngine("waiting", 10, 512, (handle, deadline, now) -> deadline + 10, clock)) {
+            // Like a shard waiting for its sink
+            waiting.gate(() -> false);
+            waiting.leaveClock();
+
+            // When
+            moving.schedule(0, 0);
+            waiting.schedule(0, 0);
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (clock.nowMillis() < 1000 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            String command = waiting.submit(() -> "done").join();
+            waiting.gate(() -> true);
+            waiting.joinClock();
+            // Commands run in order: once this one ran, the engine takes part in the steps
+            waiting.submit(() -> null).join();
+            long joinedAt = clock.nowMillis();
+            while (clock.nowMillis() < joinedAt + 1000 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+
+            // Then
+            Assertions.assertEquals("done", command);
+            Assertions.assertTrue(clock.nowMillis() >= joinedAt + 1000, "Backfill time: " + clock.nowMillis());
+        }
+    }
+
+    @Test
+    public void testJoinOfAClosedEngine() throws InterruptedException {
+        // Given
+        SimulationClock clock = SimulationClock.backfill(Instant.parse("2025-04-01T00:00:00Z"), null, 10);
+        try (TickEngine moving = new TickEngine("moving", 10, 512, (handle, deadline, now) -> deadline + 10, clock)) {
+            TickEngine closed = new TickEngine("closed", 10, 512, (handle, deadline, now) -> -1, clock);
+            closed.leaveClock();
+
+            // When
+            // Likely still pending when closing: run by the closing thread
+            closed.joinClock();
+            closed.close();
+            moving.schedule(0, 0);
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (clock.nowMillis() < 1000 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+
+            // Then
+            Assertions.assertTrue(clock.nowMillis() >= 1000, "Backfill time: " + clock.nowMillis());
+        }
+    }
+}
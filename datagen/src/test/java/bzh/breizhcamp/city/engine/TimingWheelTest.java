@@ -0,0 +1,44 @@
+package bzh.breizhcamp.city.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class TimingWheelTest {
+
+    @Test
+    public void testDueInCurrentTick() {
+        // Given
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+
+        // When
+        boolean added = wheel.add(1, 5);
+
+        // Then
+        Assertions.assertFalse(added);
+    }
+
+    @Test
+    public void testHandlesAreDueAtTheirTick() {
+        // Given
+        TimingWheel wheel = new TimingWheel(10, 8, 0);
+        long[] deadlines = {10, 25, 79, 80, 150, 640, 1234, 5000};
+        for (int i = 0; i < deadlines.length; i++) {
+            wheel.add(i, deadlines[i]);
+        }
+
+        // When
+        Map<Integer, Long> dueAt = new HashMap<>();
+        while (wheel.currentTime() < 6000) {
+            wheel.tick((handle, deadline) -> dueAt.put(handle, wheel.currentTime()));
+        }
+
+        // Then
+        Assertions.assertEquals(deadlines.length, dueAt.size());
+        for (int i = 0; i < deadlines.length; i++) {
+            Assertions.assertEquals(deadlines[i] - deadlines[i] % 10, dueAt.get(i));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package bzh.breizhcamp.city.feed;
+
+import bzh.breizhcamp.city.state.CarStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class CityFeedTest {
+
+    @Test
+    public void testDeltas() {
+        // Given
+        CarStore cars = new CarStore();
+        int first = cars.add("VIN1", "PLATE1", 1, 1, CarStore.NO_CAR, 1000, 0);
+        int second = cars.add("VIN2", "PLATE2", 5, 5, CarStore.NO_CAR, 1000, 0);
+        cars.add("VIN3", "PLATE3", 9, 9, CarStore.NO_CAR, 1000, 0);
+        StoreSource source = new StoreSource(cars);
+        CityFeed feed = new CityFeed("City", List.of(source), 1000);
+        FeedSubscriber subscriber = new FeedSubscriber(feed, null, 0, 0, 5, 5, 1, 0);
+        source.trackMoves(true);
+
+        // When
+        feed.publish();
+        String initial = subscriber.frame(1);
+
+        // Then
+        Assertions.assertEquals("{\"frame\":1,\"cars\":[0,1,1,1,5,5],\"vins\":{\"0\":\"VIN1\",\"1\":\"VIN2\"},\"removed\":[]}", initial);
+
+        // When
+        cars.move(first, 2, 1);
+        source.moved.set(first);
+        feed.publish();
+        cars.move(first, 3, 1);
+        cars.move(second, 6, 5);
+        source.moved.set(first);
+        source.moved.set(second);
+        feed.publish();
+        String coalesced = subscriber.frame(3);
+        feed.publish();
+        String unchanged = subscriber.frame(4);
+
+        // Then
+        Assertions.assertEquals("{\"frame\":3,\"cars\":[0,3,1],\"vins\":{},\"removed\":[1]}", coalesced);
+        Assertions.assertNull(unchanged);
+    }
+
+    @Test
+    public void testReusedIndex() {
+        // Given
+        CarStore cars = new CarStore();
+        int first = cars.add("VIN1", "PLATE1", 1, 1, CarStore.NO_CAR, 1000, 0);
+        int second = cars.add("VIN2", "PLATE2", 5, 5, CarStore.NO_CAR, 1000, 0);
+        StoreSource source = new StoreSource(cars);
+        CityFeed feed = new CityFeed("City", List.of(source), 1000);
+        FeedSubscriber subscriber = new FeedSubscriber(feed, null, 0, 0, 5, 5, 1, 0);
+        source.trackMoves(true);
+        feed.publish();
+        subscriber.frame(1);
+
+        // When
+        cars.removeConvoy(first);
+        cars.removeConvoy(second);
+        cars.releaseConvoy(second);
+        int third = cars.add("VIN3", "PLATE3", 4, 4, CarStore.NO_CAR, 1000, 0);
+        source.moved.set(first);
+        source.moved.set(second);
+        feed.publish();
+        String replaced = subscriber.frame(2);
+
+        // Then
+        Assertions.assertEquals(second, third);
+        Assertions.assertEquals("{\"frame\":2,\"cars\":[1,4,4],\"vins\":{\"1\":\"VIN3\"},\"removed\":[0]}", replaced);
+    }
+
+    private static class StoreSource implements MoveSource {
+        private final CarStore cars;
+        private BitSet moved;
+
+        StoreSource(CarStore cars) {
+            this.cars = cars;
+        }
+
+        @Override
+        public CompletableFuture<Void> trackMoves(boolean enabled) {
+            moved = new BitSet();
+            moved.set(0, cars.size());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> publishMoves(FeedSegment segment, long frame) {
+            segment.update(cars, moved, frame);
+            moved.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
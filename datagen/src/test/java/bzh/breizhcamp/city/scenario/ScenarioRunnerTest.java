@@ -0,0 +1,33 @@
+package bzh.breizhcamp.city.scenario;
+
+import bzh.breizhcamp.city.services.CityRegistry;
+import bzh.breizhcamp.city.services.GeneratorInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ScenarioRunnerTest {
+
+    @Test
+    public void testInitialRateSplitBetweenInstances() {
+        // Given
+        ScenarioRunner runner = new ScenarioRunner(new CityRegistry(), new GeneratorInstance(0, 2), 50);
+        Scenario scenario = Scenario.parse("""
+                name = steady
+                cities = [
+                  {size = 100, seed = 42, eventRate = 1000}
+                  {size = 100, seed = 43, profile = [{type = ramp, from = 200, to = 1000, duration = 10s}]}
+                  {size = 100, seed = 44}
+                ]
+                """);
+
+        // When
+        Double eventRate = runner.initialRate(scenario.getCities().get(0));
+        Double profileRate = runner.initialRate(scenario.getCities().get(1));
+        Double configuredRate = runner.initialRate(scenario.getCities().get(2));
+
+        // Then
+        Assertions.assertEquals(500, eventRate);
+        Assertions.assertEquals(100, profileRate);
+        Assertions.assertNull(configuredRate);
+    }
+}
@@ -0,0 +1,68 @@
+package bzh.breizhcamp.city.scenario;
+
+import bzh.breizhcamp.events.OverloadPolicy;
+import com.typesafe.config.ConfigException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ScenarioTest {
+
+    @Test
+    public void testParse() {
+        // Given
+        String hocon = """
+                name = peak
+                cities = [{
+                  size = 1000
+                  seed = 42
+                  overloadPolicy = drop
+                  cars = 20000
+                  convoys = [{count = 10, followers = 5}, {count = 2, followers = 3, topology = star}]
+                  profile = [
+                    {type = ramp, from = 0, to = 1000, duration = 10s}
+                    {type = burst, base = 1000, rate = 5000, every = 1m, length = 10s, duration = 2m}
+                    {type = sine, base = 1000, amplitude = 500, period = 1m, duration = 1m}
+                    {type = diurnal, min = 100, max = 2100, period = 24m, duration = 24m}
+                  ]
+                  removals = [{at = 40m, cars = 100}, {at = 1m, cars = 10}]
+                }]
+                """;
+
+        // When
+        Scenario scenario = Scenario.parse(hocon);
+
+        // Then
+        Assertions.assertEquals("peak", scenario.getName());
+        Scenario.CityPlan city = scenario.getCities().get(0);
+        Assertions.assertEquals(42, city.getSeed());
+        Assertions.assertEquals(OverloadPolicy.DROP, city.getOverloadPolicy());
+        Assertions.assertEquals(Scenario.ConvoyTopology.CHAIN, city.getConvoys().get(0).getTopology());
+        Assertions.assertEquals(Scenario.ConvoyTopology.STAR, city.getConvoys().get(1).getTopology());
+        Assertions.assertEquals(60_000, city.getRemovals().get(0).getAtMillis());
+        // The last removal comes after the end of the profile
+        Assertions.assertEquals(2_400_000, scenario.durationMillis());
+
+        TrafficProfile profile = city.getProfile();
+        Assertions.assertEquals(0, profile.rateAt(0));
+        Assertions.assertEquals(500, profile.rateAt(5_000), 1e-9);
+        Assertions.assertEquals(5000, profile.rateAt(15_000));
+        Assertions.assertEquals(1000, profile.rateAt(30_000));
+        Assertions.assertEquals(5000, profile.rateAt(75_000));
+        Assertions.assertEquals(1500, profile.rateAt(130_000 + 15_000), 1e-9);
+        // Night, then evening rush hour of the compressed day
+        Assertions.assertEquals(100, profile.rateAt(190_000 + 3 * 60_000), 20);
+        Assertions.assertEquals(2100, profile.rateAt(190_000 + 18 * 60_000), 1);
+        // The last rate is kept
+        Assertions.assertEquals(profile.rateAt(profile.getDurationMillis() - 1), profile.rateAt(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testInvalid() {
+        // Then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Scenario.parse("{\"cities\": []}"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Scenario.parse(
+                "{\"cities\": [{\"profile\": [{\"type\": \"square\", \"duration\": \"1s\"}]}]}"));
+        Assertions.assertThrows(ConfigException.class, () -> Scenario.parse(
+                "{\"cities\": [{\"profile\": [{\"type\": \"ramp\", \"from\": 0, \"duration\": \"1s\"}]}]}"));
+    }
+}
@@ -0,0 +1,64 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.model.CarPage;
+import bzh.breizhcamp.city.state.CarFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+class CarListingTest {
+
+    @Test
+    public void testPagination() {
+        // Given
+        try (CityService cityService = new CityService(100, 42)) {
+            String leaderVin = cityService.startNewCars(null, 250).get(0).getVin();
+            cityService.startNewCars(leaderVin, 3);
+
+            // When
+            List<Car> cars = new ArrayList<>();
+            int pages = 0;
+            String cursor = null;
+            do {
+                CarPage page = cityService.cars(CarFilter.ALL, cursor, 100);
+                cars.addAll(page.getCars());
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+
+            // Then
+            Assertions.assertEquals(3, pages);
+            Assertions.assertEquals(253, cars.size());
+            Assertions.assertEquals(253, new HashSet<>(cars.stream().map(Car::getVin).toList()).size());
+        }
+    }
+
+    @Test
+    public void testFilters() {
+        // Given
+        try (CityService cityService = new CityService(100, 42)) {
+            String leaderVin = cityService.startNewCars(null, 250).get(0).getVin();
+            cityService.startNewCars(leaderVin, 3);
+
+            // When
+            List<Car> leaders = cityService.cars(new CarFilter(true, null, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE), null, 1000).getCars();
+            List<Car> followers = cityService.cars(new CarFilter(false, leaderVin, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE), null, 1000).getCars();
+            List<Car> unknownFollowers = cityService.cars(new CarFilter(false, "UNKNOWN", Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE), null, 1000).getCars();
+            List<Car> inBox = new ArrayList<>();
+            cityService.forEachCar(new CarFilter(false, null, 0, 0, 49, 49), inBox::add);
+
+            // Then
+            Assertions.assertEquals(250, leaders.size());
+            Assertions.assertTrue(leaders.stream().allMatch(car -> car.getFollowedCarVin() == null));
+            Assertions.assertEquals(3, followers.size());
+            Assertions.assertTrue(followers.stream().allMatch(car -> leaderVin.equals(car.getFollowedCarVin())));
+            Assertions.assertTrue(unknownFollowers.isEmpty());
+            Assertions.assertFalse(inBox.isEmpty());
+            Assertions.assertTrue(inBox.stream().allMatch(car -> car.getPosition().getX() <= 49 && car.getPosition().getY() <= 49));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package bzh.breizhcamp.city.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class CityRegistryTest {
+
+    @Test
+    public void testConcurrentCreateAndDelete() throws Exception {
+        // Given
+        CityRegistry registry = new CityRegistry();
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // When
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(() -> {
+                    CityService cityService = registry.create(() -> new CityService(10));
+                    if (cityService == null) {
+                        return null;
+                    }
+                    String name = cityService.getCity().getName();
+                    Assertions.assertTrue(names.add(name), "City " + name + " registered twice");
+                    Assertions.assertSame(cityService, registry.get(name));
+                    cityService.startNewCars(null, 100, 10, 0);
+                    cityService.spawnCars(null, 1_000, 10, 0);
+                    Assertions.assertTrue(cityService.cars().size() >= 100);
+                    registry.all().forEach(CityService::carCount);
+                    names.remove(name);
+                    Assertions.assertTrue(registry.delete(name));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        Assertions.assertTrue(registry.all().isEmpty());
+        Assertions.assertTrue(names.isEmpty());
+    }
+
+    @Test
+    public void testDeleteIsIdempotent() throws Exception {
+        // Given
+        CityRegistry registry = new CityRegistry();
+        CityService cityService = registry.create(() -> new CityService(10));
+        cityService.startNewCars(null, 10);
+        String name = cityService.getCity().getName();
+
+        // When
+        boolean deleted = registry.delete(name);
+        boolean deletedAgain = registry.delete(name);
+        cityService.close();
+
+        // Then
+        Assertions.assertTrue(deleted);
+        Assertions.assertFalse(deletedAgain);
+        Assertions.assertNull(registry.get(name));
+        Assertions.assertEquals(10, cityService.cars().size());
+    }
+
+    @Test
+    public void testFailedSinkOfADeletedCity() throws Exception {
+        // Given
+        CityRegistry registry = new CityRegistry();
+        CountDownLatch sinkFailure = new CountDownLatch(1);
+        CountDownLatch failedCityClosed = new CountDownLatch(1);
+        CityService failedCity = registry.createWithSink(() -> new CityService(10, 42) {
+            @Override
+            public CityService initSink() throws ExecutionException, InterruptedException {
+                sinkFailure.await();
+                throw new ExecutionException(new IllegalStateException("No sink"));
+            }
+
+            @Override
+            public synchronized void close() {
+                super.close();
+                failedCityClosed.countDown();
+            }
+        });
+        String name = failedCity.getCity().getName();
+
+        // When
+        // Deleted then created again with the same name while its sink is being created
+        Assertions.assertTrue(registry.delete(name));
+        try (CityService newCity = registry.create(() -> new CityService(10, 42))) {
+            sinkFailure.countDown();
+
+            // Then
+            Assertions.assertTrue(failedCityClosed.await(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(name, newCity.getCity().getName());
+            Assertions.assertSame(newCity, registry.get(name));
+            Assertions.assertEquals(1, newCity.startNewCars(null, 1).size());
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package bzh.breizhcamp.city.services;
 
+import bzh.breizhcamp.city.engine.SimulationClock;
 import bzh.breizhcamp.city.model.Car;
 import bzh.breizhcamp.city.model.City;
 import bzh.breizhcamp.city.model.Position;
+import bzh.breizhcamp.city.state.CarSnapshot;
+import bzh.breizhcamp.city.state.CarStore;
+import bzh.breizhcamp.events.NoopEventSink;
 import bzh.breizhcamp.json.JacksonInstance;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.kafka.clients.producer.Callback;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 class CityTest {
 
     @Test
@@ -24,34 +37,191 @@ class CityTest {
 
     @Test
     public void testMoveLimits() {
-        // Given
-        CityService cityService = new CityService(1);
-        Car car = new Car(cityService.getCity(), null);
-        car.setPosition(new Position(0, 1));
-        car.setLastPosition(new Position(0, 0));
+        try (CityService cityService = new CityService(1)) {
+            // Given
+            CityShard shard = cityService.shard(0);
+            CarStore cars = shard.carStore();
+            int car = cars.add("VIN", "PLATE", 0, 1, CarStore.NO_CAR, 1000, 0);
+            cars.setLastPosition(car, 0, 0);
 
-        // When
-        cityService.moveCarToNextPosition(car, null);
+            // When
+            shard.moveCarToNextPosition(car);
 
-        // Then
-        Assertions.assertEquals(new Position(1, 1), car.getPosition());
+            // Then
+            Assertions.assertEquals(new Position(1, 1), cars.position(car));
+        }
     }
 
     @Test
     public void testFollowerMove() {
+        try (CityService cityService = new CityService(1)) {
+            // Given
+            CityShard shard = cityService.shard(0);
+            CarStore cars = shard.carStore();
+            int car = cars.add("VIN", "PLATE", 0, 1, CarStore.NO_CAR, 1000, 0);
+            int followingCar = cars.add("FOLLOWING_VIN", "FOLLOWING_PLATE", 1, 0, car, 1000, 0);
+
+            cars.setLastPosition(car, 0, 0);
+
+            // When
+            shard.moveCarToNextPosition(car);
+
+            // Then
+            Assertions.assertEquals(new Position(0, 1), cars.position(followingCar));
+        }
+    }
+
+    @Test
+    public void testLongConvoyMove() {
+        try (CityService cityService = new CityService(1)) {
+            // Given
+            CityShard shard = cityService.shard(0);
+            CarStore cars = shard.carStore();
+            int car = cars.add("VIN", "PLATE", 0, 1, CarStore.NO_CAR, 1000, 0);
+            cars.setLastPosition(car, 0, 0);
+            int followedCar = car;
+            for (int i = 0; i < 100_000; i++) {
+                followedCar = cars.add("FOLLOWING_VIN_" + i, "FOLLOWING_PLATE_" + i, i % 2, (i + 1) % 2, followedCar, 1000, 0);
+            }
+            int lastCar = followedCar;
+            Position lastCarLeaderPosition = cars.position(cars.leader(lastCar));
+
+            // When
+            shard.moveCarToNextPosition(car);
+
+            // Then
+            Assertions.assertEquals(new Position(1, 1), cars.position(car));
+            Assertions.assertEquals(new Position(0, 1), cars.position(cars.firstFollower(car)));
+            Assertions.assertEquals(lastCarLeaderPosition, cars.position(lastCar));
+        }
+    }
+
+    @Test
+    public void testRemoveCars() {
+        // Given
+        try (CityService cityService = new CityService(100)) {
+            List<Car> leaders = cityService.startNewCars(null, 10, 10, 0);
+            String followerVin = cityService.startNewCars(leaders.get(9).getVin(), 1).get(0).getVin();
+            cityService.startNewCars(followerVin, 2);
+
+            // When
+            int removed = cityService.removeCars(3);
+            int removedAll = cityService.removeCars(100);
+
+            // Then
+            Assertions.assertEquals(3, removed);
+            Assertions.assertEquals(7, removedAll);
+            Assertions.assertEquals(0, cityService.carCount());
+            Assertions.assertEquals(0, cityService.followerCount());
+            Assertions.assertTrue(cityService.cars().isEmpty());
+            Assertions.assertNull(cityService.startNewCars(followerVin, 1));
+        }
+    }
+
+    @Test
+    public void testRemovedCarsIndexesReused() throws InterruptedException {
         // Given
-        CityService cityService = new CityService(1);
-        Car car = new Car(cityService.getCity(), null);
-        Car followingCar = new Car(cityService.getCity(), car.getFollowedCarVin());
-        car.addFollowingCar(followingCar);
+        try (CityService cityService = new CityService(100)) {
+            CityShard shard = cityService.shard(0);
+
+            // When
+            for (int round = 0; round < 20; round++) {
+                List<Car> leaders = cityService.startNewCars(null, 10, 10, 0);
+                cityService.startNewCars(leaders.get(0).getVin(), 5);
+                Assertions.assertEquals(10, cityService.removeCars(10));
+                // The indexes are released by the next move of the removed leaders
+                for (int i = 0; i < 100 && freeCount(shard) < 15; i++) {
+                    Thread.sleep(50);
+                }
+                Assertions.assertEquals(15, freeCount(shard));
+            }
+            CarSnapshot snapshot = shard.snapshotConvoys().join();
 
-        car.setPosition(new Position(0, 1));
-        car.setLastPosition(new Position(0, 0));
+            // Then
+            Assertions.assertEquals(0, snapshot.size());
+            Assertions.assertEquals(15, shard.carStore().size());
+        }
+    }
+
+    @Test
+    public void testCarsWaitForTheSink() throws InterruptedException {
+        // Given
+        try (CityService cityService = new CityService(100)) {
+            CityShard shard = cityService.shard(0);
+            shard.awaitSink();
+            Car car = shard.startNewCars(null, new String[]{"VIN"}, new String[]{"PLATE"}, 0, 1, 10, 0).join().get(0);
+            CountDownLatch sent = new CountDownLatch(1);
+            NoopEventSink sink = new NoopEventSink() {
+                @Override
+                public void send(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback) {
+                    sent.countDown();
+                    super.send(key, value, valueLength, timestamp, callback);
+                }
+            };
 
+            // When
+            // The car is due every 10 ms: it would have moved during the paused ticks
+            long pausedTicks = shard.tickStatistics().getPausedTicks();
+            for (int i = 0; i < 100 && shard.tickStatistics().getPausedTicks() < pausedTicks + 5; i++) {
+                Thread.sleep(50);
+            }
+            long heldPausedTicks = shard.tickStatistics().getPausedTicks();
+            Position heldPosition = cityService.cars().get(0).getPosition();
+            shard.initSink(sink, 0);
+
+            // Then
+            Assertions.assertTrue(heldPausedTicks >= pausedTicks + 5, "Paused ticks: " + heldPausedTicks);
+            Assertions.assertEquals(car.getPosition(), heldPosition);
+            Assertions.assertTrue(sent.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testSeededMovesReproduced() throws InterruptedException {
         // When
-        cityService.moveCarToNextPosition(car, null);
+        List<String> firstMoves = backfillMoves(42);
+        List<String> secondMoves = backfillMoves(42);
+        List<String> otherSeedMoves = backfillMoves(43);
 
         // Then
-        Assertions.assertEquals(new Position(0, 1), followingCar.getPosition());
+        // 10 leaders and 5 followers moving every 100 ms, give or take 10 ms, for a minute
+        Assertions.assertTrue(firstMoves.size() > 8000, "Moves: " + firstMoves.size());
+        Assertions.assertEquals(firstMoves, secondMoves);
+        Assertions.assertNotEquals(firstMoves, otherSeedMoves);
+    }
+
+    /**
+     * @return the sensors and timestamps of the detections of a city over a minute of backfill
+     */
+    private static List<String> backfillMoves(long seed) throws InterruptedException {
+        Instant start = Instant.parse("2025-04-01T00:00:00Z");
+        SimulationClock clock = SimulationClock.backfill(start, start.plusSeconds(60), 10);
+        List<String> moves = Collections.synchronizedList(new ArrayList<>());
+        NoopEventSink sink = new NoopEventSink() {
+            @Override
+            public void send(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback) {
+                moves.add(new String(key, StandardCharsets.UTF_8) + "@" + timestamp);
+                super.send(key, value, valueLength, timestamp, callback);
+            }
+        };
+        try (CityService cityService = new CityService(100, seed, new GeneratorInstance(0, 1), clock)) {
+            // Nothing moves until all the cars are there: the draws of their positions and moves stay in order
+            cityService.shard(0).awaitSink();
+            List<Car> leaders = cityService.startNewCars(null, 10, 100, 10);
+            cityService.startNewCars(leaders.get(0).getVin(), 5);
+            cityService.initSink(sink, 0);
+            long timeout = System.currentTimeMillis() + 30_000;
+            while (!clock.finished() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            Assertions.assertTrue(clock.finished());
+        }
+        return moves;
+    }
+
+    private static int freeCount(CityShard shard) {
+        // Read once the tick engine, which owns the store, ran a task
+        shard.snapshotConvoys().join();
+        return shard.carStore().freeCount();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.city.model.Car;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class GeneratorInstanceTest {
+
+    @Test
+    public void testShares() {
+        // Given
+        GeneratorInstance[] instances = {new GeneratorInstance(0, 3), new GeneratorInstance(1, 3), new GeneratorInstance(2, 3)};
+
+        // Then
+        for (int total : new int[]{0, 1, 2, 10, 20000, Integer.MAX_VALUE}) {
+            long sum = 0;
+            for (GeneratorInstance instance : instances) {
+                int share = instance.share(total);
+                Assertions.assertTrue(Math.abs(share - total / 3) <= 1);
+                sum += share;
+            }
+            Assertions.assertEquals(total, sum);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new GeneratorInstance(2, 2));
+    }
+
+    @Test
+    public void testSmallSharesSpread() {
+        // Given
+        GeneratorInstance[] instances = {new GeneratorInstance(0, 3), new GeneratorInstance(1, 3), new GeneratorInstance(2, 3)};
+        int[] totals = new int[instances.length];
+
+        // When
+        for (int request = 0; request < 30; request++) {
+            int sum = 0;
+            for (int i = 0; i < instances.length; i++) {
+                int share = instances[i].share(request % 2 == 0 ? 1 : 2, request);
+                totals[i] += share;
+                sum += share;
+            }
+            Assertions.assertEquals(request % 2 == 0 ? 1 : 2, sum);
+        }
+
+        // Then
+        // 45 cars in requests of 1 or 2, 15 each
+        Assertions.assertArrayEquals(new int[]{15, 15, 15}, totals);
+    }
+
+    @Test
+    public void testSplitCity() {
+        // Given
+        try (CityService first = new CityService(100, 42, new GeneratorInstance(0, 2));
+             CityService second = new CityService(100, 42, new GeneratorInstance(1, 2))) {
+
+            // When
+            List<Car> firstCars = first.startNewCars(null, 11);
+            List<Car> secondCars = second.startNewCars(null, 11);
+            String leaderVin = firstCars.get(0).getVin();
+            List<Car> firstFollowers = first.startNewCars(leaderVin, 3);
+            List<Car> secondFollowers = second.startNewCars(leaderVin, 3);
+
+            // Then
+            Assertions.assertEquals(first.getCity().getName(), second.getCity().getName());
+            Assertions.assertEquals(first.getCity().getId(), second.getCity().getId());
+            Assertions.assertEquals(5, firstCars.size());
+            Assertions.assertEquals(6, secondCars.size());
+            Assertions.assertNotEquals(firstCars.stream().map(Car::getPosition).toList(),
+                    secondCars.stream().limit(5).map(Car::getPosition).toList());
+            // The convoy stays on the instance of its leader
+            Assertions.assertEquals(3, firstFollowers.size());
+            Assertions.assertNull(secondFollowers);
+        }
+    }
+}
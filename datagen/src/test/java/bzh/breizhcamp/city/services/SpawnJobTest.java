@@ -0,0 +1,38 @@
+package bzh.breizhcamp.city.services;
+
+import bzh.breizhcamp.city.model.SpawnJob;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class SpawnJobTest {
+
+    @Test
+    public void testSpawnLeadersAndFollowers() throws InterruptedException {
+        // Given
+        try (CityService cityService = new CityService(100)) {
+            String leaderVin = cityService.startNewCars(null, 1).get(0).getVin();
+
+            // When
+            SpawnJob leaders = cityService.spawnCars(null, 50_000, 1000, 0);
+            SpawnJob followers = cityService.spawnCars(leaderVin, 10, 1000, 0);
+            awaitCompletion(leaders);
+            awaitCompletion(followers);
+
+            // Then
+            Assertions.assertEquals(SpawnJob.Status.DONE, leaders.getStatus());
+            Assertions.assertEquals(50_000, leaders.getCreated());
+            Assertions.assertEquals(1, leaders.getProgress());
+            Assertions.assertEquals(SpawnJob.Status.DONE, followers.getStatus());
+            Assertions.assertEquals(50_011, cityService.carCount());
+            Assertions.assertEquals(10, cityService.followerCount());
+            Assertions.assertSame(leaders, cityService.spawnJob(leaders.getId()));
+            Assertions.assertNull(cityService.spawnCars("UNKNOWN", 10, 1000, 0));
+        }
+    }
+
+    private static void awaitCompletion(SpawnJob job) throws InterruptedException {
+        for (int i = 0; i < 600 && job.getStatus() == SpawnJob.Status.RUNNING; i++) {
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package bzh.breizhcamp.city.snapshot;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.services.CityService;
+import bzh.breizhcamp.city.state.CarFilter;
+import bzh.breizhcamp.events.OverloadPolicy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+class SnapshotFileTest {
+    // Cars do not move again for days once restored: their positions can be compared
+    private static final long MOVING_RATE_MILLIS = 1_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRestore() throws IOException, InterruptedException {
+        // Given
+        try (CityService cityService = new CityService(100, 42)) {
+            cityService.getEmissionGovernor().setOverloadPolicy(OverloadPolicy.DROP);
+            String leaderVin = cityService.startNewCars(null, 100, MOVING_RATE_MILLIS, 0).get(0).getVin();
+            String followerVin = cityService.startNewCars(leaderVin, 1).get(0).getVin();
+            cityService.startNewCars(followerVin, 2);
+            // The leaders make their first move
+            Thread.sleep(100);
+
+            // When
+            Path file = directory.resolve("city.snapshot");
+            SnapshotFile.write(file, cityService.snapshot());
+            CitySnapshot snapshot = SnapshotFile.read(file);
+
+            // Then
+            Assertions.assertEquals(cityService.getCity().getName(), snapshot.getName());
+            Assertions.assertEquals(42, snapshot.getSeed());
+            Assertions.assertEquals(OverloadPolicy.DROP, snapshot.getOverloadPolicy());
+            Assertions.assertEquals(103, snapshot.carCount());
+            try (CityService restored = CityService.restore(snapshot)) {
+                Assertions.assertEquals(cityService.getCity().getName(), restored.getCity().getName());
+                Assertions.assertEquals(cityService.getCity().getId(), restored.getCity().getId());
+                Assertions.assertEquals(103, restored.carCount());
+                Assertions.assertEquals(3, restored.followerCount());
+                // Same identities, positions, last positions and leaders
+                Assertions.assertEquals(describe(cityService.cars()), describe(restored.cars()));
+                Assertions.assertEquals(2, restored.cars(new CarFilter(false, followerVin, Integer.MIN_VALUE,
+                        Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE), null, 10).getCars().size());
+            }
+        }
+    }
+
+    private static List<String> describe(List<Car> cars) {
+        return cars.stream().sorted(Comparator.comparing(Car::getVin)).map(Car::toString).toList();
+    }
+
+    @Test
+    public void testCorruptedSnapshot() throws IOException {
+        // Given
+        Path file = directory.resolve("corrupted.snapshot");
+        Files.write(file, new byte[]{'B', 'Z', 'H', 'S', 0, 0, 0, 1, 0, 5, 'C'});
+
+        // Then
+        Assertions.assertThrows(IOException.class, () -> SnapshotFile.read(file));
+        Assertions.assertTrue(new SnapshotStore(directory, 0).readAll().isEmpty());
+    }
+}
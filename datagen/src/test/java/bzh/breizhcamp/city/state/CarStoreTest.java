@@ -0,0 +1,53 @@
+package bzh.breizhcamp.city.state;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class CarStoreTest {
+
+    @Test
+    public void testReleasedIndexesReused() {
+        // Given
+        CarStore cars = new CarStore(4);
+        OccupancyGrid occupancy = cars.indexOccupancy(100);
+
+        // When
+        for (int round = 0; round < 100; round++) {
+            int leader = cars.add("VIN-" + round, "PLATE", round % 100, 0, CarStore.NO_CAR, 1000, 0);
+            cars.add("FOLLOWER-" + round, "PLATE", 0, round % 100, leader, 1000, 0);
+            cars.removeConvoy(leader);
+            cars.releaseConvoy(leader);
+        }
+        int leader = cars.add("VIN", "PLATE", 5, 5, CarStore.NO_CAR, 1000, 0);
+
+        // Then
+        Assertions.assertEquals(2, cars.size());
+        Assertions.assertEquals(1, cars.count());
+        Assertions.assertEquals(leader, cars.indexOf("VIN"));
+        Assertions.assertEquals(CarStore.NO_CAR, cars.indexOf("VIN-99"));
+        Assertions.assertEquals(CarStore.NO_CAR, cars.firstFollower(leader));
+        Assertions.assertArrayEquals(new int[]{leader}, occupancy.carsIn(0, 0, 99, 99, 10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cars.releaseConvoy(leader));
+    }
+
+    @Test
+    public void testSnapshotConvoys() {
+        // Given
+        CarStore cars = new CarStore();
+        int removed = cars.add("VIN-1", "PLATE", 0, 0, CarStore.NO_CAR, 1000, 0);
+        int leader = cars.add("VIN-2", "PLATE", 0, 0, CarStore.NO_CAR, 1000, 0);
+        cars.removeConvoy(removed);
+        cars.releaseConvoy(removed);
+        // The follower takes the index before the one of its leader
+        cars.add("VIN-3", "PLATE", 0, 0, leader, 1000, 0);
+
+        // When
+        CarSnapshot snapshot = cars.snapshotConvoys();
+
+        // Then
+        Assertions.assertEquals(2, snapshot.size());
+        Assertions.assertEquals("VIN-2", snapshot.vin(0));
+        Assertions.assertEquals("VIN-3", snapshot.vin(1));
+        Assertions.assertEquals("VIN-2", snapshot.leaderVin(1));
+    }
+}
@@ -0,0 +1,72 @@
+package bzh.breizhcamp.city.state;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+class OccupancyGridTest {
+
+    @Test
+    public void testIncrementalIndex() {
+        // Given
+        int citySize = 100;
+        CarStore cars = new CarStore();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < 500; i++) {
+            cars.add("VIN-" + i, "PLATE-" + i, random.nextInt(citySize + 1), random.nextInt(citySize + 1), CarStore.NO_CAR, 1000, 0);
+        }
+        OccupancyGrid grid = cars.indexOccupancy(citySize);
+        for (int i = 500; i < 1000; i++) {
+            cars.add("VIN-" + i, "PLATE-" + i, random.nextInt(citySize + 1), random.nextInt(citySize + 1), CarStore.NO_CAR, 1000, 0);
+        }
+
+        // When
+        for (int move = 0; move < 10_000; move++) {
+            cars.move(random.nextInt(cars.size()), random.nextInt(citySize + 1), random.nextInt(citySize + 1));
+        }
+
+        // Then
+        int[] box = grid.carsIn(10, 20, 40, 30, Integer.MAX_VALUE);
+        Arrays.sort(box);
+        Assertions.assertArrayEquals(scan(cars, 10, 20, 40, 30), box);
+        int[] cell = grid.carsIn(50, 50, 50, 50, Integer.MAX_VALUE);
+        Arrays.sort(cell);
+        Assertions.assertArrayEquals(scan(cars, 50, 50, 50, 50), cell);
+        Assertions.assertEquals(3, grid.carsIn(0, 0, citySize, citySize, 3).length);
+        Assertions.assertEquals(cars.size(), grid.carsIn(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).length);
+    }
+
+    @Test
+    public void testHeatmap() {
+        // Given
+        CarStore cars = new CarStore();
+        OccupancyGrid grid = cars.indexOccupancy(100);
+        cars.add("VIN-1", "PLATE-1", 0, 0, CarStore.NO_CAR, 1000, 0);
+        cars.add("VIN-2", "PLATE-2", 32, 0, CarStore.NO_CAR, 1000, 0);
+        cars.add("VIN-3", "PLATE-3", 34, 0, CarStore.NO_CAR, 1000, 0);
+        cars.add("VIN-4", "PLATE-4", 100, 100, CarStore.NO_CAR, 1000, 0);
+
+        // When
+        int[] counts = new int[5 * 5];
+        grid.heatmap(21, counts);
+
+        // Then
+        Assertions.assertEquals(1, counts[0]);
+        Assertions.assertEquals(2, counts[1]);
+        Assertions.assertEquals(1, counts[24]);
+        Assertions.assertEquals(4, Arrays.stream(counts).sum());
+    }
+
+    private static int[] scan(CarStore cars, int minX, int minY, int maxX, int maxY) {
+        int[] retValue = new int[cars.size()];
+        int count = 0;
+        for (int car = 0; car < cars.size(); car++) {
+            if (cars.x(car) >= minX && cars.x(car) <= maxX && cars.y(car) >= minY && cars.y(car) <= maxY) {
+                retValue[count++] = car;
+            }
+        }
+        return Arrays.copyOf(retValue, count);
+    }
+}
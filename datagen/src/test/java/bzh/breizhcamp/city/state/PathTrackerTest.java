@@ -0,0 +1,80 @@
+package bzh.breizhcamp.city.state;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class PathTrackerTest {
+
+    @Test
+    public void testSamePathSameId() {
+        // Given
+        CarStore cars = new CarStore(2);
+        PathTracker paths = cars.trackPaths(4, 42);
+        int car = cars.add("VIN-1", "PLATE-1", 0, 0, CarStore.NO_CAR, 1000, 0);
+        int otherCar = cars.add("VIN-2", "PLATE-2", 50, 50, CarStore.NO_CAR, 1000, 0);
+        // A third car grows the arrays of the tracker
+        int lateCar = cars.add("VIN-3", "PLATE-3", 20, 20, CarStore.NO_CAR, 1000, 0);
+
+        // When
+        for (int x = 1; x <= 3; x++) {
+            cars.move(car, x, 0);
+        }
+        boolean completeBefore = paths.complete(car);
+        cars.move(car, 4, 0);
+        // Another history, then the same last 4 sensors
+        cars.move(otherCar, 9, 9);
+        cars.move(otherCar, 0, 0);
+        for (int x = 2; x <= 4; x++) {
+            cars.move(otherCar, x, 0);
+        }
+        for (int y = 1; y <= 4; y++) {
+            cars.move(lateCar, 1, y);
+        }
+
+        // Then
+        Assertions.assertFalse(completeBefore);
+        Assertions.assertTrue(paths.complete(car));
+        Assertions.assertTrue(paths.complete(otherCar));
+        Assertions.assertNotEquals(paths.pathId(car), paths.pathId(otherCar));
+        cars.move(otherCar, 1, 0);
+        cars.move(otherCar, 2, 0);
+        cars.move(otherCar, 3, 0);
+        cars.move(otherCar, 4, 0);
+        Assertions.assertEquals(paths.pathId(car), paths.pathId(otherCar));
+        Assertions.assertNotEquals(paths.pathId(car), paths.pathId(lateCar));
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertEquals(i + 1, paths.x(otherCar, i));
+            Assertions.assertEquals(0, paths.y(otherCar, i));
+            Assertions.assertEquals(1, paths.x(lateCar, i));
+            Assertions.assertEquals(i + 1, paths.y(lateCar, i));
+        }
+    }
+
+    @Test
+    public void testSeed() {
+        // Given
+        CarStore cars = new CarStore();
+        CarStore otherCityCars = new CarStore();
+        PathTracker paths = cars.trackPaths(3, 1);
+        PathTracker otherCityPaths = otherCityCars.trackPaths(3, 2);
+        int car = cars.add("VIN-1", "PLATE-1", 0, 0, CarStore.NO_CAR, 1000, 0);
+        int otherCityCar = otherCityCars.add("VIN-2", "PLATE-2", 0, 0, CarStore.NO_CAR, 1000, 0);
+
+        // When
+        for (int x = 1; x <= 3; x++) {
+            cars.move(car, x, 0);
+            otherCityCars.move(otherCityCar, x, 0);
+        }
+
+        // Then
+        Assertions.assertNotEquals(paths.pathId(car), otherCityPaths.pathId(otherCityCar));
+    }
+
+    @Test
+    public void testMix() {
+        // Reference values of fmix64, the finalizer of MurmurHash3
+        Assertions.assertEquals(0, PathTracker.mix(0));
+        Assertions.assertEquals(0xB456BCFC34C2CB2CL, PathTracker.mix(1));
+        Assertions.assertEquals(0xD24BD59F862A1DACL, PathTracker.mix(0xDEADBEEFL));
+    }
+}
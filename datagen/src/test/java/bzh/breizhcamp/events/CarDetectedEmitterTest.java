@@ -0,0 +1,151 @@
+package bzh.breizhcamp.events;
+
+import bzh.breizhcamp.avro.SensorDetectionsEvent;
+import bzh.breizhcamp.city.state.CarStore;
+import bzh.breizhcamp.city.state.SensorKeys;
+import bzh.breizhcamp.kafka.KafkaEventSink;
+import bzh.breizhcamp.kafka.SensorDetectionsEventEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+
+class CarDetectedEmitterTest {
+
+    @Test
+    public void testCoalesceWhenOverBudget() {
+        // Given
+        CarStore cars = new CarStore();
+        int car = cars.add("VIN", "PLATE", 1, 1, CarStore.NO_CAR, 1000, 0);
+        MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        EmissionGovernor governor = new EmissionGovernor(1, OverloadPolicy.COALESCE);
+        CarDetectedEmitter emitter = new CarDetectedEmitter(cars, new SensorKeys("city", 10, 1024), governor, "City");
+        emitter.initSink(new KafkaEventSink(producer, "topic"), 1);
+
+        // When
+        emitter.emit(car, 0);
+        cars.move(car, 2, 1);
+        emitter.emit(car, 1);
+
+        // Then
+        Assertions.assertEquals(0, producer.history().size());
+        Assertions.assertEquals(1, emitter.pendingCount());
+        Assertions.assertEquals(1, emitter.getCoalesced());
+
+        // When
+        governor.getCityRateLimiter().setRate(0);
+        boolean flushed = emitter.flushPending(2);
+
+        // Then
+        Assertions.assertTrue(flushed);
+        Assertions.assertEquals(1, producer.history().size());
+        Assertions.assertEquals("city-2-1", new String(producer.history().get(0).key()));
+    }
+
+    @Test
+    public void testDropWhenOverBudget() {
+        // Given
+        CarStore cars = new CarStore();
+        int car = cars.add("VIN", "PLATE", 1, 1, CarStore.NO_CAR, 1000, 0);
+        MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        CarDetectedEmitter emitter = new CarDetectedEmitter(cars, new SensorKeys("city", 10, 1024),
+                new EmissionGovernor(1, OverloadPolicy.DROP), "City");
+        emitter.initSink(new KafkaEventSink(producer, "topic"), 1);
+
+        // When
+        emitter.emit(car, 0);
+
+        // Then
+        Assertions.assertEquals(0, producer.history().size());
+        Assertions.assertEquals(0, emitter.pendingCount());
+        Assertions.assertEquals(1, emitter.getDropped());
+    }
+
+    @Test
+    public void testBatchBySensor() throws IOException {
+        // Given
+        CarStore cars = new CarStore();
+        int first = cars.add("VIN1", "PLATE1", 1, 1, CarStore.NO_CAR, 1000, 0);
+        int second = cars.add("VIN2", "PLATE2", 1, 1, CarStore.NO_CAR, 1000, 0);
+        int third = cars.add("VIN3", "PLATE3", 2, 1, CarStore.NO_CAR, 1000, 0);
+        MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        CarDetectedEmitter emitter = new CarDetectedEmitter(cars, new SensorKeys("city", 10, 1024),
+                new EmissionGovernor(0, OverloadPolicy.COALESCE), "City");
+        emitter.batchBySensor(1000);
+        emitter.initSink(new KafkaEventSink(producer, "topic"), 1);
+
+        // When
+        emitter.emit(first, 1000);
+        emitter.emit(third, 1200);
+        emitter.emit(second, 1500);
+        boolean flushedBeforeEnd = emitter.flushPending(1999);
+
+        // Then
+        Assertions.assertTrue(flushedBeforeEnd);
+        Assertions.assertEquals(0, producer.history().size());
+
+        // When
+        boolean flushed = emitter.flushPending(2000);
+
+        // Then
+        Assertions.assertTrue(flushed);
+        Assertions.assertEquals(2, producer.history().size());
+        Assertions.assertEquals(2, emitter.getSent());
+        Assertions.assertEquals(3, emitter.getBatchedDetections());
+        Assertions.assertEquals("city-1-1", new String(producer.history().get(0).key()));
+        Assertions.assertEquals(1500, producer.history().get(0).timestamp());
+        SensorDetectionsEvent event = decode(producer.history().get(0).value());
+        Assertions.assertEquals("city-1-1", event.getSensorId().toString());
+        Assertions.assertEquals("City", event.getCity().toString());
+        Assertions.assertEquals(Instant.ofEpochMilli(1000), event.getWindowStart());
+        Assertions.assertEquals(Instant.ofEpochMilli(2000), event.getWindowEnd());
+        Assertions.assertEquals(List.of("VIN1", "VIN2"),
+                event.getDetections().stream().map(detection -> detection.getVin().toString()).toList());
+        Assertions.assertEquals("PLATE2", event.getDetections().get(1).getLicensePlate().toString());
+        Assertions.assertEquals(Instant.ofEpochMilli(1500), event.getDetections().get(1).getTimestamp());
+        Assertions.assertEquals(1, decode(producer.history().get(1).value()).getDetections().size());
+    }
+
+    @Test
+    public void testWindowFlushedOnClose() {
+        // Given
+        CarStore cars = new CarStore();
+        int first = cars.add("VIN1", "PLATE1", 1, 1, CarStore.NO_CAR, 1000, 0);
+        int second = cars.add("VIN2", "PLATE2", 2, 1, CarStore.NO_CAR, 1000, 0);
+        MockProducer<byte[], byte[]> producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        CarDetectedEmitter emitter = new CarDetectedEmitter(cars, new SensorKeys("city", 10, 1024),
+                new EmissionGovernor(0, OverloadPolicy.COALESCE), "City");
+        emitter.batchBySensor(1000);
+        emitter.initSink(new KafkaEventSink(producer, "topic"), 1);
+        CarDetectedEmitter overBudgetEmitter = new CarDetectedEmitter(cars, new SensorKeys("city", 10, 1024),
+                new EmissionGovernor(1, OverloadPolicy.COALESCE), "City");
+        overBudgetEmitter.batchBySensor(1000);
+        overBudgetEmitter.initSink(new KafkaEventSink(producer, "topic"), 1);
+
+        // When
+        emitter.emit(first, 1000);
+        emitter.emit(second, 1200);
+        emitter.flushWindow();
+        overBudgetEmitter.emit(first, 1000);
+        overBudgetEmitter.emit(second, 1200);
+        overBudgetEmitter.flushWindow();
+
+        // Then
+        Assertions.assertEquals(2, producer.history().size());
+        Assertions.assertEquals(0, emitter.getDropped());
+        Assertions.assertEquals(2, overBudgetEmitter.getDropped());
+        Assertions.assertTrue(overBudgetEmitter.flushPending(Long.MAX_VALUE));
+    }
+
+    private static SensorDetectionsEvent decode(byte[] bytes) throws IOException {
+        return new SpecificDatumReader<>(SensorDetectionsEvent.class).read(null,
+                DecoderFactory.get().binaryDecoder(bytes, SensorDetectionsEventEncoder.HEADER_LENGTH,
+                        bytes.length - SensorDetectionsEventEncoder.HEADER_LENGTH, null));
+    }
+}
@@ -0,0 +1,40 @@
+package bzh.breizhcamp.events;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class EmissionGovernorTest {
+
+    @Test
+    public void testPermitsBatch() {
+        // Given
+        EmissionGovernor governor = new EmissionGovernor(50, OverloadPolicy.COALESCE);
+
+        // When
+        int lowRateBatch = governor.permitsBatch();
+        governor.getCityRateLimiter().setRate(1000);
+        int rateBatch = governor.permitsBatch();
+        governor.getCityRateLimiter().setRate(0);
+        int unlimitedBatch = governor.permitsBatch();
+
+        // Then
+        Assertions.assertEquals(1, lowRateBatch);
+        Assertions.assertEquals(10, rateBatch);
+        Assertions.assertEquals(64, unlimitedBatch);
+    }
+
+    @Test
+    public void testReleasedPermits() {
+        // Given
+        RateLimiter rateLimiter = new RateLimiter(1);
+
+        // When
+        int granted = rateLimiter.acquireUpTo(1);
+        rateLimiter.release(1);
+        int grantedAfterRelease = rateLimiter.acquireUpTo(2);
+
+        // Then
+        Assertions.assertEquals(0, granted);
+        Assertions.assertEquals(1, grantedAfterRelease);
+    }
+}
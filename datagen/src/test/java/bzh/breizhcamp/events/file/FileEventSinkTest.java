@@ -0,0 +1,125 @@
+package bzh.breizhcamp.events.file;
+
+import bzh.breizhcamp.kafka.CarDetectedEventEncoder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+class FileEventSinkTest {
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(SegmentFormat.class)
+    public void testReplaySegments(SegmentFormat format) throws IOException {
+        // Given
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(0, "Braavos");
+        FileEventSink sink = new FileEventSink(directory, "Braavos", format, 4096);
+
+        // When
+        for (int i = 0; i < 200; i++) {
+            byte[] key = ("braavos-" + i + "-1").getBytes(StandardCharsets.UTF_8);
+            int length = encoder.encode(key, "VIN" + i, "PLATE", i, 1, 1745000000000L + i);
+            sink.send(key, encoder.buffer(), length, 1745000000000L + i, (metadata, exception) -> Assertions.assertNull(exception));
+        }
+        sink.close();
+
+        // Then
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.sorted().toList();
+        }
+        Assertions.assertTrue(files.size() > 1);
+
+        List<Long> timestamps = new ArrayList<>();
+        for (Path file : files) {
+            try (SegmentReader reader = new SegmentReader(file, 42)) {
+                while (reader.next()) {
+                    int i = timestamps.size();
+                    Assertions.assertEquals("braavos-" + i + "-1", new String(reader.key(), StandardCharsets.UTF_8));
+                    encoder.encode(reader.key(), "VIN" + i, "PLATE", i, 1, 1745000000000L + i);
+                    byte[] expected = encoder.toByteArray();
+                    expected[4] = 42;
+                    Assertions.assertArrayEquals(expected, reader.value());
+                    timestamps.add(reader.timestamp());
+                }
+            }
+        }
+        Assertions.assertEquals(200, timestamps.size());
+        Assertions.assertEquals(1745000000199L, timestamps.get(199));
+    }
+
+    @Test
+    public void testCityCreatedAgain() throws IOException {
+        // Given
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(0, "Braavos");
+        FileEventSink sink = new FileEventSink(directory, "Braavos", SegmentFormat.CONFLUENT, 4096);
+        send(sink, encoder, 0, 100);
+        sink.close();
+
+        // When
+        FileEventSink sinkOfTheNewCity = new FileEventSink(directory, "Braavos", SegmentFormat.CONFLUENT, 4096);
+        send(sinkOfTheNewCity, encoder, 100, 200);
+        sinkOfTheNewCity.close();
+
+        // Then
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.sorted().toList();
+        }
+        List<Long> timestamps = new ArrayList<>();
+        for (Path file : files) {
+            try (SegmentReader reader = new SegmentReader(file, 42)) {
+                while (reader.next()) {
+                    timestamps.add(reader.timestamp());
+                }
+            }
+        }
+        // None lost, and the segments of the new city come after the previous ones
+        Assertions.assertEquals(LongStream.range(0, 200).map(i -> 1745000000000L + i).boxed().toList(), timestamps);
+    }
+
+    @Test
+    public void testAvroAcknowledgedWithTheirBlock() throws IOException {
+        // Given
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(0, "Braavos");
+        FileEventSink sink = new FileEventSink(directory, "Braavos", SegmentFormat.AVRO, 4096);
+        AtomicInteger acknowledged = new AtomicInteger();
+
+        // When
+        byte[] key = "braavos-0-1".getBytes(StandardCharsets.UTF_8);
+        int length = encoder.encode(key, "VIN", "PLATE", 0, 1, 1745000000000L);
+        sink.send(key, encoder.buffer(), length, 1745000000000L, (metadata, exception) -> {
+            Assertions.assertNull(exception);
+            acknowledged.incrementAndGet();
+        });
+        int acknowledgedBeforeClose = acknowledged.get();
+        sink.close();
+
+        // Then
+        // Only in the block in memory until then
+        Assertions.assertEquals(0, acknowledgedBeforeClose);
+        Assertions.assertEquals(1, acknowledged.get());
+    }
+
+    private static void send(FileEventSink sink, CarDetectedEventEncoder encoder, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte[] key = ("braavos-" + i + "-1").getBytes(StandardCharsets.UTF_8);
+            int length = encoder.encode(key, "VIN" + i, "PLATE", i, 1, 1745000000000L + i);
+            sink.send(key, encoder.buffer(), length, 1745000000000L + i, (metadata, exception) -> Assertions.assertNull(exception));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bzh.breizhcamp.kafka;
+
+import bzh.breizhcamp.avro.CarDetectedEvent;
+import bzh.breizhcamp.city.state.SensorKeys;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+class CarDetectedEventEncoderTest {
+
+    @Test
+    public void testWireFormat() throws IOException {
+        // Given
+        SensorKeys sensorKeys = new SensorKeys("king's_landing", 100, 1024);
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(42, "King's Landing");
+
+        // When
+        encoder.encode(sensorKeys.key(12, 100), "1HGCM82633A004352", "AB-123-ç€", 12, 100, 1745000000123L);
+        byte[] bytes = encoder.toByteArray();
+
+        // Then
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Assertions.assertEquals(0, buffer.get());
+        Assertions.assertEquals(42, buffer.getInt());
+        CarDetectedEvent event = new SpecificDatumReader<>(CarDetectedEvent.class).read(null,
+                DecoderFactory.get().binaryDecoder(bytes, CarDetectedEventEncoder.HEADER_LENGTH,
+                        bytes.length - CarDetectedEventEncoder.HEADER_LENGTH, null));
+        Assertions.assertEquals("king's_landing-12-100", event.getSensorId().toString());
+        Assertions.assertEquals("1HGCM82633A004352", event.getVin().toString());
+        Assertions.assertEquals("AB-123-ç€", event.getLicensePlate().toString());
+        Assertions.assertEquals("King's Landing", event.getCity().toString());
+        Assertions.assertEquals(12, event.getX());
+        Assertions.assertEquals(100, event.getY());
+        Assertions.assertEquals(Instant.ofEpochMilli(1745000000123L), event.getTimestamp());
+        Assertions.assertNull(event.getPathId());
+        Assertions.assertNull(event.getPathSensorIds());
+    }
+
+    @Test
+    public void testPath() throws IOException {
+        // Given
+        SensorKeys sensorKeys = new SensorKeys("braavos", 100, 1024);
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(42, "Braavos");
+        byte[][] pathSensorIds = {sensorKeys.key(1, 2), sensorKeys.key(1, 3), sensorKeys.key(2, 3), null};
+
+        // When
+        encoder.encode(sensorKeys.key(2, 3), "1HGCM82633A004352", "AB-123-CD", 2, 3, 1745000000123L,
+                "00ff00ff00ff00ff".getBytes(StandardCharsets.UTF_8), pathSensorIds, 3);
+        CarDetectedEvent event = decode(encoder.toByteArray());
+        encoder.encode(sensorKeys.key(2, 3), "1HGCM82633A004352", "AB-123-CD", 2, 3, 1745000000123L,
+                "00ff00ff00ff00ff".getBytes(StandardCharsets.UTF_8), null, 0);
+        CarDetectedEvent eventWithoutSensorIds = decode(encoder.toByteArray());
+
+        // Then
+        Assertions.assertEquals("00ff00ff00ff00ff", event.getPathId().toString());
+        Assertions.assertEquals(List.of("braavos-1-2", "braavos-1-3", "braavos-2-3"),
+                event.getPathSensorIds().stream().map(CharSequence::toString).toList());
+        Assertions.assertEquals(Instant.ofEpochMilli(1745000000123L), event.getTimestamp());
+        Assertions.assertEquals("00ff00ff00ff00ff", eventWithoutSensorIds.getPathId().toString());
+        Assertions.assertNull(eventWithoutSensorIds.getPathSensorIds());
+    }
+
+    private static CarDetectedEvent decode(byte[] bytes) throws IOException {
+        return new SpecificDatumReader<>(CarDetectedEvent.class).read(null,
+                DecoderFactory.get().binaryDecoder(bytes, CarDetectedEventEncoder.HEADER_LENGTH,
+                        bytes.length - CarDetectedEventEncoder.HEADER_LENGTH, null));
+    }
+
+    @Test
+    public void testSensorKeys() {
+        // Given
+        SensorKeys cachedKeys = new SensorKeys("old_ghis", 10, 1024);
+        SensorKeys builtKeys = new SensorKeys("old_ghis", 10000, 1024);
+
+        // Then
+        Assertions.assertEquals("old_ghis-0-10", new String(cachedKeys.key(0, 10), StandardCharsets.UTF_8));
+        Assertions.assertSame(cachedKeys.key(0, 10), cachedKeys.key(0, 10));
+        Assertions.assertEquals("old_ghis-9999-7", new String(builtKeys.key(9999, 7), StandardCharsets.UTF_8));
+    }
+}
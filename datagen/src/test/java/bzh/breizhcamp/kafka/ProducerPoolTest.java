@@ -0,0 +1,32 @@
+package bzh.breizhcamp.kafka;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+class ProducerPoolTest {
+
+    @Test
+    public void testSharedProducers() {
+        // Given
+        MockProducer<byte[], byte[]> first = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        MockProducer<byte[], byte[]> second = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        ProducerPool pool = new ProducerPool(new Properties(), List.of(first, second));
+
+        // When
+        List<Producer<byte[], byte[]>> producers = List.of(pool.nextProducer(), pool.nextProducer(), pool.nextProducer());
+        pool.close();
+
+        // Then
+        Assertions.assertSame(first, producers.get(0));
+        Assertions.assertSame(second, producers.get(1));
+        Assertions.assertSame(first, producers.get(2));
+        Assertions.assertTrue(first.closed());
+        Assertions.assertTrue(second.closed());
+    }
+}
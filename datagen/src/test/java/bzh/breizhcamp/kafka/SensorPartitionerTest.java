@@ -0,0 +1,135 @@
+package bzh.breizhcamp.kafka;
+
+import bzh.breizhcamp.city.state.SensorKeys;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+class SensorPartitionerTest {
+
+    @Test
+    public void testSmallCitySpread() {
+        // Given
+        SensorKeys sensorKeys = new SensorKeys("6f1e2a3b-1c2d-4e5f-8a9b-0c1d2e3f4a5b", 1, 1024);
+
+        // When
+        Set<Integer> partitions = new HashSet<>();
+        for (int x = 0; x <= 1; x++) {
+            for (int y = 0; y <= 1; y++) {
+                int partition = SensorPartitioner.partition(sensorKeys.key(x, y), 6);
+                Assertions.assertEquals(partition, SensorPartitioner.partition(sensorKeys.key(x, y), 6));
+                partitions.add(partition);
+            }
+        }
+
+        // Then
+        Assertions.assertEquals(4, partitions.size());
+    }
+
+    @Test
+    public void testLargeCitySpread() {
+        // Given
+        SensorKeys sensorKeys = new SensorKeys("city-id", 100, 1024);
+        int[] counts = new int[6];
+
+        // When
+        for (int x = 0; x <= 100; x++) {
+            for (int y = 0; y <= 100; y++) {
+                counts[SensorPartitioner.partition(sensorKeys.key(x, y), 6)]++;
+            }
+        }
+
+        // Then
+        int mean = 101 * 101 / 6;
+        for (int count : counts) {
+            Assertions.assertTrue(Math.abs(count - mean) < mean / 20, "Uneven partition: " + count);
+        }
+        Assertions.assertTrue(SensorPartitioner.partition("not a sensor".getBytes(), 6) >= 0);
+    }
+
+    @Test
+    public void testHeartbeatsOnIdlePartitions() {
+        // Given
+        MockProducer<byte[], byte[]> producer = producer(6);
+        SensorKeys sensorKeys = new SensorKeys("city-id", 1, 1024);
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(1, "City");
+
+        try (KafkaEventSink sink = new KafkaEventSink(producer, "topic")) {
+            sink.startHeartbeats(new CarDetectedEventEncoder(1, "City"), 60_000);
+            for (int x = 0; x <= 1; x++) {
+                int length = encoder.encode(sensorKeys.key(x, 0), "VIN", "PLATE", x, 0, 100_000);
+                sink.send(sensorKeys.key(x, 0), encoder.buffer(), length, 100_000, null);
+            }
+
+            // When
+            sink.sendHeartbeats();
+
+            // Then
+            List<ProducerRecord<byte[], byte[]>> heartbeats = producer.history().subList(2, producer.history().size());
+            Set<Integer> eventPartitions = new HashSet<>();
+            producer.history().subList(0, 2).forEach(record -> eventPartitions.add(
+                    SensorPartitioner.partition(record.key(), 6)));
+            Assertions.assertEquals(6 - eventPartitions.size(), heartbeats.size());
+            for (ProducerRecord<byte[], byte[]> heartbeat : heartbeats) {
+                Assertions.assertFalse(eventPartitions.contains(heartbeat.partition()));
+                Assertions.assertEquals(100_000, heartbeat.timestamp());
+                Assertions.assertEquals("heartbeat", new String(heartbeat.key()));
+            }
+
+            // When
+            sink.sendHeartbeats();
+
+            // Then
+            Assertions.assertEquals(2 + heartbeats.size(), producer.history().size());
+        }
+    }
+
+    @Test
+    public void testHeartbeatsSharedByTheCities() {
+        // Given
+        MockProducer<byte[], byte[]> producer = producer(6);
+        SensorKeys sensorKeys = new SensorKeys("city-id", 1, 1024);
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(1, "City");
+        PartitionActivity activity = new PartitionActivity(6);
+
+        try (KafkaEventSink sink = new KafkaEventSink(producer, "topic");
+             KafkaEventSink otherCitySink = new KafkaEventSink(producer, "topic")) {
+            sink.startHeartbeats(new CarDetectedEventEncoder(1, "City"), 60_000, activity);
+            otherCitySink.startHeartbeats(new CarDetectedEventEncoder(1, "Other City"), 60_000, activity);
+            int length = encoder.encode(sensorKeys.key(0, 0), "VIN", "PLATE", 0, 0, 100_000);
+            sink.send(sensorKeys.key(0, 0), encoder.buffer(), length, 100_000, null);
+            int eventPartition = SensorPartitioner.partition(sensorKeys.key(0, 0), 6);
+
+            // When
+            otherCitySink.sendHeartbeats();
+            sink.sendHeartbeats();
+
+            // Then
+            List<ProducerRecord<byte[], byte[]>> heartbeats = producer.history().subList(1, producer.history().size());
+            // One heartbeat per idle partition, none to the partition of the other city
+            Assertions.assertEquals(5, heartbeats.size());
+            Assertions.assertEquals(5, heartbeats.stream().map(ProducerRecord::partition).distinct().count());
+            Assertions.assertTrue(heartbeats.stream().noneMatch(heartbeat -> heartbeat.partition() == eventPartition));
+        }
+    }
+
+    private static MockProducer<byte[], byte[]> producer(int partitions) {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitionInfos = IntStream.range(0, partitions)
+                .mapToObj(partition -> new PartitionInfo("topic", partition, node, new Node[]{node}, new Node[]{node}))
+                .toList();
+        Cluster cluster = new Cluster("cluster", List.of(node), partitionInfos, Collections.emptySet(), Collections.emptySet());
+        return new MockProducer<>(cluster, true, new SensorPartitioner(), new ByteArraySerializer(), new ByteArraySerializer());
+    }
+}
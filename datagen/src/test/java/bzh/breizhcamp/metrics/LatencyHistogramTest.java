@@ -0,0 +1,45 @@
+package bzh.breizhcamp.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long micros = 0; micros < 1_000_000; micros++) {
+            // When
+            int index = LatencyHistogram.index(micros);
+
+            // Then
+            Assertions.assertTrue(micros <= LatencyHistogram.upperMicros(index));
+            Assertions.assertTrue(index == 0 || micros > LatencyHistogram.upperMicros(index - 1));
+            Assertions.assertTrue(LatencyHistogram.upperMicros(index) - micros <= micros / 16);
+        }
+    }
+
+    @Test
+    public void testPrometheusHistogram() {
+        // Given
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+
+        // When
+        first.recordMicros(50);
+        first.recordMicros(2_000);
+        second.recordNanos(3_000_000_000L);
+        String scrape = new PrometheusWriter()
+                .histogram("latency_seconds", List.of(first, second), "city", "King's \"Landing\"")
+                .toString();
+
+        // Then
+        Assertions.assertTrue(scrape.contains("latency_seconds_bucket{city=\"King's \\\"Landing\\\"\",le=\"0.0001\"} 1\n"));
+        Assertions.assertTrue(scrape.contains("latency_seconds_bucket{city=\"King's \\\"Landing\\\"\",le=\"0.0025\"} 2\n"));
+        Assertions.assertTrue(scrape.contains("latency_seconds_bucket{city=\"King's \\\"Landing\\\"\",le=\"2.5\"} 2\n"));
+        Assertions.assertTrue(scrape.contains("latency_seconds_bucket{city=\"King's \\\"Landing\\\"\",le=\"+Inf\"} 3\n"));
+        Assertions.assertTrue(scrape.contains("latency_seconds_sum{city=\"King's \\\"Landing\\\"\"} 3.00205\n"));
+        Assertions.assertTrue(scrape.contains("latency_seconds_count{city=\"King's \\\"Landing\\\"\"} 3\n"));
+    }
+}
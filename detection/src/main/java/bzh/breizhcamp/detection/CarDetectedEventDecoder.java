@@ -0,0 +1,87 @@
+package bzh.breizhcamp.detection;
+
+import lombok.Getter;
+
+/**
+ * Decodes {@link bzh.breizhcamp.avro.CarDetectedEvent} records in the Confluent wire format, as written by
+ * {@link bzh.breizhcamp.kafka.CarDetectedEventEncoder}, without building Avro objects: string fields are left in the
+ * event buffer, as offsets and lengths. Fields appended to the schema after the timestamp are ignored.
+ * Not thread safe: one decoder per consuming thread.
+ */
+@Getter
+public class CarDetectedEventDecoder {
+    private static final byte MAGIC_BYTE = 0x0;
+
+    private byte[] buffer;
+    private int limit;
+    private int position;
+
+    private int sensorIdOffset;
+    private int sensorIdLength;
+    private int vinOffset;
+    private int vinLength;
+    private int licensePlateOffset;
+    private int licensePlateLength;
+    private int cityOffset;
+    private int cityLength;
+    private int x;
+    private int y;
+    private long timestamp;
+
+    /**
+     * Decodes an event: its fields are available until the next call.
+     *
+     * @return false if the event is not in the Confluent wire format, or is truncated
+     */
+    public boolean decode(byte[] value, int length) {
+        if (length < 5 || value[0] != MAGIC_BYTE) {
+            return false;
+        }
+        buffer = value;
+        limit = length;
+        position = 5;
+        sensorIdLength = readStringLength();
+        sensorIdOffset = position;
+        position += sensorIdLength;
+        vinLength = readStringLength();
+        vinOffset = position;
+        position += vinLength;
+        licensePlateLength = readStringLength();
+        licensePlateOffset = position;
+        position += licensePlateLength;
+        cityLength = readStringLength();
+        cityOffset = position;
+        position += cityLength;
+        x = (int) readLong();
+        y = (int) readLong();
+        timestamp = readLong();
+        return position <= length;
+    }
+
+    // Once past the limit, the position stays there and the next reads return 0
+    private int readStringLength() {
+        long stringLength = readLong();
+        if (stringLength < 0 || stringLength > limit - position) {
+            position = limit + 1;
+            return 0;
+        }
+        return (int) stringLength;
+    }
+
+    // Avro zig-zag variable length long
+    private long readLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position >= limit) {
+                position = limit + 1;
+                return 0;
+            }
+            b = buffer[position++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,170 @@
+package bzh.breizhcamp.detection;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.services.CityService;
+import bzh.breizhcamp.events.file.SegmentFormat;
+import bzh.breizhcamp.events.file.SegmentReader;
+import bzh.breizhcamp.kafka.Configuration;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static bzh.breizhcamp.kafka.Configuration.KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY;
+
+/**
+ * Runs the reference detections on the detection events of a Kafka topic, of the segment files of a directory, or of a
+ * city simulated in the same process.
+ * Usage:
+ * <pre>
+ * Detection kafka [topic]
+ * Detection file &lt;directory&gt;
+ * Detection city [size] [cars] [followers] [seconds]
+ * </pre>
+ */
+@Slf4j
+public class Detection {
+    public static final String KAFKA_GROUP_ID_PROPERTY = "detection.kafka.group.id";
+    public static final String KAFKA_LATENESS_MILLIS_PROPERTY = "detection.kafka.lateness.millis";
+    private static final int REORDER_MAX_EVENTS = 1 << 20;
+    private static final long REPORT_INTERVAL_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Detection kafka [topic] | file <directory> | city [size] [cars] [followers] [seconds]");
+            System.exit(1);
+        }
+        Properties configuration = Configuration.get();
+        DetectionEngine engine = DetectionEngine.fromConfiguration(configuration, new DetectionListener() {
+            @Override
+            public void onRevisit(Revisit revisit) {
+                log.trace("{}", revisit);
+            }
+
+            @Override
+            public void onFollower(Follower follower) {
+                log.info("{}", follower);
+            }
+        });
+        switch (args[0]) {
+            case "kafka" -> fromKafka(configuration,
+                    args.length > 1 ? args[1] : (String) configuration.get(KAFKA_CAR_DETECTED_TOPIC_NAME_PROPERTY), engine);
+            case "file" -> fromFiles(Path.of(args[1]), engine);
+            case "city" -> fromCity(args.length > 1 ? Integer.parseInt(args[1]) : 100,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 1000,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 10,
+                    args.length > 4 ? Integer.parseInt(args[4]) : 60,
+                    engine);
+            default -> throw new IllegalArgumentException("Unknown source: " + args[0]);
+        }
+    }
+
+    /**
+     * Consumes a topic from its beginning, until the process is stopped. The topic is keyed by sensor: the events of a
+     * car, spread over its partitions, are put back in timestamp order within the configured lateness.
+     */
+    static void fromKafka(Properties configuration, String topic, DetectionEngine engine) {
+        Properties properties = new Properties();
+        properties.putAll(configuration);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, configuration.get(KAFKA_GROUP_ID_PROPERTY));
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        CarDetectedEventDecoder decoder = new CarDetectedEventDecoder();
+        ReorderBuffer reorderBuffer = new ReorderBuffer(engine,
+                Long.parseLong((String) configuration.get(KAFKA_LATENESS_MILLIS_PROPERTY)), REORDER_MAX_EVENTS);
+        try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(properties, new ByteArrayDeserializer(), new ByteArrayDeserializer())) {
+            consumer.subscribe(List.of(topic));
+            long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_MILLIS;
+            while (!Thread.currentThread().isInterrupted()) {
+                for (ConsumerRecord<byte[], byte[]> record : consumer.poll(Duration.ofMillis(500))) {
+                    if (record.value() != null && decoder.decode(record.value(), record.value().length)) {
+                        reorderBuffer.add(decoder);
+                    }
+                }
+                if (System.currentTimeMillis() >= nextReport) {
+                    report(engine);
+                    nextReport += REPORT_INTERVAL_MILLIS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads all the segment files of a directory, merged in timestamp order: each file is in timestamp order.
+     */
+    static void fromFiles(Path directory, DetectionEngine engine) throws IOException {
+        List<SegmentReader> readers = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path file : paths.filter(path -> path.toString().endsWith(SegmentFormat.CONFLUENT.extension())
+                    || path.toString().endsWith(SegmentFormat.AVRO.extension())).sorted().toList()) {
+                readers.add(new SegmentReader(file, 0));
+            }
+        }
+        PriorityQueue<SegmentReader> merge = new PriorityQueue<>(Comparator.comparingLong(SegmentReader::timestamp));
+        for (SegmentReader reader : readers) {
+            if (reader.next()) {
+                merge.add(reader);
+            }
+        }
+        CarDetectedEventDecoder decoder = new CarDetectedEventDecoder();
+        long start = System.nanoTime();
+        try {
+            while (!merge.isEmpty()) {
+                SegmentReader reader = merge.poll();
+                byte[] value = reader.value();
+                if (decoder.decode(value, value.length)) {
+                    engine.onEvent(decoder);
+                }
+                if (reader.next()) {
+                    merge.add(reader);
+                }
+            }
+        } finally {
+            for (SegmentReader reader : readers) {
+                reader.close();
+            }
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000L);
+        log.info("{} events read in {} ms ({} events/s)", engine.getEvents(), elapsedMillis, engine.getEvents() * 1000 / elapsedMillis);
+        report(engine);
+    }
+
+    /**
+     * Simulates a city, some of its cars following others, and detects its events as they are generated.
+     */
+    static void fromCity(int size, int carCount, int followerCount, int seconds, DetectionEngine engine) throws InterruptedException {
+        DetectionEventSink sink = new DetectionEventSink(engine);
+        try (CityService cityService = new CityService(size).initSink(sink, 0)) {
+            List<Car> leaders = cityService.startNewCars(null, carCount);
+            SplittableRandom random = new SplittableRandom();
+            for (int i = 0; i < followerCount; i++) {
+                cityService.startNewCars(leaders.get(random.nextInt(leaders.size())).getVin(), 1);
+            }
+            for (long elapsed = 0; elapsed < seconds * 1000L; elapsed += REPORT_INTERVAL_MILLIS) {
+                Thread.sleep(Math.min(REPORT_INTERVAL_MILLIS, seconds * 1000L - elapsed));
+                sink.withEngine(Detection::report);
+            }
+        }
+    }
+
+    static void report(DetectionEngine engine) {
+        Footprint footprint = engine.footprint();
+        log.info("{} events, {} cars, {} revisits, {} followers, {} ring evictions, {} path evictions, {} car evictions, "
+                        + "{} late events", engine.getEvents(), engine.cars(), engine.getRevisits(), engine.getFollowers(),
+                engine.getRingEvictions(), engine.getPathEvictions(), engine.getCarEvictions(), engine.getLateEvents());
+        log.info("State: {} bytes, {} bytes per car, {} bytes of path table", footprint.totalBytes(),
+                String.format("%.1f", footprint.bytesPerCar()), footprint.getPathTableBytes());
+    }
+}
@@ -0,0 +1,457 @@
+package bzh.breizhcamp.detection;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Reference implementation of the detections of the Flink lab, with a state bounded by construction:
+ * <ul>
+ *     <li>revisits: a car detected twice by the same sensor within a window, like {@code PATTERN (A1 A2)} partitioned by
+ *     sensor and VIN. Each car keeps a ring of its latest sensors, so sensors older than the ring are forgotten</li>
+ *     <li>followers: two cars detected by the same sequence of sensors within a window, like the {@code car_paths}
+ *     approach. Each car keeps its latest path, and a fixed size table keeps the latest car of each path</li>
+ * </ul>
+ * The cars not seen for longer than both windows, in event time, are forgotten and their slots reused, and the number of
+ * cars is capped: past it, the least recently seen car of a few is forgotten even if still within a window.
+ * Sensor ids and VINs are only compared through 64 bits hashes: collisions are possible but unlikely below billions of
+ * them. Events without VIN (heartbeats) are ignored. The events of a car are expected in timestamp order: an event older
+ * than the latest one of its car is counted as late and ignored, see {@link ReorderBuffer} for sources which interleave
+ * partitions.
+ * Not thread safe: one thread feeds the engine.
+ */
+public class DetectionEngine {
+    public static final String REVISIT_WINDOW_MILLIS_PROPERTY = "detection.revisit.window.millis";
+    public static final String REVISIT_RING_SIZE_PROPERTY = "detection.revisit.ring.size";
+    public static final String PATH_LENGTH_PROPERTY = "detection.path.length";
+    public static final String FOLLOW_WINDOW_MILLIS_PROPERTY = "detection.follow.window.millis";
+    public static final String PATH_TABLE_SIZE_PROPERTY = "detection.path.table.size";
+    public static final String MAX_CARS_PROPERTY = "detection.max.cars";
+
+    private static final long EMPTY = 0;
+    // Slots of the path table looked at for a path: a path not found there is not in the table
+    private static final int MAX_PROBES = 8;
+    // Cars looked at for idleness on each new car, and for the least recently seen one when the cars are capped
+    private static final int SWEEP_STEP = 2;
+    private static final int EVICTION_PROBES = 64;
+
+    private final long revisitWindowMillis;
+    private final int ringSize;
+    private final int pathLength;
+    private final long followWindowMillis;
+    private final long idleMillis;
+    private final int maxCars;
+    private final DetectionListener listener;
+
+    // Latest timestamp of all the events
+    private long watermark;
+
+    // Cars, by index: identities. Indexes up to usedCars are allocated, the free ones are stacked for reuse
+    private int usedCars;
+    private int freeCount;
+    private int[] freeCars = new int[1024];
+    private int sweepCursor;
+    private String[] vins = new String[1024];
+    private long[] vinHashes = new long[1024];
+    private long vinBytes;
+    private long[] vinTableHashes = new long[2048];
+    private int[] vinTableCars = new int[2048];
+    // Cars, by index: timestamp of the latest event, and count of the reuses of the index
+    private long[] lastSeen = new long[1024];
+    private int[] generations = new int[1024];
+
+    // Cars, by index: the latest sensors of the car, as a ring, with their timestamps and whether a revisit consumed them
+    private long[] ringSensors;
+    private long[] ringTimestamps;
+    private boolean[] ringConsumed;
+    private int[] ringHeads = new int[1024];
+    // Cars, by index: the latest path of the car, oldest sensor first, with its number of sensors
+    private long[] pathSensors;
+    private int[] pathCounts = new int[1024];
+
+    // Latest car of each path, by path hash, with the generation of its index
+    private final long[] pathTableHashes;
+    private final int[] pathTableCars;
+    private final int[] pathTableGenerations;
+    private final long[] pathTableTimestamps;
+
+    @Getter
+    private long events;
+    @Getter
+    private long revisits;
+    @Getter
+    private long followers;
+    // Sensors of a ring overwritten while still within the revisit window: revisits which may be missed
+    @Getter
+    private long ringEvictions;
+    // Paths of the table overwritten while still within the follow window: followers which may be missed
+    @Getter
+    private long pathEvictions;
+    // Cars forgotten while still within a window, the number of cars being capped
+    @Getter
+    private long carEvictions;
+    // Events older than the latest one of their car, ignored
+    @Getter
+    private long lateEvents;
+
+    /**
+     * @param ringSize      number of sensors kept per car for the revisits, at least the revisit window divided by the
+     *                      moving rate of the cars to miss none
+     * @param pathTableSize number of paths kept, rounded up to a power of two
+     * @param maxCars       number of cars kept at most
+     */
+    public DetectionEngine(long revisitWindowMillis, int ringSize, int pathLength, long followWindowMillis,
+                           int pathTableSize, int maxCars, DetectionListener listener) {
+        if (maxCars < 1) {
+            throw new IllegalArgumentException("At least one car must be kept: " + maxCars);
+        }
+        this.revisitWindowMillis = revisitWindowMillis;
+        this.ringSize = ringSize;
+        this.pathLength = pathLength;
+        this.followWindowMillis = followWindowMillis;
+        this.idleMillis = Math.max(revisitWindowMillis, followWindowMillis);
+        this.maxCars = maxCars;
+        this.listener = listener;
+        this.ringSensors = new long[1024 * ringSize];
+        this.ringTimestamps = new long[1024 * ringSize];
+        this.ringConsumed = new boolean[1024 * ringSize];
+        this.pathSensors = new long[1024 * pathLength];
+        int capacity = Integer.highestOneBit(Math.max(MAX_PROBES, pathTableSize - 1)) << 1;
+        this.pathTableHashes = new long[capacity];
+        this.pathTableCars = new int[capacity];
+        this.pathTableGenerations = new int[capacity];
+        this.pathTableTimestamps = new long[capacity];
+    }
+
+    public static DetectionEngine fromConfiguration(Properties configuration, DetectionListener listener) {
+        return new DetectionEngine(Long.parseLong((String) configuration.get(REVISIT_WINDOW_MILLIS_PROPERTY)),
+                Integer.parseInt((String) configuration.get(REVISIT_RING_SIZE_PROPERTY)),
+                Integer.parseInt((String) configuration.get(PATH_LENGTH_PROPERTY)),
+                Long.parseLong((String) configuration.get(FOLLOW_WINDOW_MILLIS_PROPERTY)),
+                Integer.parseInt((String) configuration.get(PATH_TABLE_SIZE_PROPERTY)),
+                Integer.parseInt((String) configuration.get(MAX_CARS_PROPERTY)),
+                listener);
+    }
+
+    /**
+     * Processes the last event decoded by a decoder.
+     */
+    public void onEvent(CarDetectedEventDecoder event) {
+        onEvent(event.getBuffer(), event.getSensorIdOffset(), event.getSensorIdLength(),
+                event.getBuffer(), event.getVinOffset(), event.getVinLength(), event.getTimestamp());
+    }
+
+    /**
+     * Processes one detection event. Events of a car are expected in timestamp order, with positive timestamps: an event
+     * older than the latest one of its car is ignored.
+     *
+     * @param sensorId UTF-8 bytes of the sensor id
+     * @param vin      UTF-8 bytes of the VIN
+     */
+    public void onEvent(byte[] sensorId, int sensorIdOffset, int sensorIdLength, byte[] vin, int vinOffset, int vinLength,
+                        long timestamp) {
+        if (vinLength == 0) {
+            return;
+        }
+        events++;
+        watermark = Math.max(watermark, timestamp);
+        int car = car(vin, vinOffset, vinLength);
+        if (timestamp < lastSeen[car]) {
+            lateEvents++;
+            return;
+        }
+        lastSeen[car] = timestamp;
+        long sensor = hash(sensorId, sensorIdOffset, sensorIdLength);
+        detectRevisit(car, sensor, sensorId, sensorIdOffset, sensorIdLength, timestamp);
+        detectFollower(car, sensor, sensorId, sensorIdOffset, sensorIdLength, timestamp);
+    }
+
+    /**
+     * @return the number of cars kept
+     */
+    public int cars() {
+        return usedCars - freeCount;
+    }
+
+    public Footprint footprint() {
+        long carStateBytes = longArrayBytes(ringSensors.length) + longArrayBytes(ringTimestamps.length)
+                + booleanArrayBytes(ringConsumed.length) + intArrayBytes(ringHeads.length)
+                + longArrayBytes(pathSensors.length) + intArrayBytes(pathCounts.length)
+                + longArrayBytes(lastSeen.length) + intArrayBytes(generations.length) + intArrayBytes(freeCars.length);
+        long identityBytes = referenceArrayBytes(vins.length) + vinBytes + longArrayBytes(vinHashes.length)
+                + longArrayBytes(vinTableHashes.length) + intArrayBytes(vinTableCars.length);
+        long pathTableBytes = longArrayBytes(pathTableHashes.length) + intArrayBytes(pathTableCars.length)
+                + intArrayBytes(pathTableGenerations.length) + longArrayBytes(pathTableTimestamps.length);
+        return new Footprint(cars(), carStateBytes, identityBytes, pathTableBytes);
+    }
+
+    private void detectRevisit(int car, long sensor, byte[] sensorId, int sensorIdOffset, int sensorIdLength, long timestamp) {
+        int base = car * ringSize;
+        int head = ringHeads[car];
+        // From the latest sensor to the oldest one, within the window
+        for (int i = 1; i <= ringSize; i++) {
+            int slot = base + Math.floorMod(head - i, ringSize);
+            long slotTimestamp = ringTimestamps[slot];
+            if (slotTimestamp == EMPTY || timestamp - slotTimestamp > revisitWindowMillis) {
+                break;
+            }
+            if (!ringConsumed[slot] && ringSensors[slot] == sensor) {
+                // Both detections are consumed by the match: the next one starts a new pattern
+                ringConsumed[slot] = true;
+                revisits++;
+                listener.onRevisit(new Revisit(vins[car], string(sensorId, sensorIdOffset, sensorIdLength), slotTimestamp, timestamp));
+                return;
+            }
+        }
+        int slot = base + head;
+        if (ringTimestamps[slot] != EMPTY && !ringConsumed[slot] && timestamp - ringTimestamps[slot] <= revisitWindowMillis) {
+            ringEvictions++;
+        }
+        ringSensors[slot] = sensor;
+        ringTimestamps[slot] = timestamp;
+        ringConsumed[slot] = false;
+        ringHeads[car] = head + 1 == ringSize ? 0 : head + 1;
+    }
+
+    private void detectFollower(int car, long sensor, byte[] sensorId, int sensorIdOffset, int sensorIdLength, long timestamp) {
+        int base = car * pathLength;
+        int count = pathCounts[car];
+        // Sensors are shifted in the path only once it is full: the path is small
+        if (count < pathLength) {
+            pathSensors[base + count] = sensor;
+            pathCounts[car] = ++count;
+            if (count < pathLength) {
+                return;
+            }
+        } else {
+            System.arraycopy(pathSensors, base + 1, pathSensors, base, pathLength - 1);
+            pathSensors[base + pathLength - 1] = sensor;
+        }
+        long path = 1;
+        for (int i = base; i < base + pathLength; i++) {
+            path = mix(path * 31 + pathSensors[i]);
+        }
+        if (path == EMPTY) {
+            path = 1;
+        }
+
+        int mask = pathTableHashes.length - 1;
+        int index = (int) path & mask;
+        int free = -1;
+        int oldest = index;
+        for (int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & mask) {
+            if (pathTableHashes[index] == path) {
+                int leader = pathTableCars[index];
+                long leaderTimestamp = pathTableTimestamps[index];
+                // The index of a forgotten leader may have been reused by another car
+                if (leader != car && generations[leader] == pathTableGenerations[index]
+                        && timestamp - leaderTimestamp <= followWindowMillis) {
+                    // Both paths are consumed by the match
+                    pathTableHashes[index] = EMPTY;
+                    followers++;
+                    listener.onFollower(new Follower(vins[leader], vins[car], string(sensorId, sensorIdOffset, sensorIdLength),
+                            leaderTimestamp, timestamp));
+                } else {
+                    pathTableCars[index] = car;
+                    pathTableGenerations[index] = generations[car];
+                    pathTableTimestamps[index] = timestamp;
+                }
+                return;
+            }
+            if (free < 0 && (pathTableHashes[index] == EMPTY || timestamp - pathTableTimestamps[index] > followWindowMillis)) {
+                free = index;
+            }
+            if (pathTableTimestamps[index] < pathTableTimestamps[oldest]) {
+                oldest = index;
+            }
+        }
+        if (free < 0) {
+            pathEvictions++;
+            free = oldest;
+        }
+        pathTableHashes[free] = path;
+        pathTableCars[free] = car;
+        pathTableGenerations[free] = generations[car];
+        pathTableTimestamps[free] = timestamp;
+    }
+
+    private int car(byte[] vin, int vinOffset, int vinLength) {
+        long hash = hash(vin, vinOffset, vinLength);
+        int mask = vinTableHashes.length - 1;
+        for (int index = (int) hash & mask; vinTableHashes[index] != EMPTY; index = (index + 1) & mask) {
+            if (vinTableHashes[index] == hash) {
+                return vinTableCars[index];
+            }
+        }
+        sweep();
+        int car = allocateCar();
+        vins[car] = string(vin, vinOffset, vinLength);
+        vinBytes += stringBytes(vins[car].length());
+        vinHashes[car] = hash;
+        lastSeen[car] = 0;
+        mask = vinTableHashes.length - 1;
+        int index = (int) hash & mask;
+        while (vinTableHashes[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        vinTableHashes[index] = hash;
+        vinTableCars[index] = car;
+        // Half full at most
+        if (cars() * 2 > vinTableHashes.length) {
+            growVinTable();
+        }
+        return car;
+    }
+
+    /**
+     * Forgets the cars idle for longer than both windows among the next ones, a few at a time.
+     */
+    private void sweep() {
+        for (int i = 0; i < SWEEP_STEP && usedCars > 0; i++) {
+            int car = sweepCursor;
+            sweepCursor = car + 1 == usedCars ? 0 : car + 1;
+            if (vins[car] != null && watermark - lastSeen[car] > idleMillis) {
+                releaseCar(car);
+            }
+        }
+    }
+
+    private int allocateCar() {
+        if (freeCount == 0) {
+            if (usedCars < maxCars) {
+                if (usedCars == vins.length) {
+                    growCars();
+                }
+                return usedCars++;
+            }
+            // Capped: the least recently seen car of the next ones makes room
+            int oldest = sweepCursor;
+            for (int i = 0, car = sweepCursor; i < EVICTION_PROBES && i < usedCars; i++, car = car + 1 == usedCars ? 0 : car + 1) {
+                if (lastSeen[car] < lastSeen[oldest]) {
+                    oldest = car;
+                }
+            }
+            sweepCursor = oldest + 1 == usedCars ? 0 : oldest + 1;
+            if (watermark - lastSeen[oldest] <= idleMillis) {
+                carEvictions++;
+            }
+            releaseCar(oldest);
+        }
+        return freeCars[--freeCount];
+    }
+
+    private void releaseCar(int car) {
+        removeVin(vinHashes[car]);
+        vinBytes -= stringBytes(vins[car].length());
+        vins[car] = null;
+        // Invalidates the paths of the car left in the path table
+        generations[car]++;
+        Arrays.fill(ringTimestamps, car * ringSize, (car + 1) * ringSize, EMPTY);
+        Arrays.fill(ringConsumed, car * ringSize, (car + 1) * ringSize, false);
+        ringHeads[car] = 0;
+        pathCounts[car] = 0;
+        freeCars[freeCount++] = car;
+    }
+
+    /**
+     * Removes a VIN from the table, shifting back the following VINs of its probe sequence so none is left unreachable.
+     */
+    private void removeVin(long hash) {
+        int mask = vinTableHashes.length - 1;
+        int gap = (int) hash & mask;
+        while (vinTableHashes[gap] != hash) {
+            gap = (gap + 1) & mask;
+        }
+        for (int index = (gap + 1) & mask; vinTableHashes[index] != EMPTY; index = (index + 1) & mask) {
+            int home = (int) vinTableHashes[index] & mask;
+            // Movable to the gap if the gap is between its home slot and its slot
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                vinTableHashes[gap] = vinTableHashes[index];
+                vinTableCars[gap] = vinTableCars[index];
+                gap = index;
+            }
+        }
+        vinTableHashes[gap] = EMPTY;
+    }
+
+    private void growCars() {
+        int capacity = Math.min(vins.length * 2, maxCars);
+        vins = Arrays.copyOf(vins, capacity);
+        vinHashes = Arrays.copyOf(vinHashes, capacity);
+        freeCars = Arrays.copyOf(freeCars, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        ringSensors = Arrays.copyOf(ringSensors, capacity * ringSize);
+        ringTimestamps = Arrays.copyOf(ringTimestamps, capacity * ringSize);
+        ringConsumed = Arrays.copyOf(ringConsumed, capacity * ringSize);
+        ringHeads = Arrays.copyOf(ringHeads, capacity);
+        pathSensors = Arrays.copyOf(pathSensors, capacity * pathLength);
+        pathCounts = Arrays.copyOf(pathCounts, capacity);
+    }
+
+    private void growVinTable() {
+        long[] hashes = vinTableHashes;
+        int[] indexes = vinTableCars;
+        vinTableHashes = new long[hashes.length * 2];
+        vinTableCars = new int[hashes.length * 2];
+        int mask = vinTableHashes.length - 1;
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != EMPTY) {
+                int index = (int) hashes[i] & mask;
+                while (vinTableHashes[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                vinTableHashes[index] = hashes[i];
+                vinTableCars[index] = indexes[i];
+            }
+        }
+    }
+
+    private static String string(byte[] bytes, int offset, int length) {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FNV-1a, finished by the mixer of MurmurHash3 to spread the bits: never {@link #EMPTY}.
+     */
+    static long hash(byte[] bytes, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static long longArrayBytes(int length) {
+        return align(16 + 8L * length);
+    }
+
+    private static long booleanArrayBytes(int length) {
+        return align(16 + (long) length);
+    }
+
+    private static long intArrayBytes(int length) {
+        return align(16 + 4L * length);
+    }
+
+    private static long referenceArrayBytes(int length) {
+        return align(16 + 4L * length);
+    }
+
+    private static long stringBytes(int latin1Length) {
+        return 24 + align(16 + latin1Length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
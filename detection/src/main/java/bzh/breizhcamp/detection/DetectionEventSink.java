@@ -0,0 +1,40 @@
+package bzh.breizhcamp.detection;
+
+import bzh.breizhcamp.events.EventSink;
+import org.apache.kafka.clients.producer.Callback;
+
+import java.util.function.Consumer;
+
+/**
+ * Feeds the events of a city simulated in the same process to a detection engine, without Kafka nor files.
+ * The shards of the city send their events one at a time.
+ */
+public class DetectionEventSink implements EventSink {
+    private final DetectionEngine engine;
+    private final CarDetectedEventDecoder decoder = new CarDetectedEventDecoder();
+
+    public DetectionEventSink(DetectionEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void send(byte[] key, byte[] value, int valueLength, long timestamp, Callback callback) {
+        synchronized (this) {
+            if (decoder.decode(value, valueLength)) {
+                engine.onEvent(decoder);
+            }
+        }
+        callback.onCompletion(null, null);
+    }
+
+    /**
+     * Runs an action on the engine between two events.
+     */
+    public synchronized void withEngine(Consumer<DetectionEngine> action) {
+        action.accept(engine);
+    }
+
+    @Override
+    public void close() {
+    }
+}
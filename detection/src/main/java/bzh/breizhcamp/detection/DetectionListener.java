@@ -0,0 +1,11 @@
+package bzh.breizhcamp.detection;
+
+/**
+ * Receives the patterns found by a {@link DetectionEngine}, on the thread feeding the engine.
+ */
+public interface DetectionListener {
+
+    void onRevisit(Revisit revisit);
+
+    void onFollower(Follower follower);
+}
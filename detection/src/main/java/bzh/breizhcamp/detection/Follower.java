@@ -0,0 +1,20 @@
+package bzh.breizhcamp.detection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A car detected by the same sequence of sensors as another one, within the follow window.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class Follower {
+    private final String leaderVin;
+    private final String followerVin;
+    // Last sensor of the shared path
+    private final String sensorId;
+    private final long leaderTimestamp;
+    private final long followerTimestamp;
+}
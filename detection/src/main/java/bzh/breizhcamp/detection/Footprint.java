@@ -0,0 +1,33 @@
+package bzh.breizhcamp.detection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Memory held by a {@link DetectionEngine}, in bytes, counted from the sizes of its arrays on a 64 bits JVM with
+ * compressed references: 16 bytes array headers, 24 bytes String objects with Latin-1 contents.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class Footprint {
+    private final int cars;
+    // Revisit rings and paths, allocated for the capacity of the car arrays
+    private final long carStateBytes;
+    // VINs kept for the reports and the VIN to car table
+    private final long identityBytes;
+    // Latest car of each path, fixed size
+    private final long pathTableBytes;
+
+    public long totalBytes() {
+        return carStateBytes + identityBytes + pathTableBytes;
+    }
+
+    /**
+     * @return the bytes of the state growing with the number of cars, per car
+     */
+    public double bytesPerCar() {
+        return cars == 0 ? 0 : (double) (carStateBytes + identityBytes) / cars;
+    }
+}
@@ -0,0 +1,66 @@
+package bzh.breizhcamp.detection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Puts back in timestamp order the events of a source interleaving partitions, like a topic keyed by sensor: the events
+ * of a car come from several partitions. Each event is held until the latest timestamp seen is past it by the allowed
+ * lateness, or until too many events are held, then passed to the engine. Events later than that reach the engine out of
+ * order, which ignores them.
+ */
+class ReorderBuffer {
+    private final DetectionEngine engine;
+    private final long latenessMillis;
+    private final int maxEvents;
+    private final PriorityQueue<Event> events = new PriorityQueue<>(Comparator.comparingLong(Event::timestamp));
+    private long maxTimestamp;
+
+    /**
+     * @param latenessMillis delay of event time after which an event is passed to the engine
+     * @param maxEvents      number of events held at most
+     */
+    ReorderBuffer(DetectionEngine engine, long latenessMillis, int maxEvents) {
+        this.engine = engine;
+        this.latenessMillis = latenessMillis;
+        this.maxEvents = maxEvents;
+    }
+
+    /**
+     * Holds the last event decoded by a decoder, and passes the events out of the allowed lateness to the engine.
+     */
+    void add(CarDetectedEventDecoder event) {
+        if (event.getVinLength() == 0) {
+            return;
+        }
+        byte[] buffer = event.getBuffer();
+        events.add(new Event(Arrays.copyOfRange(buffer, event.getSensorIdOffset(), event.getSensorIdOffset() + event.getSensorIdLength()),
+                Arrays.copyOfRange(buffer, event.getVinOffset(), event.getVinOffset() + event.getVinLength()),
+                event.getTimestamp()));
+        maxTimestamp = Math.max(maxTimestamp, event.getTimestamp());
+        while (!events.isEmpty() && (events.size() > maxEvents || maxTimestamp - events.peek().timestamp() >= latenessMillis)) {
+            pass(events.poll());
+        }
+    }
+
+    /**
+     * Passes all the events held to the engine.
+     */
+    void flush() {
+        while (!events.isEmpty()) {
+            pass(events.poll());
+        }
+    }
+
+    int size() {
+        return events.size();
+    }
+
+    private void pass(Event event) {
+        engine.onEvent(event.sensorId(), 0, event.sensorId().length, event.vin(), 0, event.vin().length, event.timestamp());
+    }
+
+    private record Event(byte[] sensorId, byte[] vin, long timestamp) {
+    }
+}
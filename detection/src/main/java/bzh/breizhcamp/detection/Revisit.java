@@ -0,0 +1,18 @@
+package bzh.breizhcamp.detection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A car detected twice by the same sensor within the revisit window.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class Revisit {
+    private final String vin;
+    private final String sensorId;
+    private final long firstTimestamp;
+    private final long secondTimestamp;
+}
@@ -0,0 +1,295 @@
+package bzh.breizhcamp.detection;
+
+import bzh.breizhcamp.city.model.Car;
+import bzh.breizhcamp.city.services.CityService;
+import bzh.breizhcamp.kafka.CarDetectedEventEncoder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class DetectionEngineTest {
+    private final List<Revisit> revisits = new ArrayList<>();
+    private final List<Follower> followers = new ArrayList<>();
+    private final DetectionListener listener = new DetectionListener() {
+        @Override
+        public void onRevisit(Revisit revisit) {
+            revisits.add(revisit);
+        }
+
+        @Override
+        public void onFollower(Follower follower) {
+            followers.add(follower);
+        }
+    };
+
+    @Test
+    public void testRevisits() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 4, 10, 20_000, 1024, 1_000_000, listener);
+
+        // When
+        event(engine, "city-1-1", "VIN", 1_000);
+        event(engine, "city-1-2", "VIN", 2_000);
+        event(engine, "city-1-1", "VIN", 3_000);
+        event(engine, "city-1-1", "OTHER_VIN", 4_000);
+        event(engine, "city-1-2", "VIN", 20_000);
+
+        // Then
+        Assertions.assertEquals(1, revisits.size());
+        Assertions.assertEquals("VIN", revisits.get(0).getVin());
+        Assertions.assertEquals("city-1-1", revisits.get(0).getSensorId());
+        Assertions.assertEquals(1_000, revisits.get(0).getFirstTimestamp());
+        Assertions.assertEquals(3_000, revisits.get(0).getSecondTimestamp());
+    }
+
+    @Test
+    public void testRingEviction() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 2, 10, 20_000, 1024, 1_000_000, listener);
+
+        // When
+        event(engine, "city-0-0", "VIN", 1_000);
+        event(engine, "city-0-1", "VIN", 2_000);
+        event(engine, "city-0-2", "VIN", 3_000);
+        event(engine, "city-0-0", "VIN", 4_000);
+
+        // Then
+        Assertions.assertEquals(0, revisits.size());
+        Assertions.assertEquals(2, engine.getRingEvictions());
+    }
+
+    @Test
+    public void testFollowers() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 3, 20_000, 1024, 1_000_000, listener);
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            event(engine, "city-" + i + "-0", "LEADER", 1_000 + i * 1_000);
+            if (i > 0) {
+                event(engine, "city-" + (i - 1) + "-0", "FOLLOWER", 1_000 + i * 1_000);
+            }
+        }
+        event(engine, "city-3-0", "FOLLOWER", 5_000);
+        event(engine, "city-1-0", "LATE", 30_000);
+        event(engine, "city-2-0", "LATE", 31_000);
+        event(engine, "city-3-0", "LATE", 32_000);
+
+        // Then
+        Assertions.assertEquals(2, followers.size());
+        Assertions.assertEquals("LEADER", followers.get(0).getLeaderVin());
+        Assertions.assertEquals("FOLLOWER", followers.get(0).getFollowerVin());
+        Assertions.assertEquals("city-2-0", followers.get(0).getSensorId());
+        Assertions.assertEquals(3_000, followers.get(0).getLeaderTimestamp());
+        Assertions.assertEquals(4_000, followers.get(0).getFollowerTimestamp());
+        Assertions.assertEquals("city-3-0", followers.get(1).getSensorId());
+    }
+
+    @Test
+    public void testFootprint() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 1_000_000, listener);
+
+        // When
+        for (int i = 0; i < 2000; i++) {
+            event(engine, "city-0-0", String.format("VIN%014d", i), 1_000);
+        }
+        Footprint footprint = engine.footprint();
+
+        // Then
+        Assertions.assertEquals(2000, footprint.getCars());
+        // Rings (16 sensors, timestamps and consumed flags), paths (10 sensors) and their heads and counts, latest
+        // timestamps, generations and free list, for 2048 cars
+        Assertions.assertEquals(2048 * (16 * 17 + 10 * 8 + 4 + 4 + 8 + 4 + 4) + 9 * 16, footprint.getCarStateBytes());
+        Assertions.assertEquals(4 * 16 + 1024 * (8 + 4 + 4 + 8), footprint.getPathTableBytes());
+        Assertions.assertTrue(footprint.bytesPerCar() > 376 && footprint.bytesPerCar() < 550);
+    }
+
+    @Test
+    public void testIdleCarsForgotten() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 1_000_000, listener);
+        for (int i = 0; i < 2000; i++) {
+            event(engine, "city-0-0", String.format("VIN%014d", i), 1_000);
+        }
+        Footprint footprint = engine.footprint();
+
+        // When
+        for (int i = 0; i < 2000; i++) {
+            event(engine, "city-0-0", String.format("NEW%014d", i), 100_000);
+        }
+
+        // Then
+        Assertions.assertEquals(2000, engine.cars());
+        Assertions.assertEquals(0, engine.getCarEvictions());
+        Assertions.assertEquals(footprint.getCarStateBytes(), engine.footprint().getCarStateBytes());
+        Assertions.assertEquals(footprint.getIdentityBytes(), engine.footprint().getIdentityBytes());
+    }
+
+    @Test
+    public void testCarsCapped() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 4, listener);
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            event(engine, "city-0-" + i, "VIN" + i, 1_000 + i);
+        }
+        event(engine, "city-0-0", "VIN0", 2_000);
+
+        // Then
+        Assertions.assertEquals(4, engine.cars());
+        Assertions.assertEquals(2, engine.getCarEvictions());
+        // Forgotten, VIN0 starts over: its first sensor is no revisit
+        Assertions.assertEquals(0, revisits.size());
+    }
+
+    @Test
+    public void testFollowerOfForgottenLeader() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 3, 20_000, 1024, 2, listener);
+        for (int i = 0; i < 3; i++) {
+            event(engine, "city-" + i + "-0", "LEADER", 1_000 + i * 1_000);
+        }
+
+        // When
+        event(engine, "city-9-0", "OTHER", 3_500);
+        // Takes the index of the leader
+        event(engine, "city-9-0", "REUSER", 3_600);
+        for (int i = 0; i < 3; i++) {
+            event(engine, "city-" + i + "-0", "FOLLOWER", 4_000 + i * 1_000);
+        }
+
+        // Then
+        Assertions.assertEquals(2, engine.getCarEvictions());
+        Assertions.assertEquals(0, followers.size());
+    }
+
+    @Test
+    public void testConsumedRevisits() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 1_000_000, listener);
+
+        // When
+        event(engine, "city-0-0", "VIN", 1_000);
+        event(engine, "city-0-1", "VIN", 1_500);
+        event(engine, "city-0-1", "VIN", 1_600);
+        event(engine, "city-0-1", "VIN", 1_700);
+        event(engine, "city-0-0", "VIN", 2_000);
+
+        // Then
+        Assertions.assertEquals(2, revisits.size());
+        Assertions.assertEquals("city-0-1", revisits.get(0).getSensorId());
+        Assertions.assertEquals(1_500, revisits.get(0).getFirstTimestamp());
+        // Past the consumed detections
+        Assertions.assertEquals("city-0-0", revisits.get(1).getSensorId());
+        Assertions.assertEquals(1_000, revisits.get(1).getFirstTimestamp());
+        Assertions.assertEquals(2_000, revisits.get(1).getSecondTimestamp());
+    }
+
+    @Test
+    public void testLateEvents() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 1_000_000, listener);
+
+        // When
+        event(engine, "city-0-0", "VIN", 2_000);
+        event(engine, "city-0-0", "VIN", 1_000);
+        event(engine, "city-0-0", "OTHER_VIN", 1_000);
+
+        // Then
+        Assertions.assertEquals(1, engine.getLateEvents());
+        Assertions.assertEquals(0, revisits.size());
+    }
+
+    @Test
+    public void testReorderBuffer() {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 1_000_000, listener);
+        ReorderBuffer reorderBuffer = new ReorderBuffer(engine, 1_000, 100);
+
+        // When
+        reorderBuffer.add(decoded("city-0-0", "VIN", 2_000));
+        reorderBuffer.add(decoded("city-0-1", "VIN", 3_500));
+        reorderBuffer.add(decoded("city-0-0", "VIN", 3_000));
+        reorderBuffer.add(decoded("city-0-1", "VIN", 1_000));
+        reorderBuffer.add(decoded("", "", 3_600));
+        int held = reorderBuffer.size();
+        reorderBuffer.flush();
+
+        // Then
+        Assertions.assertEquals(2, held);
+        Assertions.assertEquals(4, engine.getEvents());
+        // Older than the released events of its car
+        Assertions.assertEquals(1, engine.getLateEvents());
+        Assertions.assertEquals(List.of(2_000L), revisits.stream().map(Revisit::getFirstTimestamp).toList());
+    }
+
+    @Test
+    public void testTruncatedEventsRejected() {
+        // Given
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(1, "City");
+        CarDetectedEventDecoder decoder = new CarDetectedEventDecoder();
+        int length = encoder.encode("city-0-0".getBytes(StandardCharsets.UTF_8), "VIN", "PLATE", 1, 2, 1_000);
+        byte[] foreign = {0, 0, 0, 0, 1, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+
+        // When
+        List<Long> decodedTimestamps = new ArrayList<>();
+        for (int truncatedLength = 0; truncatedLength <= length; truncatedLength++) {
+            if (decoder.decode(Arrays.copyOf(encoder.buffer(), truncatedLength), truncatedLength)) {
+                decodedTimestamps.add(decoder.getTimestamp());
+            }
+        }
+
+        // Then
+        // Only the fields appended after the timestamp may be cut
+        Assertions.assertFalse(decodedTimestamps.isEmpty());
+        Assertions.assertTrue(decodedTimestamps.stream().allMatch(timestamp -> timestamp == 1_000));
+        // A string longer than the event
+        Assertions.assertFalse(decoder.decode(foreign, foreign.length));
+    }
+
+    @Test
+    public void testInProcessCity() throws InterruptedException {
+        // Given
+        DetectionEngine engine = new DetectionEngine(10_000, 16, 10, 20_000, 1024, 1_000_000, listener);
+        DetectionEventSink sink = new DetectionEventSink(engine);
+
+        // When
+        try (CityService cityService = new CityService(1000).initSink(sink, 0)) {
+            List<Car> leaders = cityService.startNewCars(null, 10, 20, 0);
+            cityService.startNewCars(leaders.get(0).getVin(), 1, 20, 0);
+            for (int i = 0; i < 100 && followers.isEmpty(); i++) {
+                Thread.sleep(50);
+            }
+        }
+
+        // Then
+        sink.withEngine(detectionEngine -> {
+            Assertions.assertTrue(detectionEngine.getEvents() > 100);
+            Assertions.assertEquals(11, detectionEngine.cars());
+        });
+        Assertions.assertFalse(followers.isEmpty());
+        Assertions.assertEquals(leaders(followers), List.of(followers.get(0).getLeaderVin()));
+    }
+
+    private static List<String> leaders(List<Follower> followers) {
+        return followers.stream().map(Follower::getLeaderVin).distinct().toList();
+    }
+
+    private static void event(DetectionEngine engine, String sensorId, String vin, long timestamp) {
+        engine.onEvent(decoded(sensorId, vin, timestamp));
+    }
+
+    private static CarDetectedEventDecoder decoded(String sensorId, String vin, long timestamp) {
+        CarDetectedEventEncoder encoder = new CarDetectedEventEncoder(1, "City");
+        CarDetectedEventDecoder decoder = new CarDetectedEventDecoder();
+        int length = encoder.encode(sensorId.getBytes(StandardCharsets.UTF_8), vin, "PLATE", 0, 0, timestamp);
+        Assertions.assertTrue(decoder.decode(encoder.buffer(), length));
+        return decoder;
+    }
+}